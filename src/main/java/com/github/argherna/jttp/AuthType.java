@@ -0,0 +1,13 @@
+package com.github.argherna.jttp;
+
+/**
+ * Authentication schemes Jttp can authenticate with on the first request.
+ */
+enum AuthType {
+    /** Send {@code Basic} credentials preemptively. */
+    BASIC,
+    /** Answer {@code Digest} challenges, reusing the last challenge for the host. */
+    DIGEST,
+    /** Send an OAuth 2.0 access token, obtained from the token endpoint and cached. */
+    OAUTH2;
+}
@@ -0,0 +1,154 @@
+package com.github.argherna.jttp;
+
+import static java.lang.System.Logger.Level.WARNING;
+import static java.util.Objects.nonNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs a file of requests in one process.
+ *
+ * <p>
+ * Every line of the file is the arguments of one Jttp run (options, url and request items),
+ * quoted as in a shell. Blank lines and lines starting with {@code #} are skipped. The file is
+ * read as the requests are sent, so it may be arbitrarily long or be a pipe.
+ *
+ * <p>
+ * Requests run on a fixed pool of worker threads, at most {@code hostLimit} at a time to any one
+ * host, and requests that use the same session one at a time. Connections are kept alive between
+ * requests to the same host. A request that fails is reported and doesn't stop the batch.
+ *
+ * <p>
+ * The output of each request is collected in memory and written as a whole, either to stdout in
+ * the order of the file (or in the order the requests finish) or to a file per request named
+ * after its line number. At most twice as many requests as there are workers are in flight or
+ * waiting for their turn to be written. A summary is printed on stderr at the end.
+ */
+class Batch {
+
+    private final BufferedReader specs;
+
+    private final Path outputDir;
+
+    private final boolean ordered;
+
+    private final PrintStream out;
+
+    private final Runner runner;
+
+    private final Map<Integer, Runner.Result> pending = new HashMap<>();
+
+    private int nextToWrite;
+
+    /**
+     * Constructs a new Batch.
+     *
+     * @param specs     the request lines.
+     * @param parallel  number of worker threads.
+     * @param hostLimit maximum number of concurrent requests to one host.
+     * @param outputDir directory to write each request's output to, or {@code null} for stdout.
+     * @param ordered   {@code true} to write to stdout in the order of the file.
+     * @param out       stdout.
+     * @param err       stderr.
+     */
+    Batch(BufferedReader specs, int parallel, int hostLimit, Path outputDir, boolean ordered,
+            PrintStream out, PrintStream err) {
+        this.specs = specs;
+        this.outputDir = outputDir;
+        this.ordered = ordered;
+        this.out = out;
+        this.runner = new Runner("jttp-batch", parallel, hostLimit, err);
+    }
+
+    /**
+     * Runs every request in the file and prints the summary.
+     *
+     * @return the number of requests that failed.
+     * @throws IOException if an IOException occurs reading the file or writing the output.
+     */
+    long run() throws IOException {
+        if (nonNull(outputDir)) {
+            Files.createDirectories(outputDir);
+        }
+        runner.start();
+        var count = 0;
+        try {
+            var lineNumber = 0;
+            String line;
+            while (nonNull(line = specs.readLine())) {
+                lineNumber++;
+                var spec = line.strip();
+                if (spec.isEmpty() || spec.startsWith("#")) {
+                    continue;
+                }
+                var index = count++;
+                var number = lineNumber;
+                runner.submit(() -> complete(index, number, runner.execute(
+                        () -> Util.splitArgs(spec), false, (jttp, result) -> {
+                            if (result.status == -1) {
+                                throw new IOException(MessageFormat.format(
+                                        Jttp.RB.getString("error.batch.no.response"), spec));
+                            }
+                        })));
+            }
+            runner.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            runner.stop();
+        }
+        runner.printSummary(count);
+        return runner.getFailed();
+    }
+
+    /**
+     * Counts a finished request and writes its output when its turn comes.
+     *
+     * @param index  position of the request in the batch.
+     * @param number line number of the request.
+     * @param result the result.
+     */
+    private void complete(int index, int number, Runner.Result result) {
+        if (nonNull(result.failure)) {
+            Jttp.LOGGER.log(WARNING, "logger.warning.batch.failed", number,
+                    Runner.describe(result.failure));
+        }
+        runner.count(result);
+        if (nonNull(outputDir)) {
+            var file = outputDir.resolve(String.format("%06d.out", number));
+            try {
+                Files.write(file, result.output);
+            } catch (IOException e) {
+                runner.countFailure();
+                Jttp.LOGGER.log(WARNING, "logger.warning.batch.failed", number,
+                        Runner.describe(e));
+            }
+            runner.release();
+        } else if (!ordered) {
+            synchronized (out) {
+                out.write(result.output, 0, result.output.length);
+                out.flush();
+            }
+            runner.release();
+        } else {
+            synchronized (pending) {
+                pending.put(index, result);
+                for (var next = pending.remove(nextToWrite); nonNull(next);
+                        next = pending.remove(nextToWrite)) {
+                    out.write(next.output, 0, next.output.length);
+                    out.flush();
+                    nextToWrite++;
+                    runner.release();
+                }
+            }
+        }
+    }
+}
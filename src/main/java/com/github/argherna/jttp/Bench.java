@@ -0,0 +1,244 @@
+package com.github.argherna.jttp;
+
+import static java.util.Objects.nonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the same request over and over for a time and reports latency percentiles and
+ * throughput.
+ *
+ * <p>
+ * In the closed model, each of {@code users} threads sends a request as soon as its previous one
+ * is answered. In the open model, requests are scheduled at a fixed rate regardless of how fast
+ * they are answered, and {@code users} threads send them; when they are all busy, requests wait.
+ *
+ * <p>
+ * Latencies are corrected for coordinated omission. In the open model, a latency is measured from
+ * the time the request was scheduled, not the time it was sent, so waiting for a free thread
+ * counts. In the closed model, the median latency of the warmup is taken as the interval a user
+ * would have sent requests at, and a response slower than that is recorded together with the
+ * responses the user would have waited for meanwhile. Without a warmup, closed model latencies
+ * are not corrected.
+ *
+ * <p>
+ * Response bodies are read into a scratch buffer and thrown away, and connections are kept alive.
+ * Requests that fail with an exception are counted as errors and not recorded. In the closed
+ * model, a user that got one waits {@value #ERROR_BACKOFF_MILLIS} milliseconds before sending
+ * again, so that a refused connection doesn't turn it into a busy loop.
+ */
+class Bench {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final long ERROR_BACKOFF_MILLIS = 100;
+
+    private final Callable<HttpURLConnection> request;
+
+    private final int users;
+
+    private final double rate;
+
+    private final long durationNanos;
+
+    private final long warmupNanos;
+
+    private final AtomicLong scheduled = new AtomicLong();
+
+    private long startNanos;
+
+    private long correctionMicros;
+
+    /**
+     * Constructs a new Bench.
+     *
+     * @param request        opens a connection for the request and sends the request body.
+     * @param users          concurrent users (closed model) or maximum requests in flight (open
+     *                       model).
+     * @param rate           requests per second for the open model, or {@code 0} for the closed
+     *                       model.
+     * @param durationMillis how long to measure, in milliseconds.
+     * @param warmupMillis   how long to send requests before measuring, in milliseconds.
+     */
+    Bench(Callable<HttpURLConnection> request, int users, double rate, long durationMillis,
+            long warmupMillis) {
+        this.request = request;
+        this.users = users;
+        this.rate = rate;
+        this.durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        this.warmupNanos = TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+    }
+
+    /**
+     * Runs the warmup and the measurement and prints the report.
+     *
+     * @param ps where the report is printed.
+     * @throws IOException if the run is interrupted.
+     */
+    void run(PrintStream ps) throws IOException {
+        startNanos = System.nanoTime();
+        if (rate <= 0 && warmupNanos > 0) {
+            var warmup = runPhase(startNanos + warmupNanos);
+            correctionMicros = warmup.histogram.getValueAtPercentile(50);
+            startNanos = System.nanoTime();
+        }
+        var results = runPhase(startNanos + (rate > 0 ? warmupNanos : 0) + durationNanos);
+        report(ps, results);
+    }
+
+    /**
+     * Runs the users until the end of a phase.
+     *
+     * @param endNanos when the phase ends.
+     * @return the results of all users added together.
+     * @throws IOException if the run is interrupted.
+     */
+    private Results runPhase(long endNanos) throws IOException {
+        var executor = Executors.newFixedThreadPool(users, r -> {
+            var t = new Thread(r, "jttp-bench");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            var futures = new ArrayList<Future<Results>>();
+            for (int i = 0; i < users; i++) {
+                futures.add(executor.submit(() -> user(endNanos)));
+            }
+            var results = new Results();
+            for (var future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends requests until the end of the phase.
+     *
+     * @param endNanos when the phase ends.
+     * @return the results of this user.
+     */
+    private Results user(long endNanos) {
+        var results = new Results();
+        var buffer = new byte[0x2000];
+        var measureFromNanos = startNanos + (rate > 0 ? warmupNanos : 0);
+        while (true) {
+            long intendedNanos;
+            if (rate > 0) {
+                intendedNanos = startNanos + (long) (scheduled.getAndIncrement() * 1e9 / rate);
+                if (intendedNanos >= endNanos) {
+                    return results;
+                }
+                for (var wait = intendedNanos - System.nanoTime(); wait > 0;
+                        wait = intendedNanos - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                intendedNanos = System.nanoTime();
+                if (intendedNanos >= endNanos) {
+                    return results;
+                }
+            }
+            int status;
+            try {
+                status = exchange(buffer);
+            } catch (Exception e) {
+                if (intendedNanos >= measureFromNanos) {
+                    results.errors++;
+                }
+                if (rate <= 0) {
+                    // The open model's schedule already paces the user.
+                    LockSupport.parkNanos(Math.min(endNanos - System.nanoTime(),
+                            TimeUnit.MILLISECONDS.toNanos(ERROR_BACKOFF_MILLIS)));
+                }
+                continue;
+            }
+            var micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedNanos);
+            if (intendedNanos >= measureFromNanos) {
+                results.histogram.record(micros, rate > 0 ? 0 : correctionMicros);
+                results.sent++;
+                if (status >= 400) {
+                    results.errorStatuses++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the request and reads the response body into the scratch buffer.
+     *
+     * @param buffer the scratch buffer.
+     * @return the response status.
+     * @throws Exception if an exception occurs.
+     */
+    private int exchange(byte[] buffer) throws Exception {
+        var conn = request.call();
+        var status = conn.getResponseCode();
+        var in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+        if (nonNull(in)) {
+            try (InputStream body = in) {
+                while (body.read(buffer) != -1) {
+                    // Discarded.
+                }
+            }
+        }
+        return status;
+    }
+
+    private void report(PrintStream ps, Results results) {
+        var histogram = results.histogram;
+        var seconds = durationNanos / 1e9;
+        ps.println(MessageFormat.format(Jttp.RB.getString("jttp.bench.summary"), results.sent,
+                seconds, results.sent / seconds, results.errors, results.errorStatuses));
+        for (var percentile : PERCENTILES) {
+            ps.println(MessageFormat.format(Jttp.RB.getString("jttp.bench.percentile"),
+                    percentile, millis(histogram.getValueAtPercentile(percentile))));
+        }
+        ps.println(MessageFormat.format(Jttp.RB.getString("jttp.bench.max"),
+                millis(histogram.getMax()), histogram.getMean() / 1000));
+        if (rate <= 0 && correctionMicros == 0) {
+            ps.println(Jttp.RB.getString("jttp.bench.uncorrected"));
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static class Results {
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private long sent;
+
+        private long errors;
+
+        private long errorStatuses;
+
+        private void add(Results other) {
+            histogram.add(other.histogram);
+            sent += other.sent;
+            errors += other.errors;
+            errorStatuses += other.errorStatuses;
+        }
+    }
+}
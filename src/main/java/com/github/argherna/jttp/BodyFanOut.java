@@ -0,0 +1,108 @@
+package com.github.argherna.jttp;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hands a response body to every consumer while it is read from the connection, so the body is
+ * read from the connection once.
+ *
+ * <p>
+ * Every chunk is written to the spool file (or download) first and then, before the next chunk is
+ * read, to the other consumers: a SHA-256 digest and a copy kept in memory, each only if asked
+ * for. The copy is bounded: once the body is larger than the limit, the copy is dropped and the
+ * body has to be read back from the spool file. Nothing is queued, so a slow consumer slows down
+ * reading and the memory used doesn't grow with the size of the body beyond the limit.
+ *
+ * <p>
+ * The spool file isn't the only copy on disk: saving a session copies it into the session's
+ * store afterwards.
+ */
+class BodyFanOut extends FilterOutputStream {
+
+    private final int memoryLimit;
+
+    private final MessageDigest digest;
+
+    private ByteArrayOutputStream memory;
+
+    private byte[] bytes;
+
+    private byte[] digestValue;
+
+    private long count;
+
+    /**
+     * Constructs a new BodyFanOut.
+     *
+     * @param spool       where the body is written.
+     * @param memoryLimit the largest body kept in memory, {@code 0} to keep none.
+     * @param withDigest  if {@code true} compute the SHA-256 digest of the body.
+     */
+    BodyFanOut(OutputStream spool, int memoryLimit, boolean withDigest) {
+        super(spool);
+        this.memoryLimit = memoryLimit;
+        this.memory = memoryLimit > 0 ? new ByteArrayOutputStream() : null;
+        try {
+            this.digest = withDigest ? MessageDigest.getInstance("SHA-256") : null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+        if (nonNull(digest)) {
+            digest.update(b, off, len);
+        }
+        if (nonNull(memory)) {
+            bytes = null;
+            if (count > memoryLimit) {
+                memory = null;
+            } else {
+                memory.write(b, off, len);
+            }
+        }
+    }
+
+    /**
+     * @return the body, or {@code null} if it wasn't kept in memory. The same array is returned
+     *         until more is written, so it must not be changed.
+     */
+    byte[] getBytes() {
+        if (nonNull(memory) && isNull(bytes)) {
+            bytes = memory.toByteArray();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (nonNull(digest) && isNull(digestValue)) {
+            digestValue = digest.digest();
+        }
+    }
+
+    /**
+     * @return the SHA-256 digest of the body, or {@code null} if it wasn't computed or this
+     *         BodyFanOut isn't closed yet.
+     */
+    byte[] getDigest() {
+        return digestValue;
+    }
+}
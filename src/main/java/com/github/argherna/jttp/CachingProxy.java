@@ -0,0 +1,295 @@
+package com.github.argherna.jttp;
+
+import static java.lang.System.Logger.Level.WARNING;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server that forwards requests to an upstream server, records the exchanges in a
+ * session and serves repeated requests from the session.
+ *
+ * <p>
+ * Requests are forwarded to the same path below the upstream url, with the session's headers and
+ * cookies. The client's headers replace the session's headers with the same name, except
+ * cookies, which are added to the session's. Every response the upstream sends is recorded in the
+ * session's history, decompressed, and its cookies are saved to the session.
+ *
+ * <p>
+ * A request is served from the session when a response was recorded for it, matched by a
+ * {@link HistoryIndex} on the configured parts of the request, and it isn't older than the
+ * maximum age. Otherwise it is forwarded and the new response recorded. When the upstream can't
+ * be reached, a recorded response is served however old it is. Recorded responses are served
+ * with their status and content type only, and an {@code X-Jttp-Cache} header says where a
+ * response came from ({@code HIT}, {@code MISS} or {@code STALE}).
+ *
+ * <p>
+ * Unless asked to serve unsafe methods, only {@code GET}, {@code HEAD} and {@code OPTIONS}
+ * requests are served from the session. The others are always forwarded, since the upstream has
+ * to act on them, even when they are idempotent like {@code PUT} and {@code DELETE}.
+ *
+ * <p>
+ * Responses are recorded in the session by one request at a time; forwarding and serving recorded
+ * responses aren't serialized.
+ */
+class CachingProxy {
+
+    private static final Set<String> HOP_BY_HOP_HEADERS = new TreeSet<>(
+            String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        HOP_BY_HOP_HEADERS.addAll(List.of("Connection", "Content-Encoding", "Content-Length",
+                "Host", "Keep-Alive", "Proxy-Authorization", "Proxy-Connection", "TE", "Trailer",
+                "Transfer-Encoding", "Upgrade"));
+    }
+
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+
+    private final URI upstream;
+
+    private final Session session;
+
+    private final Map<String, List<String>> sessionProperties;
+
+    private final ConnectionFactory connections;
+
+    private final HistoryIndex index;
+
+    private final boolean serveUnsafe;
+
+    private final long maxAgeMillis;
+
+    private final PrintStream ps;
+
+    /**
+     * Constructs a new CachingProxy.
+     *
+     * @param upstream          the url requests are forwarded below.
+     * @param session           the session responses are recorded in and served from.
+     * @param sessionProperties the session's request properties, saved with every response.
+     * @param connections       opens connections with the session's request properties.
+     * @param match             the parts of a request a recorded one has to have the same.
+     * @param serveUnsafe       {@code true} to serve requests with any method from the
+     *                          session, not only safe ones.
+     * @param maxAge            the age in seconds after which a recorded response is forwarded
+     *                          again, or {@code 0} for no limit.
+     * @param ps                where a line per request is printed.
+     */
+    CachingProxy(URI upstream, Session session, Map<String, List<String>> sessionProperties,
+            ConnectionFactory connections, Set<HistoryIndex.Match> match, boolean serveUnsafe,
+            long maxAge, PrintStream ps) {
+        this.upstream = upstream;
+        this.session = session;
+        this.sessionProperties = sessionProperties;
+        this.connections = connections;
+        this.index = new HistoryIndex(match);
+        this.serveUnsafe = serveUnsafe;
+        this.maxAgeMillis = TimeUnit.SECONDS.toMillis(maxAge);
+        this.ps = ps;
+    }
+
+    /**
+     * Indexes the session's history and serves requests until the process is stopped.
+     *
+     * @param port the loopback port to listen on, {@code 0} for any free one.
+     * @throws IOException if the history can't be read or the port can't be opened.
+     */
+    void run(int port) throws IOException {
+        try {
+            session.readHistory(index::add);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                port), 0);
+        var executor = Executors.newCachedThreadPool(r -> {
+            var t = new Thread(r, "jttp-serve");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        try {
+            ps.println(MessageFormat.format(Jttp.RB.getString("jttp.serve.listening"),
+                    server.getAddress().getPort(), upstream, index.size()));
+            ps.flush();
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        var start = System.nanoTime();
+        File body = null;
+        try {
+            var method = exchange.getRequestMethod();
+            var target = new URL(upstream.getScheme() + "://" + upstream.getRawAuthority()
+                    + upstream.getRawPath().replaceAll("/+$", "")
+                    + exchange.getRequestURI().getRawPath()
+                    + (nonNull(exchange.getRequestURI().getRawQuery())
+                            ? "?" + exchange.getRequestURI().getRawQuery()
+                            : ""));
+            var requestBody = exchange.getRequestBody().readAllBytes();
+            var data = requestBody.length > 0 ? new String(requestBody, UTF_8) : null;
+            var recorded = serveUnsafe || SAFE_METHODS.contains(method)
+                    ? index.find(method, target.getPath(), target.getQuery(), data)
+                    : null;
+            String outcome;
+            if (nonNull(recorded) && (maxAgeMillis == 0
+                    || System.currentTimeMillis() - recorded.timestamp <= maxAgeMillis)) {
+                outcome = "HIT";
+                body = serveRecorded(exchange, recorded, outcome);
+            } else {
+                try {
+                    outcome = "MISS";
+                    body = forward(exchange, target, method, requestBody, data);
+                } catch (IOException e) {
+                    if (isNull(recorded)) {
+                        Jttp.LOGGER.log(WARNING, "logger.warning.serve.upstream", target,
+                                e.toString());
+                        outcome = "ERROR";
+                        exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_GATEWAY, -1);
+                    } else {
+                        outcome = "STALE";
+                        body = serveRecorded(exchange, recorded, outcome);
+                    }
+                }
+            }
+            ps.println(MessageFormat.format(Jttp.RB.getString("jttp.serve.request"), method,
+                    exchange.getRequestURI(), exchange.getResponseCode(), outcome,
+                    (System.nanoTime() - start) / 1e6));
+            ps.flush();
+        } catch (IOException | RuntimeException e) {
+            Jttp.LOGGER.log(WARNING, "logger.warning.serve.request", exchange.getRequestURI(),
+                    e.toString());
+        } finally {
+            exchange.close();
+            if (nonNull(body)) {
+                Files.deleteIfExists(body.toPath());
+            }
+        }
+    }
+
+    /**
+     * Forwards a request upstream, records the response and sends it to the client.
+     *
+     * @return the temporary file holding the response body.
+     */
+    private File forward(HttpExchange exchange, URL target, String method, byte[] requestBody,
+            String data) throws IOException {
+        var conn = connections.open(target, method, requestBody.length > 0);
+        var sessionCookie = conn.getRequestProperty("Cookie");
+        for (var header : exchange.getRequestHeaders().entrySet()) {
+            var name = header.getKey();
+            if (HOP_BY_HOP_HEADERS.contains(name)) {
+                continue;
+            }
+            var value = String.join(", ", header.getValue());
+            if (name.equalsIgnoreCase("Cookie") && nonNull(sessionCookie)) {
+                value = sessionCookie + "; " + String.join("; ", header.getValue());
+            }
+            conn.setRequestProperty(name, value);
+        }
+        if (requestBody.length > 0) {
+            conn.setFixedLengthStreamingMode(requestBody.length);
+            try (var out = conn.getOutputStream()) {
+                out.write(requestBody);
+            }
+        }
+        var status = conn.getResponseCode();
+        var body = File.createTempFile("jttp-serve", ".tmp");
+        var response = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+        if (isNull(response)) {
+            response = InputStream.nullInputStream();
+        } else if ("gzip".equals(conn.getContentEncoding())) {
+            response = new GZIPInputStream(response);
+        }
+        try (var in = response; var out = new FileOutputStream(body)) {
+            in.transferTo(out);
+        }
+        try {
+            synchronized (session) {
+                index.add(session.save(new Session.Exchange(conn), data, body,
+                        sessionProperties));
+            }
+        } catch (Exception e) {
+            // The client still gets the response.
+            Jttp.LOGGER.log(WARNING, "logger.warning.serve.record", target, e.toString());
+        }
+        for (var header : conn.getHeaderFields().entrySet()) {
+            if (nonNull(header.getKey()) && !HOP_BY_HOP_HEADERS.contains(header.getKey())) {
+                exchange.getResponseHeaders().put(header.getKey(), header.getValue());
+            }
+        }
+        exchange.getResponseHeaders().set("X-Jttp-Cache", "MISS");
+        send(exchange, status, body);
+        return body;
+    }
+
+    /**
+     * Sends a recorded response to the client.
+     *
+     * @return the temporary file holding the response body.
+     */
+    private File serveRecorded(HttpExchange exchange, Session.HistoryEntry recorded,
+            String outcome) throws IOException {
+        var body = File.createTempFile("jttp-serve", ".tmp");
+        try (var out = new FileOutputStream(body)) {
+            session.copyResponse(recorded, out);
+        }
+        if (nonNull(recorded.contentType)) {
+            exchange.getResponseHeaders().set("Content-Type", recorded.contentType);
+        }
+        exchange.getResponseHeaders().set("Age", Long.toString(TimeUnit.MILLISECONDS
+                .toSeconds(Math.max(0, System.currentTimeMillis() - recorded.timestamp))));
+        exchange.getResponseHeaders().set("X-Jttp-Cache", outcome);
+        send(exchange, recorded.status, body);
+        return body;
+    }
+
+    private static void send(HttpExchange exchange, int status, File body) throws IOException {
+        var length = body.length();
+        if (length == 0 || exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length);
+        try (var in = new FileInputStream(body); var out = exchange.getResponseBody()) {
+            in.transferTo(out);
+        }
+    }
+}
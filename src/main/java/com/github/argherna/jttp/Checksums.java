@@ -0,0 +1,200 @@
+package com.github.argherna.jttp;
+
+import static java.lang.System.Logger.Level.INFO;
+import static java.lang.System.Logger.Level.WARNING;
+import static java.util.Objects.nonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Computes message digests of a response body while it is written and verifies them against
+ * expected values.
+ *
+ * <p>
+ * Digests are specified as {@code ALGORITHM} or {@code ALGORITHM=VALUE} where the value is hex or
+ * base64 encoded. If no value is given on the command line, the expected value is taken from the
+ * {@code Digest} response header (RFC 3230) or, for {@code MD5}, from the {@code Content-MD5}
+ * response header. A digest without an expected value is computed and logged but not verified.
+ */
+class Checksums {
+
+    private static final Integer BUF_SZ = 0x10000;
+
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+
+    private final Map<String, String> expected = new HashMap<>();
+
+    /**
+     * Constructs a new Checksums.
+     *
+     * @param specs digest specifications from the command line.
+     * @throws IllegalArgumentException if an algorithm is not supported.
+     */
+    Checksums(String[] specs) {
+        for (var spec : specs) {
+            var idx = spec.indexOf('=');
+            var algorithm = canonicalName(idx == -1 ? spec : spec.substring(0, idx));
+            try {
+                digests.put(algorithm, MessageDigest.getInstance(algorithm));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException(MessageFormat
+                        .format(Jttp.RB.getString("error.digest.algorithm"), algorithm), e);
+            }
+            if (idx != -1) {
+                expected.put(algorithm, spec.substring(idx + 1));
+            }
+        }
+    }
+
+    /**
+     * Reads expected digests from the {@code Digest} and {@code Content-MD5} response headers
+     * for every algorithm that doesn't already have an expected value.
+     *
+     * <p>
+     * Those headers cover the body as it was sent, with its content coding. When the response has
+     * a {@code Content-Encoding}, they are ignored with a warning, since the body may be decoded
+     * before it is written.
+     *
+     * @param conn the HttpURLConnection with a response.
+     * @throws IOException if an IOException occurs.
+     */
+    void readExpected(HttpURLConnection conn) throws IOException {
+        var contentEncoding = conn.getHeaderField("Content-Encoding");
+        if (nonNull(contentEncoding) && !contentEncoding.equalsIgnoreCase("identity")) {
+            if (nonNull(conn.getHeaderField("Digest"))
+                    || nonNull(conn.getHeaderField("Content-MD5"))) {
+                Jttp.LOGGER.log(WARNING, "logger.warning.digest.encoded", contentEncoding);
+            }
+            return;
+        }
+        var digestHeader = conn.getHeaderField("Digest");
+        if (nonNull(digestHeader)) {
+            for (var instanceDigest : digestHeader.split(",")) {
+                var idx = instanceDigest.indexOf('=');
+                if (idx != -1) {
+                    expected.putIfAbsent(canonicalName(instanceDigest.substring(0, idx).trim()),
+                            instanceDigest.substring(idx + 1).trim());
+                }
+            }
+        }
+        // Content-MD5 covers the message body, which is only the whole resource for a 200.
+        var contentMd5 = conn.getHeaderField("Content-MD5");
+        if (nonNull(contentMd5) && conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+            expected.putIfAbsent("MD5", contentMd5.trim());
+        }
+    }
+
+    /**
+     * @param out the OutputStream the response body is written to.
+     * @return an OutputStream that updates every digest with the bytes written to it.
+     */
+    OutputStream wrap(OutputStream out) {
+        var wrapped = out;
+        for (var digest : digests.values()) {
+            wrapped = new DigestOutputStream(wrapped, digest);
+        }
+        return wrapped;
+    }
+
+    /**
+     * Updates every digest with the first {@code length} bytes of the file. Used for bytes that
+     * were not streamed through {@link #wrap(OutputStream) wrap}, such as the already downloaded
+     * part of a resumed download or a download written out of order in segments.
+     *
+     * @param file   the file.
+     * @param length number of bytes to read.
+     * @throws IOException if an IOException occurs.
+     */
+    void update(File file, long length) throws IOException {
+        try (var in = new FileInputStream(file)) {
+            var buf = new byte[BUF_SZ];
+            var remaining = length;
+            while (remaining > 0) {
+                var read = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (read == -1) {
+                    break;
+                }
+                digests.values().forEach(d -> d.update(buf, 0, read));
+                remaining -= read;
+            }
+        }
+    }
+
+    /**
+     * Logs every computed digest and compares it with its expected value.
+     *
+     * @return a map of algorithm names to hex encoded digests.
+     * @throws IOException if a computed digest doesn't match its expected value.
+     */
+    Map<String, String> verify() throws IOException {
+        var computed = new LinkedHashMap<String, String>();
+        for (var entry : digests.entrySet()) {
+            var algorithm = entry.getKey();
+            var actual = entry.getValue().digest();
+            var hex = toHex(actual);
+            computed.put(algorithm, hex);
+            Jttp.LOGGER.log(INFO, "logger.info.digest", algorithm, hex);
+            var expectedValue = expected.get(algorithm);
+            if (nonNull(expectedValue) && !Arrays.equals(actual, decode(expectedValue))) {
+                throw new IOException(
+                        MessageFormat.format(Jttp.RB.getString("error.digest.mismatch"),
+                                algorithm, expectedValue, hex));
+            }
+        }
+        return computed;
+    }
+
+    /**
+     * @param value a hex or base64 encoded digest.
+     * @return the decoded bytes, or an empty array if the value can't be decoded.
+     */
+    private static byte[] decode(String value) {
+        if (value.matches("(?:[0-9a-fA-F]{2})+")) {
+            var bytes = new byte[value.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(value.substring(2 * i, 2 * i + 2), 16);
+            }
+            return bytes;
+        }
+        try {
+            return Base64.getDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            return new byte[0];
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        var sb = new StringBuilder(bytes.length * 2);
+        for (var b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param algorithm an algorithm name as written on the command line or in a header.
+     * @return the name used by {@link MessageDigest}.
+     */
+    private static String canonicalName(String algorithm) {
+        var name = algorithm.toUpperCase(Locale.ROOT);
+        if (name.equals("SHA")) {
+            return "SHA-1";
+        }
+        return name;
+    }
+}
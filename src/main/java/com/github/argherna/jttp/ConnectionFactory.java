@@ -0,0 +1,21 @@
+package com.github.argherna.jttp;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens connections for requests Jttp sends on its own (tus uploads, replays, shadow and proxied
+ * requests). Jttp supplies one that carries the request headers and authentication of the run.
+ */
+interface ConnectionFactory {
+
+    /**
+     * @param url      the URL.
+     * @param method   the request method.
+     * @param doOutput {@code true} if a request body will be sent.
+     * @return a new, unconnected HttpURLConnection.
+     * @throws IOException if an IOException occurs.
+     */
+    HttpURLConnection open(URL url, String method, boolean doOutput) throws IOException;
+}
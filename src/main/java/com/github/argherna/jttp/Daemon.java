@@ -0,0 +1,248 @@
+package com.github.argherna.jttp;
+
+import static java.lang.System.Logger.Level.INFO;
+import static java.lang.System.Logger.Level.WARNING;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+
+import picocli.CommandLine;
+
+/**
+ * Runs Jttp commands sent by {@link DaemonClient clients} in one long-lived process, so each call
+ * skips JVM startup and class loading and reuses warm code, kept-alive connections and cached TLS
+ * sessions.
+ *
+ * <p>
+ * The daemon listens on a loopback port. The port and a random token are written to
+ * {@code daemon.properties} in the base directory, readable only by the owner where the file
+ * system allows it, and a client must send the token before its command.
+ *
+ * <p>
+ * The protocol is a stream of frames on the connection. The client sends the token and the
+ * arguments, then answers {@link #STDIN} frames with a chunk of its standard input (an empty
+ * chunk at end of input). The daemon sends {@link #STDOUT} and {@link #STDERR} frames with output
+ * as it is produced, and an {@link #EXIT} frame with the exit code last. Standard input is only
+ * read if the command asks for it.
+ */
+class Daemon {
+
+    static final byte STDOUT = 1;
+
+    static final byte STDERR = 2;
+
+    static final byte STDIN = 3;
+
+    static final byte EXIT = 4;
+
+    static final String PROP_PORT = "port";
+
+    static final String PROP_TOKEN = "token";
+
+    private static final Integer BUF_SZ = 0x2000;
+
+    private final byte[] token = new byte[32];
+
+    /**
+     * Constructs a new Daemon.
+     */
+    Daemon() {
+        new SecureRandom().nextBytes(token);
+    }
+
+    /**
+     * @return {@code daemon.properties} in the base directory.
+     */
+    static Path getStatePath() {
+        return Paths.get(Util.getBaseSaveDirectory(), "daemon.properties");
+    }
+
+    /**
+     * Listens for clients until the process is stopped.
+     *
+     * @throws IOException if the port can't be opened or the state file can't be written.
+     */
+    void run() throws IOException {
+        var executor = Executors.newCachedThreadPool(r -> {
+            var t = new Thread(r, "jttp-daemon");
+            t.setDaemon(true);
+            return t;
+        });
+        try (var server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            writeState(server.getLocalPort());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(getStatePath());
+                } catch (IOException e) {
+                    // Nothing left to do about it.
+                }
+            }));
+            Jttp.LOGGER.log(INFO, "logger.info.daemon.listening", server.getLocalPort());
+            while (true) {
+                var socket = server.accept();
+                executor.execute(() -> serve(socket));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void writeState(int port) throws IOException {
+        var state = new Properties();
+        state.setProperty(PROP_PORT, Integer.toString(port));
+        state.setProperty(PROP_TOKEN, Base64.getEncoder().encodeToString(token));
+        var path = getStatePath();
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions
+                    .asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        try (var out = Files.newOutputStream(path)) {
+            state.store(out, null);
+        }
+    }
+
+    /**
+     * Runs one client's command.
+     *
+     * @param socket the client connection.
+     */
+    private void serve(Socket socket) {
+        try (socket) {
+            var in = new DataInputStream(socket.getInputStream());
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (!MessageDigest.isEqual(token, Base64.getDecoder().decode(in.readUTF()))) {
+                Jttp.LOGGER.log(WARNING, "logger.warning.daemon.token",
+                        socket.getRemoteSocketAddress());
+                return;
+            }
+            var args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+            var stdout = new PrintStream(
+                    new BufferedOutputStream(new FrameOutputStream(out, STDOUT), BUF_SZ), false,
+                    UTF_8);
+            var stderr = new PrintStream(new FrameOutputStream(out, STDERR), true, UTF_8);
+            var jttp = new Jttp(stdout, stderr, new StdinInputStream(in, out));
+            jttp.setKeepAlive(true);
+            var commandLine = new CommandLine(jttp);
+            commandLine.setOut(new PrintWriter(stdout, true, UTF_8));
+            commandLine.setErr(new PrintWriter(stderr, true, UTF_8));
+            var exitCode = commandLine.execute(args);
+            stdout.flush();
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(exitCode);
+                out.flush();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Jttp.LOGGER.log(WARNING, "logger.warning.daemon.client", e.getMessage());
+        }
+    }
+
+    /**
+     * Sends what is written to it as frames of one type.
+     */
+    private static class FrameOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+
+        private final byte type;
+
+        private FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Reads the client's standard input, asking for a chunk whenever the last one is used up.
+     */
+    private static class StdinInputStream extends InputStream {
+
+        private final DataInputStream in;
+
+        private final DataOutputStream out;
+
+        private byte[] chunk = new byte[0];
+
+        private int pos;
+
+        private boolean eof;
+
+        private StdinInputStream(DataInputStream in, DataOutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos == chunk.length && !eof) {
+                synchronized (out) {
+                    out.writeByte(STDIN);
+                    out.flush();
+                }
+                chunk = new byte[in.readInt()];
+                in.readFully(chunk);
+                pos = 0;
+                eof = chunk.length == 0;
+            }
+            if (eof) {
+                return -1;
+            }
+            var n = Math.min(len, chunk.length - pos);
+            System.arraycopy(chunk, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.argherna.jttp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/**
+ * Sends a command to a running {@link Daemon} and relays its standard input, output, error and
+ * exit code.
+ *
+ * <p>
+ * Only the JDK classes needed to talk to the daemon are loaded, so a call costs little more than
+ * starting the JVM.
+ */
+final class DaemonClient {
+
+    private static final Integer CONNECT_TIMEOUT_MILLIS = 500;
+
+    private static final Integer BUF_SZ = 0x2000;
+
+    private DaemonClient() {
+    }
+
+    /**
+     * Runs a command on the daemon.
+     *
+     * @param args the command's arguments.
+     * @return the exit code of the command, or {@code -1} if no daemon is running.
+     * @throws IOException if the connection to the daemon fails during the call.
+     */
+    static int call(String... args) throws IOException {
+        var statePath = Daemon.getStatePath();
+        if (!Files.exists(statePath)) {
+            return -1;
+        }
+        var state = new Properties();
+        try (var in = Files.newInputStream(statePath)) {
+            state.load(in);
+        }
+        var socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(state.getProperty(Daemon.PROP_PORT))),
+                    CONNECT_TIMEOUT_MILLIS);
+        } catch (IOException | NumberFormatException e) {
+            // Stale state file left by a daemon that was killed.
+            socket.close();
+            return -1;
+        }
+        try (socket) {
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(state.getProperty(Daemon.PROP_TOKEN, ""));
+            out.writeInt(args.length);
+            for (var arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            return relay(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                    out, System.in, System.out, System.err);
+        }
+    }
+
+    /**
+     * Relays frames until the exit code arrives.
+     */
+    private static int relay(DataInputStream in, DataOutputStream out, InputStream stdin,
+            PrintStream stdout, PrintStream stderr) throws IOException {
+        var buffer = new byte[BUF_SZ];
+        while (true) {
+            int type;
+            try {
+                type = in.readByte();
+            } catch (EOFException e) {
+                throw new IOException(Jttp.RB.getString("error.daemon.closed"), e);
+            }
+            switch (type) {
+                case Daemon.STDOUT:
+                case Daemon.STDERR:
+                    var len = in.readInt();
+                    var target = type == Daemon.STDOUT ? stdout : stderr;
+                    while (len > 0) {
+                        var n = in.read(buffer, 0, Math.min(len, buffer.length));
+                        if (n == -1) {
+                            throw new EOFException();
+                        }
+                        target.write(buffer, 0, n);
+                        len -= n;
+                    }
+                    target.flush();
+                    break;
+                case Daemon.STDIN:
+                    var n = stdin.read(buffer);
+                    out.writeInt(Math.max(0, n));
+                    if (n > 0) {
+                        out.write(buffer, 0, n);
+                    }
+                    out.flush();
+                    break;
+                case Daemon.EXIT:
+                    stdout.flush();
+                    return in.readInt();
+                default:
+                    throw new IOException(Jttp.RB.getString("error.daemon.protocol"));
+            }
+        }
+    }
+}
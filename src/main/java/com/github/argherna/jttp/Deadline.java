@@ -0,0 +1,68 @@
+package com.github.argherna.jttp;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an action if it isn't closed within a time limit.
+ *
+ * <p>
+ * Jttp uses it for the {@code --timeout} option: when the deadline passes, the connection is
+ * disconnected, which makes a blocked read fail, and {@link #isExpired() isExpired} tells the
+ * caller why.
+ */
+class Deadline implements AutoCloseable {
+
+    private final ScheduledExecutorService scheduler;
+
+    private final long expiresAtNanos;
+
+    private volatile boolean expired;
+
+    private Deadline(long millis, Runnable onExpiry) {
+        expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "jttp-deadline");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.schedule(() -> {
+            expired = true;
+            onExpiry.run();
+        }, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a deadline.
+     *
+     * @param millis   time limit in milliseconds.
+     * @param onExpiry action to run when the time limit passes.
+     * @return the Deadline.
+     */
+    static Deadline start(long millis, Runnable onExpiry) {
+        return new Deadline(millis, onExpiry);
+    }
+
+    /**
+     * @return {@code true} if the time limit passed before this Deadline was closed.
+     */
+    boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * @return milliseconds left before the time limit passes (negative once it has).
+     */
+    long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime());
+    }
+
+    /**
+     * Cancels the deadline.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,296 @@
+package com.github.argherna.jttp;
+
+import static java.lang.String.format;
+import static java.lang.System.Logger.Level.DEBUG;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Answers HTTP Digest authentication challenges (RFC 7616) and remembers the last challenge so
+ * that later requests to the same host authenticate on the first try.
+ *
+ * <p>
+ * The challenge ({@code realm}, {@code nonce}, {@code opaque}, {@code algorithm} and
+ * {@code qop}) and the nonce count are kept as Properties so Jttp can persist them in the session
+ * or per host between runs. The password is never part of the saved state. Only {@code qop=auth}
+ * (or no {@code qop}) is supported; {@code auth-int} challenges are left unanswered.
+ */
+class DigestAuth {
+
+    private static final String PROP_REALM = "realm";
+
+    private static final String PROP_NONCE = "nonce";
+
+    private static final String PROP_OPAQUE = "opaque";
+
+    private static final String PROP_ALGORITHM = "algorithm";
+
+    private static final String PROP_QOP = "qop";
+
+    private static final String PROP_NC = "nc";
+
+    private final String username;
+
+    private final char[] password;
+
+    private final Properties state = new Properties();
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Constructs a new DigestAuth.
+     *
+     * @param username the username.
+     * @param password the password.
+     */
+    DigestAuth(String username, char[] password) {
+        this.username = username;
+        this.password = password.clone();
+    }
+
+    /**
+     * Replaces the current challenge with one saved by an earlier run.
+     *
+     * @param saved the saved state, possibly empty.
+     */
+    void load(Properties saved) {
+        state.clear();
+        state.putAll(saved);
+    }
+
+    /**
+     * @return the current challenge and nonce count, without credentials.
+     */
+    Properties getState() {
+        var copy = new Properties();
+        copy.putAll(state);
+        return copy;
+    }
+
+    /**
+     * Sets the {@code Authorization} request header from the current challenge, incrementing the
+     * nonce count.
+     *
+     * @param conn the HttpURLConnection, not yet connected, with its request method set.
+     * @return {@code true} if the header was set, {@code false} if there is no challenge yet.
+     * @throws IOException if the challenge names an unsupported algorithm.
+     */
+    boolean authorize(HttpURLConnection conn) throws IOException {
+        var nonce = state.getProperty(PROP_NONCE);
+        if (isNull(nonce)) {
+            return false;
+        }
+        var nc = Long.parseLong(state.getProperty(PROP_NC, "0"), 16) + 1;
+        state.setProperty(PROP_NC, format("%08x", nc));
+        conn.setRequestProperty("Authorization", credentials(conn.getRequestMethod(),
+                conn.getURL().getFile().isEmpty() ? "/" : conn.getURL().getFile(), nonce, nc));
+        return true;
+    }
+
+    /**
+     * Remembers the {@code Digest} challenge from a {@code 401} response.
+     *
+     * @param conn the HttpURLConnection with a {@code 401} response.
+     * @return {@code true} if the response carried a Digest challenge that can be answered.
+     * @throws IOException if an IOException occurs.
+     */
+    boolean challenged(HttpURLConnection conn) throws IOException {
+        var challenges = conn.getHeaderFields().entrySet().stream()
+                .filter(e -> "WWW-Authenticate".equalsIgnoreCase(e.getKey()))
+                .flatMap(e -> e.getValue().stream()).toArray(String[]::new);
+        for (var challenge : challenges) {
+            var idx = challenge.toLowerCase(Locale.ROOT).indexOf("digest ");
+            if (idx == -1) {
+                continue;
+            }
+            var params = parseParams(challenge.substring(idx + 7));
+            var algorithm = params.getOrDefault(PROP_ALGORITHM, "MD5");
+            var qop = params.get(PROP_QOP);
+            if (isNull(params.get(PROP_NONCE)) || !isSupported(algorithm)
+                    || (nonNull(qop) && Arrays.stream(qop.split(",")).map(String::trim)
+                            .noneMatch("auth"::equalsIgnoreCase))) {
+                continue;
+            }
+            state.clear();
+            state.setProperty(PROP_REALM, params.getOrDefault(PROP_REALM, ""));
+            state.setProperty(PROP_NONCE, params.get(PROP_NONCE));
+            state.setProperty(PROP_ALGORITHM, algorithm);
+            state.setProperty(PROP_NC, format("%08x", 0));
+            if (nonNull(qop)) {
+                state.setProperty(PROP_QOP, "auth");
+            }
+            if (params.containsKey(PROP_OPAQUE)) {
+                state.setProperty(PROP_OPAQUE, params.get(PROP_OPAQUE));
+            }
+            Jttp.LOGGER.log(DEBUG, "logger.debug.auth.digest.challenge", conn.getURL().getHost(),
+                    state.getProperty(PROP_REALM));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Switches to the next nonce if the server sent one in {@code Authentication-Info}.
+     *
+     * @param conn the HttpURLConnection with a response.
+     */
+    void update(HttpURLConnection conn) {
+        var info = conn.getHeaderField("Authentication-Info");
+        if (nonNull(info)) {
+            var nextnonce = parseParams(info).get("nextnonce");
+            if (nonNull(nextnonce)) {
+                state.setProperty(PROP_NONCE, nextnonce);
+                state.setProperty(PROP_NC, format("%08x", 0));
+            }
+        }
+    }
+
+    /**
+     * @param method request method.
+     * @param uri    request target (path and query).
+     * @param nonce  server nonce.
+     * @param nc     nonce count.
+     * @return the value of the {@code Authorization} header.
+     * @throws IOException if the algorithm is not supported.
+     */
+    private String credentials(String method, String uri, String nonce, long nc)
+            throws IOException {
+        var algorithm = state.getProperty(PROP_ALGORITHM, "MD5");
+        var realm = state.getProperty(PROP_REALM, "");
+        var qop = state.getProperty(PROP_QOP);
+        var cnonce = cnonce();
+        var ncValue = format("%08x", nc);
+
+        var ha1 = hash(algorithm, format("%s:%s:%s", username, realm, new String(password)));
+        if (algorithm.toLowerCase(Locale.ROOT).endsWith("-sess")) {
+            ha1 = hash(algorithm, format("%s:%s:%s", ha1, nonce, cnonce));
+        }
+        var ha2 = hash(algorithm, format("%s:%s", method, uri));
+        var response = nonNull(qop)
+                ? hash(algorithm,
+                        format("%s:%s:%s:%s:%s:%s", ha1, nonce, ncValue, cnonce, qop, ha2))
+                : hash(algorithm, format("%s:%s:%s", ha1, nonce, ha2));
+
+        var sb = new StringBuilder("Digest ");
+        sb.append(format("username=\"%s\", realm=\"%s\", nonce=\"%s\", uri=\"%s\", ",
+                quote(username), quote(realm), quote(nonce), quote(uri)));
+        sb.append(format("algorithm=%s, response=\"%s\"", algorithm, response));
+        if (nonNull(state.getProperty(PROP_OPAQUE))) {
+            sb.append(format(", opaque=\"%s\"", quote(state.getProperty(PROP_OPAQUE))));
+        }
+        if (nonNull(qop)) {
+            sb.append(format(", qop=%s, nc=%s, cnonce=\"%s\"", qop, ncValue, cnonce));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return a new random client nonce. Not private so that a known one can be used in tests.
+     */
+    String cnonce() {
+        var bytes = new byte[16];
+        random.nextBytes(bytes);
+        return toHex(bytes);
+    }
+
+    /**
+     * @param algorithm a Digest algorithm name such as {@code MD5} or {@code SHA-256-sess}.
+     * @param value     the value to hash.
+     * @return the hex encoded hash.
+     * @throws IOException if the algorithm is not supported.
+     */
+    private static String hash(String algorithm, String value) throws IOException {
+        try {
+            return toHex(MessageDigest.getInstance(messageDigestName(algorithm))
+                    .digest(value.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static boolean isSupported(String algorithm) {
+        try {
+            MessageDigest.getInstance(messageDigestName(algorithm));
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param algorithm a Digest algorithm name.
+     * @return the name used by {@link MessageDigest}.
+     */
+    private static String messageDigestName(String algorithm) {
+        var name = algorithm.toUpperCase(Locale.ROOT);
+        if (name.endsWith("-SESS")) {
+            name = name.substring(0, name.length() - 5);
+        }
+        return name.equals("SHA-512-256") ? "SHA-512/256" : name;
+    }
+
+    /**
+     * Parses a comma separated list of {@code name=value} or {@code name="quoted value"} pairs.
+     *
+     * @param s the header value without the auth scheme.
+     * @return a map of lower case names to unquoted values.
+     */
+    static Map<String, String> parseParams(String s) {
+        var params = new HashMap<String, String>();
+        var i = 0;
+        var n = s.length();
+        while (i < n) {
+            while (i < n && (s.charAt(i) == ',' || Character.isWhitespace(s.charAt(i)))) {
+                i++;
+            }
+            var eq = s.indexOf('=', i);
+            if (eq == -1) {
+                break;
+            }
+            var name = s.substring(i, eq).trim().toLowerCase(Locale.ROOT);
+            i = eq + 1;
+            var value = new StringBuilder();
+            if (i < n && s.charAt(i) == '"') {
+                i++;
+                while (i < n && s.charAt(i) != '"') {
+                    if (s.charAt(i) == '\\' && i + 1 < n) {
+                        i++;
+                    }
+                    value.append(s.charAt(i++));
+                }
+                i++;
+            } else {
+                while (i < n && s.charAt(i) != ',') {
+                    value.append(s.charAt(i++));
+                }
+            }
+            params.put(name, value.toString().trim());
+        }
+        return params;
+    }
+
+    private static String quote(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String toHex(byte[] bytes) {
+        var sb = new StringBuilder(bytes.length * 2);
+        for (var b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
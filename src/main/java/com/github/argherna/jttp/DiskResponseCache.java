@@ -0,0 +1,639 @@
+package com.github.argherna.jttp;
+
+import static java.lang.String.format;
+import static java.lang.System.Logger.Level.DEBUG;
+import static java.lang.System.Logger.Level.WARNING;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.CacheRequest;
+import java.net.CacheResponse;
+import java.net.HttpURLConnection;
+import java.net.ResponseCache;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.AccessController;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivilegedAction;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Private HTTP cache (RFC 9111) that stores {@code GET} responses on disk.
+ *
+ * <p>
+ * Jttp consults it for its own connections only; it is never installed with
+ * {@link ResponseCache#setDefault(ResponseCache)}, which would apply to every connection in the
+ * process. Before a request is sent, {@link #get(URI, String, Map) get} looks for a fresh
+ * response, which is served from disk through a {@link RecordedConnection} without touching the
+ * network. Bodies are written to the cache as they are read from the network by
+ * {@link #storeWhileReading(HttpURLConnection, InputStream) storeWhileReading}, so storing a
+ * response costs no extra read.
+ *
+ * <p>
+ * A stale response with a validator can be revalidated: {@link #addValidators(HttpURLConnection,
+ * Map) addValidators} sets {@code If-None-Match}/{@code If-Modified-Since} on the request, and
+ * after a {@code 304} response {@link #revalidated(HttpURLConnection, Map) revalidated} refreshes
+ * the stored headers so that the next connection to the same URL is served from disk.
+ *
+ * <p>
+ * Each entry is stored in the cache directory as {@code KEY.properties} (status line, headers,
+ * the request header values named by {@code Vary}, and the response time) and {@code KEY.body},
+ * where {@code KEY} is a hash of the method and URI. One variant is kept per URI; a request whose
+ * {@code Vary} header values differ from the stored ones is a miss. Entries are evicted least
+ * recently used first when the cache grows beyond {@code jttp.cache.maxsize} bytes.
+ */
+class DiskResponseCache extends ResponseCache {
+
+    static final String SYS_PROP_CACHE_MAXSIZE = "jttp.cache.maxsize";
+
+    private static final Long DEFAULT_MAXSIZE = 0x6400000L;
+
+    private static final Long MAXSIZE = AccessController.doPrivileged(
+            (PrivilegedAction<Long>) () -> Long.getLong(SYS_PROP_CACHE_MAXSIZE, DEFAULT_MAXSIZE));
+
+    private static final Set<String> HOP_BY_HOP_HEADERS =
+            Set.of("connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "te",
+                    "trailer", "transfer-encoding", "upgrade");
+
+    private static final String BODY_SUFFIX = ".body";
+
+    private static final String META_SUFFIX = ".properties";
+
+    private final Path directory;
+
+    private final Map<URI, Map<String, List<String>>> requestHeaders = new ConcurrentHashMap<>();
+
+    private final Set<String> revalidatedKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructs a new DiskResponseCache.
+     *
+     * @param directory the directory to store entries in, created if it doesn't exist.
+     * @throws IOException if an IOException occurs.
+     */
+    DiskResponseCache(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    @Override
+    public CacheResponse get(URI uri, String rqstMethod, Map<String, List<String>> rqstHeaders)
+            throws IOException {
+        requestHeaders.put(uri, rqstHeaders);
+        if (!"GET".equals(rqstMethod) || requestDirectives(rqstHeaders).containsKey("no-store")) {
+            return null;
+        }
+        var key = key(rqstMethod, uri);
+        var entry = load(key);
+        if (isNull(entry) || !entry.matchesVary(rqstHeaders)) {
+            return null;
+        }
+        if (!revalidatedKeys.remove(key) && !entry.isFresh(requestDirectives(rqstHeaders))) {
+            Jttp.LOGGER.log(DEBUG, "logger.debug.cache.stale", uri);
+            return null;
+        }
+        Jttp.LOGGER.log(DEBUG, "logger.debug.cache.hit", uri);
+        var body = directory.resolve(key + BODY_SUFFIX);
+        Files.setLastModifiedTime(body, FileTime.from(Instant.now()));
+        return new EntryResponse(entry, body);
+    }
+
+    @Override
+    public CacheRequest put(URI uri, URLConnection conn) throws IOException {
+        var httpConn = (HttpURLConnection) conn;
+        var rqstHeaders = requestHeaders.getOrDefault(uri, Map.of());
+        var headers = conn.getHeaderFields();
+        var statusLine = conn.getHeaderField(0);
+        if (!"GET".equals(httpConn.getRequestMethod()) || isNull(statusLine)
+                || !statusLine.matches("HTTP/\\S+ 200\\b.*")
+                || requestDirectives(rqstHeaders).containsKey("no-store")
+                || directives(values(headers, "Cache-Control")).containsKey("no-store")
+                || vary(headers).contains("*")) {
+            return null;
+        }
+        var entry = new Entry(statusLine, storableHeaders(headers), Instant.now());
+        for (var name : vary(headers)) {
+            entry.varyValues.put(name, join(rqstHeaders, name));
+        }
+        Jttp.LOGGER.log(DEBUG, "logger.debug.cache.store", uri);
+        return new EntryRequest(key("GET", uri), entry);
+    }
+
+    /**
+     * Stores the response of a connection as its body is read. The response is committed to the
+     * cache when the body has been read to the end and discarded if the stream is closed before.
+     *
+     * @param conn the HttpURLConnection with a response.
+     * @param in   the response body read from the connection.
+     * @return a stream that copies what is read from {@code in} to the cache, or {@code in} if the
+     *         response can't be stored.
+     * @throws IOException if an IOException occurs.
+     */
+    InputStream storeWhileReading(HttpURLConnection conn, InputStream in) throws IOException {
+        var request = put(toUri(conn), conn);
+        if (isNull(request)) {
+            return in;
+        }
+        var body = request.getBody();
+        return new FilterInputStream(in) {
+
+            private boolean done;
+
+            @Override
+            public int read() throws IOException {
+                var b = super.read();
+                if (b == -1) {
+                    commit();
+                } else {
+                    copy(new byte[] {(byte) b}, 0, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                var read = super.read(b, off, len);
+                if (read == -1) {
+                    commit();
+                } else {
+                    copy(b, off, read);
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!done) {
+                        done = true;
+                        request.abort();
+                    }
+                }
+            }
+
+            private void copy(byte[] b, int off, int len) {
+                if (done) {
+                    return;
+                }
+                try {
+                    body.write(b, off, len);
+                } catch (IOException e) {
+                    // The response is still read; it just isn't stored.
+                    Jttp.LOGGER.log(WARNING, "logger.warning.cache.error", e.getMessage());
+                    done = true;
+                    request.abort();
+                }
+            }
+
+            private void commit() throws IOException {
+                if (!done) {
+                    done = true;
+                    body.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds conditional request headers for a stored response that is not fresh.
+     *
+     * <p>
+     * Must be called before {@code conn} connects. Nothing is added if the request already has
+     * conditional headers of its own.
+     *
+     * @param conn              the HttpURLConnection.
+     * @param requestProperties the request properties of the connection.
+     * @return {@code true} if validators were added.
+     * @throws IOException if an IOException occurs.
+     */
+    boolean addValidators(HttpURLConnection conn, Map<String, List<String>> requestProperties)
+            throws IOException {
+        if (requestProperties.containsKey("If-None-Match")
+                || requestProperties.containsKey("If-Modified-Since")) {
+            return false;
+        }
+        var entry = load(key(conn.getRequestMethod(), toUri(conn)));
+        if (isNull(entry) || !entry.matchesVary(requestProperties)
+                || entry.isFresh(requestDirectives(requestProperties))) {
+            return false;
+        }
+        var etag = entry.header("ETag");
+        var lastModified = entry.header("Last-Modified");
+        if (nonNull(etag)) {
+            conn.setRequestProperty("If-None-Match", etag);
+        }
+        if (nonNull(lastModified)) {
+            conn.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        return nonNull(etag) || nonNull(lastModified);
+    }
+
+    /**
+     * Refreshes a stored response with the headers of a {@code 304 Not Modified} response so the
+     * next connection to the same URI is served from the cache.
+     *
+     * @param conn              the HttpURLConnection that received the {@code 304}.
+     * @param requestProperties the request properties the connection was made with.
+     * @return {@code true} if a stored response was refreshed.
+     * @throws IOException if an IOException occurs.
+     */
+    boolean revalidated(HttpURLConnection conn, Map<String, List<String>> requestProperties)
+            throws IOException {
+        var key = key(conn.getRequestMethod(), toUri(conn));
+        var entry = load(key);
+        if (isNull(entry) || !entry.matchesVary(requestProperties)) {
+            return false;
+        }
+        var updated = new LinkedHashMap<>(entry.headers);
+        storableHeaders(conn.getHeaderFields()).entrySet().stream()
+                .filter(e -> !"Content-Length".equalsIgnoreCase(e.getKey()))
+                .forEach(e -> {
+                    updated.keySet().removeIf(k -> k.equalsIgnoreCase(e.getKey()));
+                    updated.put(e.getKey(), e.getValue());
+                });
+        var refreshed = new Entry(entry.statusLine, updated, Instant.now());
+        refreshed.varyValues.putAll(entry.varyValues);
+        store(key, refreshed);
+        revalidatedKeys.add(key);
+        Jttp.LOGGER.log(DEBUG, "logger.debug.cache.revalidated", conn.getURL());
+        return true;
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is within its size budget.
+     */
+    private void evict() {
+        try (var files = Files.list(directory)) {
+            var bodies = files.filter(p -> p.getFileName().toString().endsWith(BODY_SUFFIX))
+                    .map(Path::toFile).collect(Collectors.toList());
+            var size = bodies.stream().mapToLong(File::length).sum();
+            if (size <= MAXSIZE) {
+                return;
+            }
+            bodies.sort(Comparator.comparingLong(File::lastModified));
+            for (var body : bodies) {
+                if (size <= MAXSIZE) {
+                    break;
+                }
+                size -= body.length();
+                var name = body.getName();
+                var key = name.substring(0, name.length() - BODY_SUFFIX.length());
+                Files.deleteIfExists(directory.resolve(key + META_SUFFIX));
+                Files.deleteIfExists(body.toPath());
+                Jttp.LOGGER.log(DEBUG, "logger.debug.cache.evict", key);
+            }
+        } catch (IOException e) {
+            Jttp.LOGGER.log(WARNING, "logger.warning.cache.error", e.getMessage());
+        }
+    }
+
+    private Entry load(String key) throws IOException {
+        var meta = directory.resolve(key + META_SUFFIX);
+        if (!Files.exists(meta) || !Files.exists(directory.resolve(key + BODY_SUFFIX))) {
+            return null;
+        }
+        var props = new Properties();
+        try (var in = Files.newInputStream(meta)) {
+            props.load(in);
+        }
+        var headers = new LinkedHashMap<String, List<String>>();
+        var count = Integer.parseInt(props.getProperty("header.count", "0"));
+        for (int i = 0; i < count; i++) {
+            headers.computeIfAbsent(props.getProperty(format("header.%d.name", i)),
+                    k -> new ArrayList<>()).add(props.getProperty(format("header.%d.value", i)));
+        }
+        var entry = new Entry(props.getProperty("status"), headers,
+                Instant.ofEpochMilli(Long.parseLong(props.getProperty("response.time"))));
+        props.stringPropertyNames().stream().filter(n -> n.startsWith("vary."))
+                .forEach(n -> entry.varyValues.put(n.substring(5), props.getProperty(n)));
+        return entry;
+    }
+
+    private void store(String key, Entry entry) throws IOException {
+        var props = new Properties();
+        props.setProperty("status", entry.statusLine);
+        props.setProperty("response.time", Long.toString(entry.responseTime.toEpochMilli()));
+        var i = 0;
+        for (var header : entry.headers.entrySet()) {
+            for (var value : header.getValue()) {
+                props.setProperty(format("header.%d.name", i), header.getKey());
+                props.setProperty(format("header.%d.value", i), value);
+                i++;
+            }
+        }
+        props.setProperty("header.count", Integer.toString(i));
+        entry.varyValues.forEach((k, v) -> props.setProperty("vary." + k, v));
+        var tmp = Files.createTempFile(directory, key, ".tmp");
+        try (var out = Files.newOutputStream(tmp)) {
+            props.store(out, null);
+        }
+        Files.move(tmp, directory.resolve(key + META_SUFFIX), ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private static URI toUri(HttpURLConnection conn) throws IOException {
+        try {
+            return conn.getURL().toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String key(String method, URI uri) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256")
+                    .digest(format("%s %s", method, uri).getBytes(StandardCharsets.UTF_8));
+            var sb = new StringBuilder();
+            for (var b : digest) {
+                sb.append(format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param headers response headers.
+     * @return headers worth storing: no status line and no hop-by-hop headers.
+     */
+    private static Map<String, List<String>> storableHeaders(Map<String, List<String>> headers) {
+        var storable = new LinkedHashMap<String, List<String>>();
+        headers.entrySet().stream()
+                .filter(e -> nonNull(e.getKey())
+                        && !HOP_BY_HOP_HEADERS.contains(e.getKey().toLowerCase(Locale.ROOT)))
+                .forEach(e -> storable.put(e.getKey(), new ArrayList<>(e.getValue())));
+        return storable;
+    }
+
+    private static List<String> vary(Map<String, List<String>> headers) {
+        var vary = new ArrayList<String>();
+        headers.entrySet().stream().filter(e -> "Vary".equalsIgnoreCase(e.getKey()))
+                .flatMap(e -> e.getValue().stream())
+                .forEach(v -> Arrays.stream(v.split(",")).map(String::trim)
+                        .filter(s -> !s.isEmpty()).map(s -> s.toLowerCase(Locale.ROOT))
+                        .forEach(vary::add));
+        return vary;
+    }
+
+    /**
+     * @param headers header map.
+     * @param name    header name, matched ignoring case.
+     * @return every value of the header.
+     */
+    private static List<String> values(Map<String, List<String>> headers, String name) {
+        return headers.entrySet().stream()
+                .filter(e -> nonNull(e.getKey()) && e.getKey().equalsIgnoreCase(name))
+                .flatMap(e -> e.getValue().stream()).collect(Collectors.toList());
+    }
+
+    private static String join(Map<String, List<String>> headers, String name) {
+        return String.join(",", values(headers, name));
+    }
+
+    private static Map<String, String> requestDirectives(Map<String, List<String>> headers) {
+        var directives = directives(values(headers, "Cache-Control"));
+        if (join(headers, "Pragma").contains("no-cache")) {
+            directives.put("no-cache", "");
+        }
+        return directives;
+    }
+
+    /**
+     * @param values values of {@code Cache-Control} headers, possibly {@code null}.
+     * @return map of lowercase directive names to their (unquoted) values.
+     */
+    private static Map<String, String> directives(List<String> values) {
+        var directives = new HashMap<String, String>();
+        if (nonNull(values)) {
+            for (var value : values) {
+                for (var directive : value.split(",")) {
+                    var idx = directive.indexOf('=');
+                    var name = (idx == -1 ? directive : directive.substring(0, idx)).trim()
+                            .toLowerCase(Locale.ROOT);
+                    if (!name.isEmpty()) {
+                        directives.put(name, idx == -1 ? ""
+                                : directive.substring(idx + 1).trim().replace("\"", ""));
+                    }
+                }
+            }
+        }
+        return directives;
+    }
+
+    /**
+     * @param value an HTTP-date, possibly {@code null}.
+     * @return the Instant, or {@code null} if the value is missing or invalid.
+     */
+    private static Instant httpDate(String value) {
+        if (isNull(value)) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static long seconds(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A stored response.
+     */
+    private static class Entry {
+
+        private final String statusLine;
+
+        private final Map<String, List<String>> headers;
+
+        private final Instant responseTime;
+
+        private final Map<String, String> varyValues = new HashMap<>();
+
+        private Entry(String statusLine, Map<String, List<String>> headers, Instant responseTime) {
+            this.statusLine = statusLine;
+            this.headers = headers;
+            this.responseTime = responseTime;
+        }
+
+        private String header(String name) {
+            return values(headers, name).stream().findFirst().orElse(null);
+        }
+
+        private boolean matchesVary(Map<String, List<String>> rqstHeaders) {
+            return varyValues.entrySet().stream()
+                    .allMatch(e -> e.getValue().equals(join(rqstHeaders, e.getKey())));
+        }
+
+        /**
+         * @param rqstDirectives {@code Cache-Control} directives of the request.
+         * @return {@code true} if this response can be served without revalidation.
+         */
+        private boolean isFresh(Map<String, String> rqstDirectives) {
+            var cacheControl = directives(values(headers, "Cache-Control"));
+            if (rqstDirectives.containsKey("no-cache") || cacheControl.containsKey("no-cache")) {
+                return false;
+            }
+            var now = Instant.now();
+            var date = httpDate(header("Date"));
+            var apparentAge = nonNull(date)
+                    ? Math.max(0, Duration.between(date, responseTime).getSeconds())
+                    : 0;
+            var ageHeader = nonNull(header("Age")) ? Math.max(0, seconds(header("Age"))) : 0;
+            var currentAge = Math.max(apparentAge, ageHeader)
+                    + Duration.between(responseTime, now).getSeconds();
+
+            var origin = nonNull(date) ? date : responseTime;
+            var expires = httpDate(header("Expires"));
+            var lastModified = httpDate(header("Last-Modified"));
+            long lifetime;
+            if (cacheControl.containsKey("max-age")) {
+                lifetime = seconds(cacheControl.get("max-age"));
+            } else if (nonNull(header("Expires"))) {
+                // An invalid Expires value means the response is already expired.
+                lifetime = nonNull(expires) ? Duration.between(origin, expires).getSeconds() : 0;
+            } else if (nonNull(lastModified)) {
+                // Heuristic freshness: 10% of the time since the resource was last modified.
+                lifetime = Duration.between(lastModified, origin).getSeconds() / 10;
+            } else {
+                lifetime = 0;
+            }
+            if (rqstDirectives.containsKey("max-age")) {
+                lifetime = Math.min(lifetime, seconds(rqstDirectives.get("max-age")));
+            }
+            return currentAge < lifetime;
+        }
+
+        private Map<String, List<String>> responseHeaders() {
+            var responseHeaders = new LinkedHashMap<String, List<String>>();
+            // HttpURLConnection takes the status line from the header with the null key.
+            responseHeaders.put(null, List.of(statusLine));
+            headers.forEach((k, v) -> responseHeaders.put(k, Collections.unmodifiableList(v)));
+            return responseHeaders;
+        }
+    }
+
+    /**
+     * A stored response.
+     */
+    private static class EntryResponse extends CacheResponse {
+
+        private final Entry entry;
+
+        private final Path body;
+
+        private EntryResponse(Entry entry, Path body) {
+            this.entry = entry;
+            this.body = body;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() throws IOException {
+            return entry.responseHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return Files.newInputStream(body);
+        }
+    }
+
+    /**
+     * Receives a response body as it is read from the network. The entry is committed when the
+     * whole body has been read and discarded if the read is aborted.
+     */
+    private class EntryRequest extends CacheRequest {
+
+        private final String key;
+
+        private final Entry entry;
+
+        private Path tmp;
+
+        private boolean done;
+
+        private EntryRequest(String key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            tmp = Files.createTempFile(directory, key, ".tmp");
+            return new FilterOutputStream(Files.newOutputStream(tmp)) {
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    commit();
+                }
+            };
+        }
+
+        @Override
+        public synchronized void abort() {
+            done = true;
+            try {
+                if (nonNull(tmp)) {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException e) {
+                Jttp.LOGGER.log(WARNING, "logger.warning.cache.error", e.getMessage());
+            }
+        }
+
+        private synchronized void commit() throws IOException {
+            if (done) {
+                return;
+            }
+            done = true;
+            Files.move(tmp, directory.resolve(key + BODY_SUFFIX), ATOMIC_MOVE, REPLACE_EXISTING);
+            store(key, entry);
+            evict();
+        }
+    }
+}
@@ -12,6 +12,7 @@ import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 
@@ -30,9 +31,21 @@ class HeaderRenderer extends Renderer {
 
     private final HttpURLConnection conn;
 
-    HeaderRenderer(HttpURLConnection conn, boolean colorOutput) {
+    private final Map<String, List<String>> requestProperties;
+
+    /**
+     * Constructs a new HeaderRenderer.
+     * 
+     * @param conn              the HttpURLConnection.
+     * @param requestProperties request properties of the connection taken before it connected,
+     *                          since a connected connection doesn't give them out.
+     * @param colorOutput       if {@code true} output in color.
+     */
+    HeaderRenderer(HttpURLConnection conn, Map<String, List<String>> requestProperties,
+            boolean colorOutput) {
         super(colorOutput);
         this.conn = conn;
+        this.requestProperties = requestProperties;
     }
 
     /**
@@ -72,19 +85,18 @@ class HeaderRenderer extends Renderer {
      * @throws URISyntaxException if a URISyntaxException occurs in processing.
      */
     void requestHeaders(PrintStream ps) throws URISyntaxException {
-        if (!conn.getRequestProperties().containsKey("Host")) {
+        if (!requestProperties.containsKey("Host")) {
             var uri = conn.getURL().toURI();
             var host = uri.getPort() == -1 ? uri.getHost()
                     : format("%s:%d", uri.getHost(), uri.getPort());
             render(ps, "Host", Arrays.asList(host));
         }
 
-        ALWAYS_RENDERED_HEADERS.stream().filter(h -> conn.getRequestProperties().containsKey(h))
-                .forEach(e -> render(ps, e, conn.getRequestProperties().get(e)));
-        conn.getRequestProperties().keySet().stream()
-                .filter(k -> !ALWAYS_RENDERED_HEADERS.contains(k))
-                .filter(k -> nonNull(conn.getRequestProperties().get(k).get(0)))
-                .forEach(k -> render(ps, k, conn.getRequestProperties().get(k)));
+        ALWAYS_RENDERED_HEADERS.stream().filter(h -> requestProperties.containsKey(h))
+                .forEach(e -> render(ps, e, requestProperties.get(e)));
+        requestProperties.keySet().stream().filter(k -> !ALWAYS_RENDERED_HEADERS.contains(k))
+                .filter(k -> nonNull(requestProperties.get(k).get(0)))
+                .forEach(k -> render(ps, k, requestProperties.get(k)));
         ps.println();
     }
 
@@ -152,7 +164,7 @@ class HeaderRenderer extends Renderer {
 
     private String findRequestLine() throws URISyntaxException {
         // → Cheat: the request header with the null value is the request line.
-        var reqline = conn.getRequestProperties().entrySet().stream()
+        var reqline = requestProperties.entrySet().stream()
                 .filter(e -> isNull(e.getValue().get(0))).map(e -> e.getKey()).findFirst()
                 .orElse("");
         // → Failing getting the request line, make our own from the data provided.
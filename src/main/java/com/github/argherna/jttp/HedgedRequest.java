@@ -0,0 +1,254 @@
+package com.github.argherna.jttp;
+
+import static java.lang.System.Logger.Level.DEBUG;
+import static java.lang.System.Logger.Level.INFO;
+import static java.lang.System.Logger.Level.WARNING;
+import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a duplicate of a request if the first attempt hasn't answered within a delay, and keeps
+ * whichever attempt answers first.
+ *
+ * <p>
+ * The delay is either fixed ({@code 250} milliseconds) or a percentile of the latencies observed
+ * for the host ({@code p95}). Latencies (time until the response headers arrived) are kept in
+ * {@code latency.txt} in the host's sessions directory, the last {@value #MAX_SAMPLES} of them.
+ * No duplicate is sent until {@value #MIN_SAMPLES} latencies have been observed. The attempt that
+ * loses is disconnected.
+ *
+ * <p>
+ * The file is read once per process and kept in memory. New latencies are written to it at most
+ * every {@value #WRITE_INTERVAL} milliseconds, and once more when the process exits.
+ */
+class HedgedRequest {
+
+    private static final int MAX_SAMPLES = 100;
+
+    private static final int MIN_SAMPLES = 10;
+
+    private static final long WRITE_INTERVAL = 1000;
+
+    private static final Map<Path, Latencies> LATENCIES = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> LATENCIES.values()
+                .forEach(Latencies::write), "jttp-hedge-latency"));
+    }
+
+    private final long fixedDelay;
+
+    private final int percentile;
+
+    private final Latencies latencies;
+
+    /**
+     * Constructs a new HedgedRequest.
+     *
+     * @param spec        delay in milliseconds, or {@code pNN} for a latency percentile.
+     * @param latencyFile file the host's observed latencies are kept in.
+     * @throws IllegalArgumentException if the spec can't be parsed.
+     */
+    HedgedRequest(String spec, Path latencyFile) {
+        this.latencies = LATENCIES.computeIfAbsent(latencyFile.toAbsolutePath().normalize(),
+                Latencies::new);
+        try {
+            if (spec.startsWith("p")) {
+                percentile = Integer.parseInt(spec.substring(1));
+                fixedDelay = -1;
+            } else {
+                fixedDelay = Long.parseLong(spec);
+                percentile = -1;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    MessageFormat.format(Jttp.RB.getString("error.hedge.spec"), spec), e);
+        }
+        if ((percentile != -1 && (percentile < 1 || percentile > 99))
+                || (percentile == -1 && fixedDelay < 0)) {
+            throw new IllegalArgumentException(
+                    MessageFormat.format(Jttp.RB.getString("error.hedge.spec"), spec));
+        }
+    }
+
+    /**
+     * Waits for the response headers of the primary attempt, sending a duplicate if they haven't
+     * arrived within the hedging delay.
+     *
+     * @param primary   the connection built by Jttp, not yet connected.
+     * @param duplicate creates an unconnected copy of the request.
+     * @return the connection that answered first, with its response headers read.
+     * @throws IOException if an IOException occurs creating the duplicate.
+     */
+    HttpURLConnection execute(HttpURLConnection primary, Callable<HttpURLConnection> duplicate)
+            throws IOException {
+        var attempts = new ArrayList<HttpURLConnection>();
+        attempts.add(primary);
+        var executor = Executors.newCachedThreadPool(r -> {
+            var t = new Thread(r, "jttp-hedge");
+            t.setDaemon(true);
+            return t;
+        });
+        var completion = new ExecutorCompletionService<Integer>(executor);
+        var start = System.nanoTime();
+        var winner = 0;
+        try {
+            completion.submit(() -> attempt(primary, 0));
+            var delay = delayMillis();
+            Future<Integer> done = delay == -1 ? completion.take()
+                    : completion.poll(delay, TimeUnit.MILLISECONDS);
+            var pending = 1;
+            if (isNull(done)) {
+                HttpURLConnection second;
+                try {
+                    second = duplicate.call();
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+                attempts.add(second);
+                completion.submit(() -> attempt(second, 1));
+                Jttp.LOGGER.log(DEBUG, "logger.debug.hedge.sent", delay);
+                pending++;
+                done = completion.take();
+            }
+            while (true) {
+                pending--;
+                try {
+                    winner = done.get();
+                    break;
+                } catch (ExecutionException e) {
+                    if (pending == 0) {
+                        // Every attempt failed; the primary's error surfaces when it is read.
+                        winner = 0;
+                        return primary;
+                    }
+                    done = completion.take();
+                }
+            }
+            var elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (attempts.size() > 1) {
+                Jttp.LOGGER.log(INFO, "logger.info.hedge.winner", winner + 1, attempts.size(),
+                        elapsed);
+            }
+            latencies.record(elapsed);
+            return attempts.get(winner);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            for (int i = 0; i < attempts.size(); i++) {
+                if (i != winner) {
+                    attempts.get(i).disconnect();
+                }
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    private static Integer attempt(HttpURLConnection conn, int index) throws IOException {
+        conn.getResponseCode();
+        return index;
+    }
+
+    /**
+     * @return the hedging delay in milliseconds, or {@code -1} if there is no basis for one yet.
+     */
+    private long delayMillis() {
+        if (fixedDelay != -1) {
+            return fixedDelay;
+        }
+        var samples = latencies.samples();
+        if (samples.size() < MIN_SAMPLES) {
+            return -1;
+        }
+        Collections.sort(samples);
+        var index = (int) Math.ceil(percentile / 100.0 * samples.size()) - 1;
+        return samples.get(Math.max(0, index));
+    }
+
+    /**
+     * The latencies observed for a host, as kept in its latency file.
+     */
+    private static class Latencies {
+
+        private final Path file;
+
+        private final List<Long> samples;
+
+        private boolean dirty;
+
+        private long written = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(WRITE_INTERVAL);
+
+        Latencies(Path file) {
+            this.file = file;
+            this.samples = read(file);
+        }
+
+        synchronized List<Long> samples() {
+            return new ArrayList<>(samples);
+        }
+
+        /**
+         * Adds a latency, keeping only the most recent ones, and writes the file if it hasn't been
+         * written for a while.
+         *
+         * @param millis the latency.
+         */
+        synchronized void record(long millis) {
+            samples.add(millis);
+            if (samples.size() > MAX_SAMPLES) {
+                samples.subList(0, samples.size() - MAX_SAMPLES).clear();
+            }
+            dirty = true;
+            if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - written) >= WRITE_INTERVAL) {
+                write();
+            }
+        }
+
+        synchronized void write() {
+            if (!dirty) {
+                return;
+            }
+            try {
+                Files.createDirectories(file.getParent());
+                Files.write(file, samples.stream().map(String::valueOf).collect(toList()));
+            } catch (IOException e) {
+                Jttp.LOGGER.log(WARNING, "logger.warning.hedge.latency", e.getMessage());
+            }
+            dirty = false;
+            written = System.nanoTime();
+        }
+
+        private static List<Long> read(Path file) {
+            if (!Files.exists(file)) {
+                return new ArrayList<>();
+            }
+            try {
+                return Files.readAllLines(file).stream().filter(l -> !l.isBlank())
+                        .map(l -> Long.valueOf(l.trim())).collect(toList());
+            } catch (IOException | NumberFormatException e) {
+                Jttp.LOGGER.log(WARNING, "logger.warning.hedge.latency", e.getMessage());
+                return new ArrayList<>();
+            }
+        }
+    }
+}
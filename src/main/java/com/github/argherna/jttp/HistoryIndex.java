@@ -0,0 +1,142 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the latest entry of a session's history recorded for a request.
+ *
+ * <p>
+ * Requests match on the parts given when the index is created: any of the method, the path, the
+ * query and the body. The body is matched by its SHA-256 digest, ignoring leading and trailing
+ * whitespace as the history does, so the index holds a digest and an entry per distinct request
+ * and never a body.
+ */
+class HistoryIndex {
+
+    /**
+     * The parts of a request it can be matched on.
+     */
+    enum Match {
+        METHOD, PATH, QUERY, BODY
+    }
+
+    static final Set<Match> ALL = EnumSet.allOf(Match.class);
+
+    private final Set<Match> match;
+
+    private final Map<String, Session.HistoryEntry> entries = new HashMap<>();
+
+    /**
+     * Constructs a new, empty HistoryIndex.
+     *
+     * @param match the parts of a request that have to be the same.
+     */
+    HistoryIndex(Set<Match> match) {
+        this.match = match.isEmpty() ? EnumSet.noneOf(Match.class) : EnumSet.copyOf(match);
+    }
+
+    /**
+     * @param names names of the parts, in any case, or {@code null} for all.
+     * @return the parts.
+     * @throws IllegalArgumentException if a name isn't one of {@code method}, {@code path},
+     *                                  {@code query} and {@code body}.
+     */
+    static Set<Match> parseMatch(String[] names) {
+        if (isNull(names)) {
+            return ALL;
+        }
+        var parts = EnumSet.noneOf(Match.class);
+        for (var name : names) {
+            try {
+                parts.add(Match.valueOf(name.strip().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                        MessageFormat.format(Jttp.RB.getString("error.history.match"), name));
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Adds an entry, replacing an older one for the same request. The entry's request body isn't
+     * kept, only where its response is stored.
+     *
+     * @param entry a history entry.
+     */
+    synchronized void add(Session.HistoryEntry entry) {
+        var indexed = new Session.HistoryEntry(entry.id, entry.timestamp);
+        indexed.method = entry.method;
+        indexed.uri = entry.uri;
+        indexed.query = entry.query;
+        indexed.status = entry.status;
+        indexed.contentType = entry.contentType;
+        indexed.responseFile = entry.responseFile;
+        indexed.responseOffset = entry.responseOffset;
+        indexed.responseLength = entry.responseLength;
+        entries.merge(key(entry.method, entry.uri, entry.query, entry.data), indexed,
+                (older, newer) -> newer.timestamp >= older.timestamp ? newer : older);
+    }
+
+    /**
+     * @param method the request method.
+     * @param path   the path of the request URL.
+     * @param query  the raw query, or {@code null}.
+     * @param data   the request body, or {@code null}.
+     * @return the latest entry for the request, or {@code null} if none was recorded.
+     */
+    synchronized Session.HistoryEntry find(String method, String path, String query,
+            String data) {
+        return entries.get(key(method, path, query, data));
+    }
+
+    /**
+     * @return the number of distinct requests.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private String key(String method, String path, String query, String data) {
+        var key = new StringBuilder();
+        if (match.contains(Match.METHOD)) {
+            key.append(method);
+        }
+        key.append('\n');
+        if (match.contains(Match.PATH)) {
+            key.append(path);
+        }
+        key.append('\n');
+        if (match.contains(Match.QUERY) && nonNull(query)) {
+            key.append(query);
+        }
+        key.append('\n');
+        if (match.contains(Match.BODY)) {
+            key.append(digest(nonNull(data) ? data.strip() : ""));
+        }
+        return key.toString();
+    }
+
+    private static String digest(String data) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(data.getBytes(UTF_8));
+            var hex = new StringBuilder();
+            for (var b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.github.argherna.jttp;
+
+import static java.util.Objects.nonNull;
+
+import java.math.BigDecimal;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Minimal Json parser for the few places Jttp needs to read values out of a response (token
+ * endpoints, value extraction) or compare two responses.
+ *
+ * <p>
+ * Objects are parsed to a {@link LinkedHashMap} (member order is kept), arrays to a
+ * {@link List}, numbers to {@link BigDecimal}, and {@code true}, {@code false} and {@code null}
+ * to {@link Boolean} and {@code null}.
+ */
+final class Json {
+
+    private final CharSequence text;
+
+    private int pos;
+
+    private Json(CharSequence text) {
+        this.text = text;
+    }
+
+    /**
+     * Parses a Json document.
+     *
+     * @param text the Json text.
+     * @return the parsed value.
+     * @throws IllegalArgumentException if the text isn't well formed Json.
+     */
+    static Object parse(CharSequence text) {
+        var parser = new Json(text);
+        var value = parser.value();
+        parser.skipWhitespace();
+        if (parser.pos != text.length()) {
+            throw parser.error();
+        }
+        return value;
+    }
+
+    /**
+     * Selects a value out of a parsed Json value with a path like {@code $.items[2].name}: members
+     * are selected with {@code .name} or {@code ['name']}, and array elements with
+     * {@code [index]}.
+     *
+     * @param value a parsed Json value.
+     * @param path  the path, starting with {@code $}.
+     * @return the selected value, possibly {@code null} for a Json {@code null}.
+     * @throws IllegalArgumentException if the path is malformed or selects nothing.
+     */
+    static Object select(Object value, String path) {
+        if (!path.startsWith("$")) {
+            throw pathError(path);
+        }
+        var current = value;
+        var i = 1;
+        while (i < path.length()) {
+            String name = null;
+            var index = -1;
+            if (path.charAt(i) == '.') {
+                var end = i + 1;
+                while (end < path.length() && path.charAt(end) != '.'
+                        && path.charAt(end) != '[') {
+                    end++;
+                }
+                name = path.substring(i + 1, end);
+                i = end;
+            } else if (path.startsWith("['", i)) {
+                var end = path.indexOf("']", i + 2);
+                if (end < 0) {
+                    throw pathError(path);
+                }
+                name = path.substring(i + 2, end);
+                i = end + 2;
+            } else if (path.charAt(i) == '[') {
+                var end = path.indexOf(']', i);
+                try {
+                    index = Integer.parseInt(path.substring(i + 1, end < 0 ? i : end));
+                } catch (NumberFormatException e) {
+                    throw pathError(path);
+                }
+                i = end + 1;
+            } else {
+                throw pathError(path);
+            }
+            if (nonNull(name) && current instanceof Map
+                    && ((Map<?, ?>) current).containsKey(name)) {
+                current = ((Map<?, ?>) current).get(name);
+            } else if (index >= 0 && current instanceof List
+                    && index < ((List<?>) current).size()) {
+                current = ((List<?>) current).get(index);
+            } else {
+                throw new IllegalArgumentException(
+                        MessageFormat.format(Jttp.RB.getString("error.json.path.missing"), path));
+            }
+        }
+        return current;
+    }
+
+    private static IllegalArgumentException pathError(String path) {
+        return new IllegalArgumentException(
+                MessageFormat.format(Jttp.RB.getString("error.json.path"), path));
+    }
+
+    /**
+     * Compares two parsed Json values. Object members are matched by name, so their order doesn't
+     * matter, and array elements by position. Numbers are compared by value ({@code 1.0} equals
+     * {@code 1}).
+     *
+     * @param before the old value.
+     * @param after  the new value.
+     * @return one line per difference, {@code + path: value} for an added member or element,
+     *         {@code - path: value} for a removed one and {@code ~ path: old -> new} for a changed
+     *         one. Paths look like {@code $.items[2].name}.
+     */
+    static List<String> diff(Object before, Object after) {
+        var changes = new ArrayList<String>();
+        diff("$", before, after, changes);
+        return changes;
+    }
+
+    private static void diff(String path, Object before, Object after, List<String> changes) {
+        if (before instanceof Map && after instanceof Map) {
+            var b = (Map<?, ?>) before;
+            var a = (Map<?, ?>) after;
+            for (var entry : b.entrySet()) {
+                var memberPath = path + "." + entry.getKey();
+                if (a.containsKey(entry.getKey())) {
+                    diff(memberPath, entry.getValue(), a.get(entry.getKey()), changes);
+                } else {
+                    changes.add("- " + memberPath + ": " + write(entry.getValue()));
+                }
+            }
+            for (var entry : a.entrySet()) {
+                if (!b.containsKey(entry.getKey())) {
+                    changes.add("+ " + path + "." + entry.getKey() + ": "
+                            + write(entry.getValue()));
+                }
+            }
+        } else if (before instanceof List && after instanceof List) {
+            var b = (List<?>) before;
+            var a = (List<?>) after;
+            for (int i = 0; i < Math.max(b.size(), a.size()); i++) {
+                var elementPath = path + "[" + i + "]";
+                if (i >= a.size()) {
+                    changes.add("- " + elementPath + ": " + write(b.get(i)));
+                } else if (i >= b.size()) {
+                    changes.add("+ " + elementPath + ": " + write(a.get(i)));
+                } else {
+                    diff(elementPath, b.get(i), a.get(i), changes);
+                }
+            }
+        } else if (!same(before, after)) {
+            changes.add("~ " + path + ": " + write(before) + " -> " + write(after));
+        }
+    }
+
+    private static boolean same(Object before, Object after) {
+        if (before instanceof BigDecimal && after instanceof BigDecimal) {
+            return ((BigDecimal) before).compareTo((BigDecimal) after) == 0;
+        }
+        return Objects.equals(before, after);
+    }
+
+    /**
+     * @param value a parsed Json value.
+     * @return the value as compact Json text.
+     */
+    static String write(Object value) {
+        var sb = new StringBuilder();
+        write(value, sb);
+        return sb.toString();
+    }
+
+    private static void write(Object value, StringBuilder sb) {
+        if (value instanceof Map) {
+            sb.append('{');
+            var first = true;
+            for (var entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey()), sb);
+                sb.append(':');
+                write(entry.getValue(), sb);
+            }
+            sb.append('}');
+        } else if (value instanceof List) {
+            sb.append('[');
+            var first = true;
+            for (var element : (List<?>) value) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                write(element, sb);
+            }
+            sb.append(']');
+        } else if (value instanceof String) {
+            writeString((String) value, sb);
+        } else {
+            sb.append(value);
+        }
+    }
+
+    private static void writeString(String value, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (pos >= text.length()) {
+            throw error();
+        }
+        var c = text.charAt(pos);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                return number();
+        }
+    }
+
+    private Map<String, Object> object() {
+        var members = new LinkedHashMap<String, Object>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return members;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error();
+            }
+            var name = string();
+            skipWhitespace();
+            expect(':');
+            members.put(name, value());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return members;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        var elements = new ArrayList<Object>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return elements;
+        }
+        while (true) {
+            elements.add(value());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return elements;
+            }
+        }
+    }
+
+    private String string() {
+        var sb = new StringBuilder();
+        pos++;
+        while (pos < text.length()) {
+            var c = text.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= text.length()) {
+                break;
+            }
+            var escaped = text.charAt(pos++);
+            switch (escaped) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > text.length()) {
+                        throw error();
+                    }
+                    try {
+                        sb.append((char) Integer
+                                .parseInt(text.subSequence(pos, pos + 4).toString(), 16));
+                    } catch (NumberFormatException e) {
+                        throw error();
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    sb.append(escaped);
+            }
+        }
+        throw error();
+    }
+
+    private Object literal(String literal, Object value) {
+        if (pos + literal.length() > text.length()
+                || !text.subSequence(pos, pos + literal.length()).toString().equals(literal)) {
+            throw error();
+        }
+        pos += literal.length();
+        return value;
+    }
+
+    private BigDecimal number() {
+        var start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) != -1) {
+            pos++;
+        }
+        try {
+            return new BigDecimal(text.subSequence(start, pos).toString());
+        } catch (NumberFormatException e) {
+            pos = start;
+            throw error();
+        }
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error();
+        }
+        pos++;
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : '\0';
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error() {
+        return new IllegalArgumentException(
+                MessageFormat.format(Jttp.RB.getString("error.json.syntax"), pos));
+    }
+}
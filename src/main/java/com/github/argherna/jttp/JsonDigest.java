@@ -0,0 +1,251 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+
+/**
+ * Computes a SHA-256 digest of a Json document that is the same for documents {@link Json#diff
+ * without differences}: whitespace and the order of object members don't matter, and numbers are
+ * compared by value.
+ *
+ * <p>
+ * The text is read once and never held in memory, so documents of any size can be compared. Only
+ * a digest per nesting level is kept. An object's digest is derived from the sum of the digests
+ * of its members, which doesn't depend on their order.
+ */
+final class JsonDigest {
+
+    private static final BigInteger MODULUS = BigInteger.ONE.shiftLeft(256);
+
+    private final PushbackReader in;
+
+    private long pos;
+
+    private JsonDigest(Reader in) {
+        this.in = new PushbackReader(in);
+    }
+
+    /**
+     * Reads a Json document to its end and digests it.
+     *
+     * @param in the Json text.
+     * @return the digest.
+     * @throws IOException              if an IOException occurs.
+     * @throws IllegalArgumentException if the text isn't well formed Json.
+     */
+    static byte[] digest(Reader in) throws IOException {
+        var parser = new JsonDigest(in);
+        var digest = parser.value();
+        if (parser.skipWhitespace() != -1) {
+            throw parser.error();
+        }
+        return digest;
+    }
+
+    private byte[] value() throws IOException {
+        var c = skipWhitespace();
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                var md = newDigest('s');
+                string(md);
+                return md.digest();
+            case 't':
+                return literal("true");
+            case 'f':
+                return literal("false");
+            case 'n':
+                return literal("null");
+            default:
+                unread(c);
+                return number();
+        }
+    }
+
+    private byte[] object() throws IOException {
+        var sum = BigInteger.ZERO;
+        var count = 0L;
+        var c = skipWhitespace();
+        if (c != '}') {
+            while (true) {
+                if (c != '"') {
+                    throw error();
+                }
+                var member = newDigest('m');
+                var name = newDigest('s');
+                string(name);
+                member.update(name.digest());
+                if (skipWhitespace() != ':') {
+                    throw error();
+                }
+                member.update(value());
+                sum = sum.add(new BigInteger(1, member.digest())).mod(MODULUS);
+                count++;
+                c = skipWhitespace();
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw error();
+                }
+                c = skipWhitespace();
+            }
+        }
+        var md = newDigest('o');
+        md.update(sum.toByteArray());
+        md.update(Long.toString(count).getBytes(UTF_8));
+        return md.digest();
+    }
+
+    private byte[] array() throws IOException {
+        var md = newDigest('a');
+        var c = skipWhitespace();
+        if (c == ']') {
+            return md.digest();
+        }
+        unread(c);
+        while (true) {
+            md.update(value());
+            c = skipWhitespace();
+            if (c == ']') {
+                return md.digest();
+            }
+            if (c != ',') {
+                throw error();
+            }
+        }
+    }
+
+    /**
+     * Digests the characters of a string up to its closing quote.
+     */
+    private void string(MessageDigest md) throws IOException {
+        while (true) {
+            var c = read();
+            if (c == -1) {
+                throw error();
+            }
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                var escaped = read();
+                switch (escaped) {
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'u':
+                        var hex = new char[4];
+                        for (int i = 0; i < hex.length; i++) {
+                            var h = read();
+                            if (Character.digit(h, 16) == -1) {
+                                throw error();
+                            }
+                            hex[i] = (char) h;
+                        }
+                        c = Integer.parseInt(new String(hex), 16);
+                        break;
+                    case -1:
+                        throw error();
+                    default:
+                        c = escaped;
+                }
+            }
+            md.update((byte) (c >> 8));
+            md.update((byte) c);
+        }
+    }
+
+    private byte[] literal(String literal) throws IOException {
+        for (int i = 1; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) {
+                throw error();
+            }
+        }
+        var md = newDigest('l');
+        md.update(literal.getBytes(UTF_8));
+        return md.digest();
+    }
+
+    private byte[] number() throws IOException {
+        var sb = new StringBuilder();
+        int c;
+        while ((c = read()) != -1 && "+-0123456789.eE".indexOf(c) != -1) {
+            sb.append((char) c);
+        }
+        unread(c);
+        try {
+            var md = newDigest('n');
+            md.update(new BigDecimal(sb.toString()).stripTrailingZeros().toString()
+                    .getBytes(UTF_8));
+            return md.digest();
+        } catch (NumberFormatException e) {
+            throw error();
+        }
+    }
+
+    /**
+     * @return the next character that isn't whitespace, or {@code -1} at the end of the text.
+     */
+    private int skipWhitespace() throws IOException {
+        int c;
+        while ((c = read()) != -1 && Character.isWhitespace(c)) {
+            // Skip.
+        }
+        return c;
+    }
+
+    private int read() throws IOException {
+        pos++;
+        return in.read();
+    }
+
+    private void unread(int c) throws IOException {
+        if (c != -1) {
+            pos--;
+            in.unread(c);
+        }
+    }
+
+    /**
+     * @param type distinguishes values of different types with the same text.
+     * @return a new SHA-256 MessageDigest, started with the type.
+     */
+    private static MessageDigest newDigest(char type) {
+        try {
+            var md = MessageDigest.getInstance("SHA-256");
+            md.update((byte) type);
+            return md;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private IllegalArgumentException error() {
+        return new IllegalArgumentException(
+                MessageFormat.format(Jttp.RB.getString("error.json.syntax"), pos - 1));
+    }
+}
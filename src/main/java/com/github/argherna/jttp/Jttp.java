@@ -17,6 +17,7 @@ import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -25,46 +26,64 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.net.Authenticator;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.AccessController;
+import java.security.DigestInputStream;
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivilegedAction;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactoryConfigurationError;
 
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
 import picocli.CommandLine.Parameters;
+import picocli.CommandLine.Spec;
 
 @Command(name = "jttp", mixinStandardHelpOptions = true, version = "1.0",
         resourceBundle = "com.github.argherna.jttp.messages_jttp", separator = " ",
@@ -78,10 +97,20 @@ public class Jttp implements Runnable {
     static final ResourceBundle RB =
             ResourceBundle.getBundle("com.github.argherna.jttp.messages_jttp");
 
-    private static final String BOUNDARY = Long.toHexString(System.currentTimeMillis());
-
     private static final String CRLF = "\r\n";
 
+    private static final Integer HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private static final Integer RESPONSE_MEMORY_LIMIT = 0x800000;
+
+    private static final String[] ITEM_SEPARATORS = {"==", "=", ":", "@"};
+
+    private static final HostnameVerifier TRUST_ALL_HOSTNAMES = (hostname, session) -> true;
+
+    private static final Set<String> ROWS_OPTIONS =
+            Set.of("--rows", "--rows-failures", "--rows-format", "--rows-parallel",
+                    "--rows-results");
+
     static final String FILE_SEP = AccessController
             .doPrivileged((PrivilegedAction<String>) () -> System.getProperty("file.separator"));
 
@@ -103,9 +132,49 @@ public class Jttp implements Runnable {
 
     private final PrintStream ps;
 
+    private final PrintStream err;
+
+    private final InputStream stdin;
+
+    private boolean keepAlive;
+
+    private boolean captureResponse;
+
     private File tempResponse;
 
-    private HttpURLConnection conn;
+    private BodyFanOut responseBody;
+
+    private PartialDownload partialDownload;
+
+    private SegmentedDownload segmentedDownload;
+
+    private Checksums checksums;
+
+    private InputStream directResponse;
+
+    private DiskResponseCache responseCache;
+
+    private boolean cacheValidatorsAdded;
+
+    private String basicCredentials;
+
+    private DigestAuth digestAuth;
+
+    private Authenticator authenticator;
+
+    private final String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    private OAuth2Client oauth2Client;
+
+    private volatile HttpURLConnection conn;
+
+    private HedgedRequest hedgedRequest;
+
+    private Deadline deadline;
+
+    private RetryPolicy retryPolicy;
+
+    private TusUpload tusUpload;
 
     private InputStream inStream;
 
@@ -113,27 +182,105 @@ public class Jttp implements Runnable {
 
     private Map<String, List<String>> requestHeaders;
 
+    private Map<String, List<String>> requestProperties;
+
     private Map<String, File> uploadFiles;
 
     @Option(names = {"-A", "--auth"}, paramLabel = "user[:password]",
             descriptionKey = "jttp.opt.auth")
     private String auth;
 
+    @Option(names = "--auth-type", paramLabel = "BASIC|DIGEST|OAUTH2",
+            descriptionKey = "jttp.opt.authtype")
+    private AuthType authType;
+
+    @Option(names = "--batch", paramLabel = "filename", descriptionKey = "jttp.opt.batch")
+    private String batch;
+
+    @Option(names = "--batch-host-limit", paramLabel = "count",
+            descriptionKey = "jttp.opt.batchhostlimit")
+    private int batchHostLimit = 4;
+
+    @Option(names = "--batch-output", paramLabel = "dirname",
+            descriptionKey = "jttp.opt.batchoutput")
+    private File batchOutput;
+
+    @Option(names = "--batch-parallel", paramLabel = "count",
+            descriptionKey = "jttp.opt.batchparallel")
+    private int batchParallel = 8;
+
+    @Option(names = "--batch-unordered", descriptionKey = "jttp.opt.batchunordered")
+    private boolean batchUnordered;
+
+    @Option(names = "--bench", paramLabel = "seconds", descriptionKey = "jttp.opt.bench")
+    private int bench;
+
+    @Option(names = "--bench-rate", paramLabel = "persecond",
+            descriptionKey = "jttp.opt.benchrate")
+    private double benchRate;
+
+    @Option(names = "--bench-users", paramLabel = "count",
+            descriptionKey = "jttp.opt.benchusers")
+    private int benchUsers = 10;
+
+    @Option(names = "--bench-warmup", paramLabel = "seconds",
+            descriptionKey = "jttp.opt.benchwarmup")
+    private int benchWarmup;
+
+    @Option(names = "--cache", descriptionKey = "jttp.opt.cache")
+    private boolean cache;
+
+    @Option(names = "--client", descriptionKey = "jttp.opt.client")
+    private boolean client;
+
+    @Option(names = "--connect-timeout", paramLabel = "millis",
+            descriptionKey = "jttp.opt.connecttimeout")
+    private int connectTimeout;
+
+    @Option(names = "--daemon", descriptionKey = "jttp.opt.daemon")
+    private boolean daemon;
+
     @Option(names = {"-d", "--download"}, descriptionKey = "jttp.opt.download")
     private boolean download;
 
+    @Option(names = "--digest", paramLabel = "algorithm[=value]",
+            descriptionKey = "jttp.opt.digest")
+    private String[] digests;
+
+    @Option(names = "--hedge", paramLabel = "millis|pNN", descriptionKey = "jttp.opt.hedge")
+    private String hedge;
+
     @Option(names = {"-M", "--request-mime-type"}, paramLabel = "mimetype",
             descriptionKey = "jttp.opt.reqmimetype")
     private RequestMimeType requestMimeType = RequestMimeType.JSON;
 
     private Session session;
 
+    @Option(names = "--no-progress", descriptionKey = "jttp.opt.noprogress")
+    private boolean noProgress;
+
     @Option(names = {"-N", "--no-verify"}, descriptionKey = "jttp.opt.noverify")
     private boolean noVerify;
 
+    private SSLSocketFactory trustAllSocketFactory;
+
+    @Option(names = "--oauth2-refresh-token", paramLabel = "token",
+            descriptionKey = "jttp.opt.oauth2refreshtoken")
+    private String oauth2RefreshToken;
+
+    @Option(names = "--oauth2-scope", paramLabel = "scope", descriptionKey = "jttp.opt.oauth2scope")
+    private String oauth2Scope;
+
+    @Option(names = "--oauth2-token-url", paramLabel = "url",
+            descriptionKey = "jttp.opt.oauth2tokenurl")
+    private URI oauth2TokenUrl;
+
     @Option(names = {"-O", "--offline"}, descriptionKey = "jttp.opt.offline")
     private boolean offline;
 
+    @Option(names = "--offline-replay", descriptionKey = "jttp.opt.offlinereplay")
+    private boolean offlineReplay;
+
     @Option(names = {"-o", "--outfile"}, paramLabel = "filename",
             descriptionKey = "jttp.opt.output")
     private File outfile;
@@ -161,23 +308,135 @@ public class Jttp implements Runnable {
     @Option(names = {"-p", "--print"}, paramLabel = "entity", descriptionKey = "jttp.opt.print")
     private String print = "hb";
 
+    @Option(names = "--read-timeout", paramLabel = "millis",
+            descriptionKey = "jttp.opt.readtimeout")
+    private int readTimeout;
+
     @Option(names = {"-R", "--read-only-session"}, descriptionKey = "jttp.opt.readonlysession")
     private boolean readOnlySession;
 
+    @Option(names = "--replay", descriptionKey = "jttp.opt.replay")
+    private boolean replay;
+
+    @Option(names = "--replay-parallel", paramLabel = "count",
+            descriptionKey = "jttp.opt.replayparallel")
+    private int replayParallel = 8;
+
+    @Option(names = "--replay-speed", paramLabel = "factor",
+            descriptionKey = "jttp.opt.replayspeed")
+    private double replaySpeed = 1;
+
+    @Option(names = "--retries", paramLabel = "count", descriptionKey = "jttp.opt.retries")
+    private int retries;
+
+    @Option(names = "--retry-backoff", paramLabel = "millis",
+            descriptionKey = "jttp.opt.retrybackoff")
+    private long retryBackoff = 200;
+
+    @Option(names = "--retry-exception", paramLabel = "classname", split = ",",
+            descriptionKey = "jttp.opt.retryexception")
+    private String[] retryExceptions;
+
+    @Option(names = "--retry-status", paramLabel = "status", split = ",",
+            descriptionKey = "jttp.opt.retrystatus")
+    private Integer[] retryStatuses;
+
+    @Option(names = "--rows", paramLabel = "filename", descriptionKey = "jttp.opt.rows")
+    private String rows;
+
+    @Option(names = "--rows-failures", paramLabel = "filename",
+            descriptionKey = "jttp.opt.rowsfailures")
+    private File rowsFailures;
+
+    @Option(names = "--rows-format", paramLabel = "CSV|NDJSON",
+            descriptionKey = "jttp.opt.rowsformat")
+    private RowReader.Format rowsFormat;
+
+    @Option(names = "--rows-parallel", paramLabel = "count",
+            descriptionKey = "jttp.opt.rowsparallel")
+    private int rowsParallel = 8;
+
+    @Option(names = "--rows-results", paramLabel = "filename",
+            descriptionKey = "jttp.opt.rowsresults")
+    private File rowsResults;
+
+    @Option(names = "--serve", paramLabel = "port", descriptionKey = "jttp.opt.serve")
+    private int serve = -1;
+
+    @Option(names = "--serve-match", paramLabel = "part", split = ",",
+            descriptionKey = "jttp.opt.servematch")
+    private String[] serveMatch;
+
+    @Option(names = "--serve-max-age", paramLabel = "seconds",
+            descriptionKey = "jttp.opt.servemaxage")
+    private long serveMaxAge;
+
+    @Option(names = "--serve-unsafe", descriptionKey = "jttp.opt.serveunsafe")
+    private boolean serveUnsafe;
+
     @Option(names = {"-S", "--session"}, paramLabel = "sessionname",
             descriptionKey = "jttp.opt.sessionname")
     private String sessionName;
 
+    @Option(names = "--session-export", paramLabel = "filename",
+            descriptionKey = "jttp.opt.sessionexport")
+    private File sessionExport;
+
+    @Option(names = "--session-import", paramLabel = "filename",
+            descriptionKey = "jttp.opt.sessionimport")
+    private File sessionImport;
+
+    @Option(names = "--segments", paramLabel = "count", descriptionKey = "jttp.opt.segments")
+    private int segments = 1;
+
+    @Option(names = "--shadow", paramLabel = "baseurl", split = ",",
+            descriptionKey = "jttp.opt.shadow")
+    private String[] shadow;
+
+    @Option(names = "--shadow-runs", paramLabel = "count", descriptionKey = "jttp.opt.shadowruns")
+    private int shadowRuns = 1;
+
     private String requestData = "";
 
+    @Option(names = "--timeout", paramLabel = "millis", descriptionKey = "jttp.opt.timeout")
+    private long timeout;
+
+    @Option(names = "--tus", paramLabel = "filename", descriptionKey = "jttp.opt.tus")
+    private File tusFile;
+
+    @Option(names = "--tus-chunk-size", paramLabel = "bytes",
+            descriptionKey = "jttp.opt.tuschunksize")
+    private int tusChunkSize = 0x800000;
+
+    @Option(names = "--tus-parallel", paramLabel = "count",
+            descriptionKey = "jttp.opt.tusparallel")
+    private int tusParallel = 1;
+
     @Option(names = {"-v", "--verbose"}, descriptionKey = "jttp.opt.verbose")
     private boolean verbose;
 
+    @Option(names = "--watch", paramLabel = "seconds", descriptionKey = "jttp.opt.watch")
+    private int watch;
+
+    @Option(names = "--watch-diff", descriptionKey = "jttp.opt.watchdiff")
+    private boolean watchDiff;
+
+    @Option(names = "--watch-max-backoff", paramLabel = "seconds",
+            descriptionKey = "jttp.opt.watchmaxbackoff")
+    private int watchMaxBackoff = 300;
+
+    @Option(names = "--workflow", paramLabel = "filename", descriptionKey = "jttp.opt.workflow")
+    private String workflow;
+
+    @Option(names = "--workflow-parallel", paramLabel = "count",
+            descriptionKey = "jttp.opt.workflowparallel")
+    private int workflowParallel = 8;
+
     @Option(names = {"-X", "--request-method"}, paramLabel = "methodname",
             descriptionKey = "jttp.opt.method")
     private RequestMethod method = RequestMethod.GET;
 
-    @Parameters(index = "0", descriptionKey = "jttp.arg.url", paramLabel = "url")
+    @Parameters(index = "0", arity = "0..1", descriptionKey = "jttp.arg.url", paramLabel = "url")
     private String urlString;
 
     @Parameters(index = "1..*", descriptionKey = "jttp.arg.reqitem", paramLabel = "request_item")
@@ -185,6 +444,9 @@ public class Jttp implements Runnable {
 
     private URI url;
 
+    @Spec
+    private CommandSpec spec;
+
     /**
      * The main.
      * 
@@ -197,6 +459,21 @@ public class Jttp implements Runnable {
             saveDir.mkdirs();
         }
 
+        if (args.length > 0 && args[0].equals("--client")) {
+            // Checked before picocli is loaded to keep the client's startup short.
+            args = Arrays.copyOfRange(args, 1, args.length);
+            try {
+                var exitCode = DaemonClient.call(args);
+                if (exitCode != -1) {
+                    System.exit(exitCode);
+                }
+                LOGGER.log(DEBUG, "logger.debug.daemon.none");
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+
         int exitCode = new CommandLine(new Jttp()).execute(args);
         System.exit(exitCode);
     }
@@ -205,7 +482,32 @@ public class Jttp implements Runnable {
      * Constructs a new instance of Jttp.
      */
     Jttp() {
-        ps = System.out;
+        this(System.out, System.err, System.in);
+    }
+
+    /**
+     * Constructs a new instance of Jttp that prints to the given stream and reports on stderr.
+     * 
+     * @param ps    where output is printed.
+     * @param stdin where request data is read from if the request method has a payload and no
+     *              request items are set.
+     */
+    Jttp(PrintStream ps, InputStream stdin) {
+        this(ps, System.err, stdin);
+    }
+
+    /**
+     * Constructs a new instance of Jttp that prints to the given streams.
+     * 
+     * @param ps    where output is printed.
+     * @param err   where progress, summaries and output moved off stdout are printed.
+     * @param stdin where request data is read from if the request method has a payload and no
+     *              request items are set.
+     */
+    Jttp(PrintStream ps, PrintStream err, InputStream stdin) {
+        this.ps = ps;
+        this.err = err;
+        this.stdin = stdin;
     }
 
     /**
@@ -236,109 +538,978 @@ public class Jttp implements Runnable {
     public void run() {
         try {
 
+            if (daemon) {
+                new Daemon().run();
+                return;
+            }
+            if (nonNull(batch)) {
+                runBatch();
+                return;
+            }
+            if (nonNull(workflow)) {
+                runWorkflow();
+                return;
+            }
+            if (nonNull(rows)) {
+                runRows();
+                return;
+            }
+            if (isNull(urlString)) {
+                throw new ParameterException(spec.commandLine(),
+                        RB.getString("error.missing.url"));
+            }
             setup();
+            if (bench > 0) {
+                runBench();
+                return;
+            }
+            if (replay) {
+                runReplay();
+                return;
+            }
+            if (nonNull(shadow)) {
+                runShadow();
+                return;
+            }
+            if (serve >= 0) {
+                runServe();
+                return;
+            }
+            if (nonNull(sessionImport) || nonNull(sessionExport)) {
+                transferSession();
+                return;
+            }
             preProcess();
-            process();
-            postProcess();
-            finish();
+            if (watch > 0) {
+                watch();
+            } else {
+                if (timeout > 0) {
+                    deadline = Deadline.start(timeout, () -> conn.disconnect());
+                }
+                process();
+                postProcess();
+                finish();
+            }
 
         } catch (Exception e) {
+            if (nonNull(deadline) && deadline.isExpired()) {
+                throw new RuntimeException(new SocketTimeoutException(
+                        MessageFormat.format(RB.getString("error.timeout.total"), timeout)));
+            }
             if (e instanceof RuntimeException) {
                 throw (RuntimeException) e;
             } else {
                 throw new RuntimeException(e);
             }
+        } finally {
+            if (nonNull(deadline)) {
+                deadline.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the requests listed in the {@code --batch} file.
+     * 
+     * @throws IOException if an IOException occurs or a request in the batch failed.
+     */
+    private void runBatch() throws IOException {
+        var in = batch.equals("-") ? new InputStreamReader(stdin, StandardCharsets.UTF_8)
+                : new InputStreamReader(new FileInputStream(batch), StandardCharsets.UTF_8);
+        try (var specs = new BufferedReader(in)) {
+            var failed = new Batch(specs, Math.max(1, batchParallel), Math.max(1, batchHostLimit),
+                    nonNull(batchOutput) ? batchOutput.toPath() : null, !batchUnordered, ps,
+                    err).run();
+            if (failed > 0) {
+                throw new IOException(
+                        MessageFormat.format(RB.getString("error.batch.failed"), failed));
+            }
+        }
+    }
+
+    /**
+     * Runs the steps of the {@code --workflow} file.
+     * 
+     * @throws IOException if an IOException occurs or a step failed.
+     */
+    private void runWorkflow() throws IOException {
+        var text = workflow.equals("-") ? new String(stdin.readAllBytes(), StandardCharsets.UTF_8)
+                : Files.readString(Paths.get(workflow), StandardCharsets.UTF_8);
+        var failed = new Workflow(text, Math.max(1, workflowParallel), ps, err).run();
+        if (failed > 0) {
+            throw new IOException(
+                    MessageFormat.format(RB.getString("error.workflow.failed"), failed));
+        }
+    }
+
+    /**
+     * Sends a request per row of the {@code --rows} file, with the arguments of this run other
+     * than the {@code --rows} options as the template.
+     * 
+     * @throws IOException if an IOException occurs or a row failed.
+     */
+    private void runRows() throws IOException {
+        var template = new ArrayList<String>();
+        var args = spec.commandLine().getParseResult().originalArgs();
+        for (int i = 0; i < args.size(); i++) {
+            var arg = args.get(i);
+            if (ROWS_OPTIONS.contains(arg)) {
+                i++;
+            } else if (!ROWS_OPTIONS.contains(arg.split("=", 2)[0])) {
+                template.add(arg);
+            }
+        }
+        var in = rows.equals("-") ? new InputStreamReader(stdin, StandardCharsets.UTF_8)
+                : new InputStreamReader(new FileInputStream(rows), StandardCharsets.UTF_8);
+        try (var reader = new BufferedReader(in)) {
+            var format = nonNull(rowsFormat) ? rowsFormat : RowReader.formatOf(rows);
+            var failed = new Rows(new RowReader(reader, format), template,
+                    Math.max(1, rowsParallel), nonNull(rowsResults) ? rowsResults.toPath() : null,
+                    nonNull(rowsFailures) ? rowsFailures.toPath() : null, ps, err).run();
+            if (failed > 0) {
+                throw new IOException(
+                        MessageFormat.format(RB.getString("error.rows.failed"), failed));
+            }
+        }
+    }
+
+    /**
+     * Sends the request built by {@link #setup() setup} repeatedly for {@code --bench} seconds and
+     * prints latency percentiles and throughput instead of the response. Scripts and sessions
+     * aren't run or updated.
+     * 
+     * @throws IOException if an IOException occurs.
+     */
+    private void runBench() throws IOException {
+        requestProperties = conn.getRequestProperties();
+        var requestMethod = conn.getRequestMethod();
+        var doOutput = conn.getDoOutput();
+        var payload = bufferRequestBody();
+        keepAlive = true;
+        new Bench(() -> {
+            var connection = newConnection(requestMethod, doOutput);
+            if (doOutput) {
+                connection.setFixedLengthStreamingMode(payload.length);
+                try (var out = connection.getOutputStream()) {
+                    out.write(payload);
+                }
+            }
+            return connection;
+        }, Math.max(1, benchUsers), benchRate, bench * 1000L, benchWarmup * 1000L).run(ps);
+    }
+
+    /**
+     * Sends the request built by {@link #setup() setup} to the url and to the same path on each
+     * {@code --shadow} base url, {@code --shadow-runs} times, and prints how the responses and
+     * latencies compare. Scripts and sessions aren't run or updated.
+     * 
+     * @throws IOException if an IOException occurs or a response differed from the url's.
+     */
+    private void runShadow() throws IOException {
+        requestProperties = conn.getRequestProperties();
+        var requestMethod = conn.getRequestMethod();
+        var payload = conn.getDoOutput() ? bufferRequestBody() : null;
+        var targets = new ArrayList<URL>();
+        targets.add(url.toURL());
+        var pathAndQuery = url.getRawPath()
+                + (nonNull(url.getRawQuery()) ? "?" + url.getRawQuery() : "");
+        for (var base : shadow) {
+            targets.add(new URL(base.replaceAll("/+$", "") + pathAndQuery));
+        }
+        keepAlive = true;
+        var differences = new Shadow(targets, Math.max(1, shadowRuns)).run(this::newConnection,
+                requestMethod, payload, ps);
+        if (differences > 0) {
+            throw new IOException(MessageFormat.format(RB.getString("error.shadow.differences"),
+                    differences, url));
+        }
+    }
+
+    /**
+     * @return the request data or multipart form as it would be sent, or an empty array if the
+     *         connection doesn't send a body.
+     * @throws IOException if an IOException occurs.
+     */
+    private byte[] bufferRequestBody() throws IOException {
+        var body = new ByteArrayOutputStream();
+        if (conn.getDoOutput() && nonNull(requestData) && !requestData.isEmpty()) {
+            sendRequestData(body);
+        } else if (conn.getDoOutput() && !uploadFiles.isEmpty()) {
+            writeMultipartData(body, true);
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Listens on the {@code --serve} port and forwards requests to the url with the headers and
+     * cookies of the {@code -S} session, recording the responses in the session and serving
+     * repeated requests from it, until the process is stopped.
+     * 
+     * @throws IOException if an IOException occurs reading the history or opening the port.
+     */
+    private void runServe() throws IOException {
+        if (isNull(session)) {
+            throw new IllegalArgumentException(RB.getString("error.serve.no.session"));
+        }
+        requestProperties = conn.getRequestProperties();
+        keepAlive = true;
+        new CachingProxy(url, session, requestProperties, this::newConnection,
+                HistoryIndex.parseMatch(serveMatch), serveUnsafe, Math.max(0, serveMaxAge), ps)
+                        .run(serve);
+    }
+
+    /**
+     * Imports the {@code --session-import} zip file into the {@code -S} session, then exports the
+     * session to the {@code --session-export} zip file, without sending a request.
+     * 
+     * @throws IOException        if an IOException occurs.
+     * @throws XMLStreamException if an XMLStreamException occurs.
+     */
+    private void transferSession() throws IOException, XMLStreamException {
+        if (isNull(session)) {
+            throw new IllegalArgumentException(RB.getString("error.session.zip.no.session"));
+        }
+        if (nonNull(sessionImport)) {
+            session.importZip(sessionImport.toPath());
+        }
+        if (nonNull(sessionExport)) {
+            session.exportZip(sessionExport.toPath());
+        }
+    }
+
+    /**
+     * Sends the requests recorded in the history of the {@code -S} session again to the url's host,
+     * with the session's headers and cookies.
+     * 
+     * @throws IOException if an IOException occurs reading the history.
+     */
+    private void runReplay() throws IOException {
+        if (isNull(session)) {
+            throw new IllegalArgumentException(RB.getString("error.replay.no.session"));
+        }
+        requestProperties = conn.getRequestProperties();
+        keepAlive = true;
+        new Replay(url, Math.max(0, replaySpeed), Math.max(1, replayParallel)).run(session,
+                this::newConnection, ps);
+    }
+
+    /**
+     * Sends the request every {@code --watch} seconds until the process is stopped, printing the
+     * response only when it changed.
+     * 
+     * <p>
+     * The connection is kept alive between requests. {@code If-None-Match} and
+     * {@code If-Modified-Since} are sent when the last response had validators, and a
+     * {@code 304 Not Modified} response counts as unchanged. Otherwise the body is hashed and
+     * compared with the last one. With {@code --watch-diff}, a changed Json body is printed as the
+     * differences from the last one. After a failure or a {@code 5xx} response, the delay doubles
+     * each time up to {@code --watch-max-backoff} seconds. {@code --timeout} limits each request,
+     * and one that takes too long counts as a failure.
+     * 
+     * @throws IOException          if an IOException occurs rendering a response.
+     * @throws URISyntaxException   if a URISyntaxException occurs rendering a response.
+     * @throws InterruptedException if the process is interrupted while waiting.
+     */
+    private void watch() throws IOException, URISyntaxException, InterruptedException {
+        keepAlive = true;
+        var requestMethod = conn.getRequestMethod();
+        var doOutput = conn.getDoOutput();
+        var baseProperties = conn.getRequestProperties();
+        byte[] lastHash = null;
+        Object lastJson = null;
+        String etag = null;
+        String lastModified = null;
+        var errors = 0;
+        for (var first = true;; first = false) {
+            if (!first) {
+                requestProperties = baseProperties;
+                setConnection(newConnection(requestMethod, doOutput));
+                if (nonNull(etag)) {
+                    conn.setRequestProperty("If-None-Match", etag);
+                }
+                if (nonNull(lastModified)) {
+                    conn.setRequestProperty("If-Modified-Since", lastModified);
+                }
+            }
+            if (timeout > 0) {
+                deadline = Deadline.start(timeout, () -> conn.disconnect());
+            }
+            try {
+                if (nonNull(tempResponse)) {
+                    Files.deleteIfExists(tempResponse.toPath());
+                    tempResponse = null;
+                }
+                process();
+                var status = conn.getResponseCode();
+                if (status >= 500) {
+                    errors++;
+                    LOGGER.log(WARNING, "logger.warning.watch.error", status);
+                } else if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    errors = 0;
+                    LOGGER.log(DEBUG, "logger.debug.watch.unchanged", url);
+                } else {
+                    errors = 0;
+                    etag = conn.getHeaderField("ETag");
+                    lastModified = conn.getHeaderField("Last-Modified");
+                    var hash = hashTempResponse();
+                    var json = watchDiff && !Arrays.equals(hash, lastHash)
+                            ? parseTempResponse()
+                            : null;
+                    var changes = nonNull(json) && nonNull(lastJson)
+                            ? Json.diff(lastJson, json)
+                            : null;
+                    if (Arrays.equals(hash, lastHash) || nonNull(changes) && changes.isEmpty()) {
+                        // Reordered members or reformatting alone aren't a change.
+                        LOGGER.log(DEBUG, "logger.debug.watch.unchanged", url);
+                        lastHash = hash;
+                    } else {
+                        if (nonNull(changes)) {
+                            ps.println(MessageFormat.format(RB.getString("jttp.watch.changed"),
+                                    new Date()));
+                            changes.forEach(ps::println);
+                            ps.println();
+                        } else {
+                            postProcess();
+                            finish();
+                        }
+                        ps.flush();
+                        lastHash = hash;
+                        lastJson = json;
+                    }
+                }
+            } catch (IOException e) {
+                errors++;
+                LOGGER.log(WARNING, "logger.warning.watch.error",
+                        nonNull(deadline) && deadline.isExpired() ? MessageFormat
+                                .format(RB.getString("error.timeout.total"), timeout)
+                                : e.toString());
+            } finally {
+                if (nonNull(deadline)) {
+                    deadline.close();
+                    deadline = null;
+                }
+            }
+            var delay = watch * 1000L;
+            if (errors > 0) {
+                delay = Math.min(delay << Math.min(errors, 20), watchMaxBackoff * 1000L);
+            }
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * @return the SHA-256 digest of the response body, or {@code null} if there is none.
+     * @throws IOException if an IOException occurs.
+     */
+    private byte[] hashTempResponse() throws IOException {
+        if (isNull(tempResponse)) {
+            return null;
+        }
+        if (nonNull(responseBody) && nonNull(responseBody.getDigest())) {
+            return responseBody.getDigest();
+        }
+        try (var in = new DigestInputStream(new FileInputStream(tempResponse),
+                MessageDigest.getInstance("SHA-256"))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return in.getMessageDigest().digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the response body parsed as Json, or {@code null} if it isn't Json.
+     * @throws IOException if an IOException occurs.
+     */
+    private Object parseTempResponse() throws IOException {
+        if (isNull(tempResponse)) {
+            return null;
+        }
+        try {
+            return Json.parse(new String(tempFileToBytes(), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Set up the components needed for the run.
+     */
+    void setup() throws IOException, URISyntaxException {
+        initializeState();
+        conn = (HttpURLConnection) url.toURL().openConnection();
+        applyNoVerify(conn);
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        if (nonNull(sessionName) && !sessionName.isEmpty()) {
+            session = new Session(sessionName, conn);
+            try {
+                session.load();
+            } catch (Exception e) {
+                LOGGER.log(WARNING, "logger.warning.xmlerror", e.getMessage());
+                e.printStackTrace();
+            }
+        }
+
+        setRequestHeaders();
+        setRequestMethod();
+        loadDigestState();
+        authorize(conn);
+        if (method.hasPayload()) {
+            var mimeType = requestMimeType;
+            if (!requestHeaders.containsKey("Content-Type")) {
+                var contentType = mimeType == RequestMimeType.MULTIPART
+                        ? format("%s; boundary=%s", mimeType.getContentType(), boundary)
+                        : mimeType.getContentType();
+                conn.setRequestProperty("Content-Type", contentType);
+            }
+            if (uploadFiles.isEmpty() && (!requestDataMap.isEmpty() || nonNull(inStream))) {
+                requestData = nonNull(inStream) ? readFromInStream() : renderPayload();
+            }
+        }
+    }
+
+    /**
+     * Executes the preprocessing script after {@link Jttp#setup() setup} executes and before the
+     * {@link Jttp#process() process} method executes.
+     */
+    void preProcess() {
+        if (nonNull(preProcessScriptName) && !preProcessScriptName.isEmpty()) {
+            LOGGER.log(DEBUG, RB, "logger.debug.exec.preprocess");
+            var jttpScriptObject = new JttpScriptObject(conn);
+            executeScript(preProcessScriptName, jttpScriptObject, preProcessScriptArgs);
+        }
+    }
+
+    /**
+     * Sends request data and get the response.
+     * 
+     * <p>
+     * <strong>Implementation Note:</strong> all response bodies are stored in a temporary file that
+     * is deleted after the run, except successful downloads which are stored in a
+     * {@link PartialDownload} next to the download target so they can be resumed. When the body is
+     * copied to stdout unchanged and nothing else needs to read it, no temporary file is written;
+     * the response stream is left open for {@link #finish() finish} to copy. Saving a session
+     * copies the temporary file into the session's history afterwards.
+     */
+    void process() throws IOException {
+        requireNonNull(conn, RB.getString("error.null.connection"));
+        // Added before the snapshot so that every connection reopened from it sends them too.
+        cacheValidatorsAdded = !offline() && !offlineReplay && isNull(tusUpload)
+                && nonNull(responseCache)
+                && responseCache.addValidators(conn, conn.getRequestProperties());
+        requestProperties = conn.getRequestProperties();
+        responseBody = null;
+        segmentedDownload = null;
+        var requestMethod = conn.getRequestMethod();
+        if (!offline() && offlineReplay) {
+            replayFromSession();
+            return;
+        }
+        if (!offline() && isResumableDownload() && !streamResponseDirectly()) {
+            prepareDownload();
+        }
+        if (!offline() && nonNull(tusUpload)) {
+            // The upload makes its own requests and recovers from failures by itself.
+            setConnection(tusUpload.upload(this::newConnection, progressStream()));
+        } else if (!offline() && !serveFromCache()) {
+            send(requestMethod);
+        }
+
+        if (!offline() && nonNull(digestAuth) && isNull(tusUpload)) {
+            if (conn.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED
+                    && digestAuth.challenged(conn)) {
+                // No challenge saved for this host yet, or its nonce went stale. Answer it once.
+                conn.disconnect();
+                reopenConnection(requestMethod);
+                sendRequestBody();
+            }
+            digestAuth.update(conn);
+            saveDigestState();
+        }
+
+        if (!offline() && nonNull(oauth2Client) && isNull(tusUpload)
+                && conn.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED
+                && oauth2Client.invalidate()) {
+            // The saved token was revoked before it expired. Get a new one and resend once.
+            conn.disconnect();
+            reopenConnection(requestMethod);
+            sendRequestBody();
+        }
+
+        if (!offline() && cacheValidatorsAdded
+                && conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED
+                && responseCache.revalidated(conn, requestProperties)) {
+            // Not modified, so serve the refreshed response from the cache.
+            conn.disconnect();
+            serveFromCache();
+        }
+
+        if (!offline() && streamResponseDirectly()) {
+            try {
+                directResponse = getInputStream();
+            } catch (IOException e) {
+                directResponse = conn.getErrorStream();
+            }
+            if (isNull(directResponse)) {
+                conn.disconnect();
+            }
+            return;
+        }
+
+        if (!offline() && nonNull(segmentedDownload)) {
+            var segmentFile = createTempResponse();
+            long xfered;
+            try (var progress = TransferProgress.start(RB.getString("jttp.progress.download"),
+                    segmentedDownload.getContentLength(), 0, progressStream())) {
+                xfered = segmentedDownload.transferTo(conn, segmentFile, progress);
+            }
+            if (xfered != -1) {
+                tempResponse = segmentFile;
+                LOGGER.log(TRACE, "logger.trace.bytes.transferred", xfered,
+                        tempResponse.toString());
+                conn.disconnect();
+                if (nonNull(checksums)) {
+                    // Segments arrive out of order, so digest the assembled file.
+                    checksums.readExpected(conn);
+                    checksums.update(tempResponse, xfered);
+                    verifyChecksums();
+                }
+                return;
+            }
+        }
+
+        InputStream responseStream = null;
+        var responseOk = false;
+        var verifyChecksums = false;
+        try {
+            responseStream = offline() ? null : getInputStream();
+            responseOk = true;
+        } catch (IOException e) {
+            responseStream = conn.getErrorStream();
+            if (nonNull(partialDownload)
+                    && conn.getResponseCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+                if (partialDownload.isComplete(conn)) {
+                    // Every byte was received before; only the move to the target is left.
+                    if (nonNull(responseStream)) {
+                        responseStream.close();
+                        responseStream = null;
+                    }
+                    tempResponse = partialDownload.getFile();
+                } else {
+                    partialDownload.discard();
+                }
+            }
+        } finally {
+            try {
+                if (nonNull(responseStream)) {
+                    var toPartialDownload = responseOk && nonNull(partialDownload);
+                    tempResponse =
+                            toPartialDownload ? partialDownload.getFile() : createTempResponse();
+                    verifyChecksums = responseOk && nonNull(checksums);
+                    responseBody = new BodyFanOut(
+                            openTempResponse(toPartialDownload, verifyChecksums),
+                            keepResponseInMemory(toPartialDownload) ? RESPONSE_MEMORY_LIMIT : 0,
+                            watch > 0);
+                    try (var in = responseStream; var out = responseBody;
+                            var progress = startDownloadProgress(toPartialDownload)) {
+                        var xfered = in.transferTo(progress.wrap(out));
+                        LOGGER.log(TRACE, "logger.trace.bytes.transferred", xfered,
+                                tempResponse.toString());
+                    }
+                }
+            } finally {
+                release();
+            }
+        }
+        // Verified out here so a mismatch neither skips release() nor hides an earlier failure.
+        if (verifyChecksums) {
+            verifyChecksums();
+        }
+    }
+
+    /**
+     * Sets up a resumed or segmented download while the connection isn't connected yet, so that
+     * its {@code Range} headers can still be set. Every connection reopened to resend the request
+     * gets them too.
+     * 
+     * @throws IOException if an IOException occurs.
+     */
+    private void prepareDownload() throws IOException {
+        partialDownload = new PartialDownload(getDownloadPath(), conn.getURL());
+        partialDownload.prepare(conn);
+        if (isSegmentedDownload() && partialDownload.getOffset() == 0) {
+            var download = new SegmentedDownload(conn.getURL(), this::newConnection, segments);
+            if (download.probe()) {
+                segmentedDownload = download;
+                segmentedDownload.prepare(conn);
+            }
+        }
+    }
+
+    /**
+     * Replaces the connection with a fresh response from the {@code --cache}, if there is one.
+     * 
+     * @return {@code true} if the response comes from the cache and nothing needs to be sent.
+     * @throws IOException if an IOException occurs.
+     */
+    private boolean serveFromCache() throws IOException {
+        if (isNull(responseCache)) {
+            return false;
+        }
+        var cached = responseCache.get(url, conn.getRequestMethod(), requestProperties);
+        if (isNull(cached)) {
+            return false;
+        }
+        setConnection(new RecordedConnection(conn, requestProperties, cached));
+        return true;
+    }
+
+    /**
+     * Disconnects once the response has been read, unless connections are kept alive for the
+     * next request of a batch. Closing the response stream has already returned a kept-alive
+     * connection to the pool, and disconnecting would close it.
+     */
+    private void release() {
+        if (!keepAlive) {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Replaces the connection with a new one to the same URL with the same request method and
+     * properties as the connection had before it connected.
+     * 
+     * @param requestMethod the request method.
+     * @throws IOException if an IOException occurs.
+     */
+    private void reopenConnection(String requestMethod) throws IOException {
+        setConnection(resendConnection(requestMethod, conn.getDoOutput()));
+    }
+
+    /**
+     * Opens a new connection to resend the request, with the {@code Range} headers of a resumed
+     * or segmented download that aren't part of the request properties.
+     * 
+     * @param requestMethod the request method.
+     * @param doOutput      {@code true} if a request body will be sent.
+     * @return a new, unconnected HttpURLConnection.
+     * @throws IOException if an IOException occurs.
+     */
+    private HttpURLConnection resendConnection(String requestMethod, boolean doOutput)
+            throws IOException {
+        var connection = newConnection(requestMethod, doOutput);
+        if (nonNull(segmentedDownload)) {
+            segmentedDownload.prepare(connection);
+        } else if (nonNull(partialDownload)) {
+            partialDownload.prepare(connection);
+        }
+        return connection;
+    }
+
+    /**
+     * Opens a new connection to the same URL with the given request method and the properties
+     * the connection had before it connected.
+     * 
+     * @param requestMethod the request method.
+     * @param doOutput      {@code true} if a request body will be sent.
+     * @return a new, unconnected HttpURLConnection.
+     * @throws IOException if an IOException occurs.
+     */
+    private HttpURLConnection newConnection(String requestMethod, boolean doOutput)
+            throws IOException {
+        return newConnection(url.toURL(), requestMethod, doOutput);
+    }
+
+    /**
+     * Opens a new connection to a URL with the given request method and the properties the
+     * connection had before it connected.
+     * 
+     * @param target        the URL.
+     * @param requestMethod the request method.
+     * @param doOutput      {@code true} if a request body will be sent.
+     * @return a new, unconnected HttpURLConnection.
+     * @throws IOException if an IOException occurs.
+     */
+    private HttpURLConnection newConnection(URL target, String requestMethod, boolean doOutput)
+            throws IOException {
+        var connection = openConnection(target, requestMethod, doOutput);
+        requestProperties.entrySet().stream().filter(e -> nonNull(e.getKey())).forEach(
+                e -> e.getValue().forEach(v -> connection.addRequestProperty(e.getKey(), v)));
+        // Authorization is never part of the request properties that can be read back.
+        authorize(connection);
+        return connection;
+    }
+
+    /**
+     * Opens a new connection to a URL with the timeouts and TLS settings of the run, but without
+     * its request properties or authentication.
+     * 
+     * @param target        the URL.
+     * @param requestMethod the request method.
+     * @param doOutput      {@code true} if a request body will be sent.
+     * @return a new, unconnected HttpURLConnection.
+     * @throws IOException if an IOException occurs.
+     */
+    private HttpURLConnection openConnection(URL target, String requestMethod, boolean doOutput)
+            throws IOException {
+        var connection = (HttpURLConnection) target.openConnection();
+        applyNoVerify(connection);
+        connection.setRequestMethod(requestMethod);
+        connection.setDoOutput(doOutput);
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        return connection;
+    }
+
+    /**
+     * Replaces the connection rendered and saved to the session.
+     * 
+     * @param connection the HttpURLConnection.
+     */
+    private void setConnection(HttpURLConnection connection) {
+        conn = connection;
+        if (nonNull(session)) {
+            session.setConnection(conn);
+        }
+    }
+
+    /**
+     * Sends the request, hedging it if {@code --hedge} is set and retrying it if
+     * {@code --retries} is set.
+     * 
+     * <p>
+     * Retries resend the request body from {@code requestData} (standard input is read once, in
+     * {@link #setup() setup}) or from the upload files.
+     * 
+     * @param requestMethod the request method.
+     * @throws IOException if an IOException occurs on the last attempt.
+     */
+    private void send(String requestMethod) throws IOException {
+        if (nonNull(retryPolicy)) {
+            retryPolicy.onRequest(url.getHost());
+        }
+        for (var attempt = 0;; attempt++) {
+            IOException failure = null;
+            try {
+                sendRequestBody();
+                if (isHedged()) {
+                    setConnection(hedgedRequest.execute(conn,
+                            () -> resendConnection(requestMethod, false)));
+                }
+                if (isNull(retryPolicy)) {
+                    return;
+                }
+                conn.getResponseCode();
+            } catch (IOException e) {
+                if (isNull(retryPolicy) || (nonNull(deadline) && deadline.isExpired())) {
+                    throw e;
+                }
+                failure = e;
+            }
+            var delay = retryPolicy.nextDelay(attempt, method, conn, failure);
+            if (delay == -1 || (nonNull(deadline) && delay >= deadline.remainingMillis())) {
+                if (nonNull(failure)) {
+                    throw failure;
+                }
+                return;
+            }
+            LOGGER.log(INFO, "logger.info.retry", delay, attempt + 1, retries,
+                    nonNull(failure) ? failure.toString() : conn.getResponseCode());
+            conn.disconnect();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            reopenConnection(requestMethod);
+        }
+    }
+
+    /**
+     * Sends the request data or multipart form, if there is any, on the connection.
+     * 
+     * @throws IOException if an IOException occurs.
+     */
+    private void sendRequestBody() throws IOException {
+        if (conn.getDoOutput()
+                && ((nonNull(requestData) && !requestData.isEmpty()) || !uploadFiles.isEmpty())) {
+            try (var out = conn.getOutputStream()) {
+                if (nonNull(requestData) && !requestData.isEmpty()) {
+                    sendRequestData(out);
+                } else {
+                    sendMultipartData(out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the run's Authenticator on the connection, rather than as the default for the
+     * process, and the {@code Authorization} request header up front if {@code --auth-type} is set
+     * and credentials (a saved Digest challenge, or an OAuth 2.0 access token) are available.
+     * 
+     * @param connection the HttpURLConnection, not yet connected.
+     * @throws IOException if an IOException occurs.
+     */
+    private synchronized void authorize(HttpURLConnection connection) throws IOException {
+        if (nonNull(authenticator)) {
+            connection.setAuthenticator(authenticator);
+        }
+        if (nonNull(basicCredentials)) {
+            connection.setRequestProperty("Authorization", basicCredentials);
+        } else if (nonNull(oauth2Client) && !offline() && !offlineReplay) {
+            connection.setRequestProperty("Authorization",
+                    oauth2Client.getAuthorization(session, readOnlySession()));
+        } else if (nonNull(digestAuth) && digestAuth.authorize(connection)) {
+            LOGGER.log(DEBUG, "logger.debug.auth.digest.preemptive", url.getHost());
+        }
+    }
+
+    /**
+     * Loads the saved Digest challenge for the host from the session, or from
+     * {@code auth.properties} in the host's sessions directory if there is no session.
+     * 
+     * @throws IOException if an IOException occurs.
+     */
+    private void loadDigestState() throws IOException {
+        if (isNull(digestAuth)) {
+            return;
+        }
+        if (nonNull(session)) {
+            digestAuth.load(session.getAuthState());
+        } else if (Files.exists(getDigestStatePath())) {
+            var state = new Properties();
+            try (var in = Files.newInputStream(getDigestStatePath())) {
+                state.load(in);
+            }
+            digestAuth.load(state);
+        }
+    }
+
+    /**
+     * Saves the Digest challenge and nonce count with the session (written when the session is
+     * saved), or to {@code auth.properties} in the host's sessions directory if there is no
+     * session.
+     * 
+     * @throws IOException if an IOException occurs.
+     */
+    private void saveDigestState() throws IOException {
+        if (nonNull(session)) {
+            session.setAuthState(digestAuth.getState());
+        } else {
+            var path = getDigestStatePath();
+            if (!Files.exists(path.getParent())) {
+                Files.createDirectories(path.getParent());
+            }
+            try (var out = Files.newOutputStream(path)) {
+                digestAuth.getState().store(out, null);
+            }
         }
     }
 
+    private Path getDigestStatePath() {
+        return Session.getHostDirectory(url).resolve("auth.properties");
+    }
+
     /**
-     * Set up the components needed for the run.
+     * Opens the file the response body is written to.
+     * 
+     * @param toPartialDownload if {@code true} write to the {@link PartialDownload}.
+     * @param withChecksums     if {@code true} compute digests of the bytes written.
+     * @return an OutputStream.
+     * @throws IOException if an IOException occurs.
      */
-    void setup() throws IOException, URISyntaxException {
-        initializeState();
-        conn = (HttpURLConnection) url.toURL().openConnection();
-        if (nonNull(sessionName) && !sessionName.isEmpty()) {
-            session = new Session(sessionName, conn);
-            try {
-                session.load();
-            } catch (Exception e) {
-                LOGGER.log(WARNING, "logger.warning.xmlerror", e.getMessage());
-                e.printStackTrace();
+    private OutputStream openTempResponse(boolean toPartialDownload, boolean withChecksums)
+            throws IOException {
+        OutputStream out = toPartialDownload ? partialDownload.open(conn)
+                : new FileOutputStream(tempResponse);
+        if (withChecksums) {
+            checksums.readExpected(conn);
+            if (toPartialDownload && partialDownload.getOffset() > 0) {
+                checksums.update(tempResponse, partialDownload.getOffset());
             }
+            out = checksums.wrap(out);
         }
+        return out;
+    }
 
-        setRequestHeaders();
-        setRequestMethod();
-        if (method.hasPayload()) {
-            var mimeType = requestMimeType;
-            if (!requestHeaders.containsKey("Content-Type")) {
-                var contentType = mimeType == RequestMimeType.MULTIPART
-                        ? format("%s; boundary=%s", mimeType.getContentType(), BOUNDARY)
-                        : mimeType.getContentType();
-                conn.setRequestProperty("Content-Type", contentType);
-            }
-            if (uploadFiles.isEmpty() && (!requestDataMap.isEmpty() || nonNull(inStream))) {
-                requestData = nonNull(inStream) ? readFromInStream() : renderPayload();
-            }
-        }
+    /**
+     * @param toPartialDownload if {@code true} the body is appended to a {@link PartialDownload}.
+     * @return {@code true} if the response body will be read again after it's written, so a
+     *         copy of it should be kept in memory.
+     */
+    private boolean keepResponseInMemory(boolean toPartialDownload) {
+        return !toPartialDownload && (printResponseBody() || watch > 0 || captureResponse);
     }
 
     /**
-     * Executes the preprocessing script after {@link Jttp#setup() setup} executes and before the
-     * {@link Jttp#process() process} method executes.
+     * Starts reporting progress of the response body being written to disk.
+     * 
+     * @param toPartialDownload if {@code true} the body is appended to a {@link PartialDownload}.
+     * @return a TransferProgress.
      */
-    void preProcess() {
-        if (nonNull(preProcessScriptName) && !preProcessScriptName.isEmpty()) {
-            LOGGER.log(DEBUG, RB, "logger.debug.exec.preprocess");
-            var jttpScriptObject = new JttpScriptObject(conn);
-            executeScript(preProcessScriptName, jttpScriptObject, preProcessScriptArgs);
-        }
+    private TransferProgress startDownloadProgress(boolean toPartialDownload) {
+        var offset = toPartialDownload ? partialDownload.getOffset() : 0;
+        var contentLength = conn.getContentLengthLong();
+        return TransferProgress.start(RB.getString("jttp.progress.download"),
+                contentLength == -1 ? -1 : contentLength + offset, offset, progressStream());
     }
 
     /**
-     * Sends request data and get the response.
+     * @return where transfer progress is reported, or {@code null} if {@code --no-progress} is
+     *         set.
+     */
+    private PrintStream progressStream() {
+        return noProgress ? null : err;
+    }
+
+    /**
+     * Verifies the digests of the response body, discarding a partial download that doesn't
+     * match so it isn't resumed.
      * 
-     * <p>
-     * <strong>Implementation Note:</strong> all response bodies are stored in a temporary file that
-     * is deleted after the run.
+     * @throws IOException if a digest doesn't match.
      */
-    void process() throws IOException {
-        requireNonNull(conn, RB.getString("error.null.connection"));
-        if (!offline() && conn.getDoOutput()
-                && ((nonNull(requestData) && !requestData.isEmpty()) || !uploadFiles.isEmpty())) {
-            try (var out = conn.getOutputStream()) {
-                if (nonNull(requestData) && !requestData.isEmpty()) {
-                    sendRequestData(out);
-                } else {
-                    sendMultipartData(out);
-                }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    private void verifyChecksums() throws IOException {
+        try {
+            checksums.verify();
+        } catch (IOException e) {
+            if (nonNull(partialDownload)) {
+                partialDownload.discard();
             }
+            throw e;
         }
+    }
 
-        InputStream responseStream = null;
+    /**
+     * Replaces the connection with the latest response recorded in the session's history for the
+     * same method, path, query and request data, without sending anything.
+     * 
+     * @throws IOException if an IOException occurs or no response was recorded for the request.
+     */
+    private void replayFromSession() throws IOException {
+        if (isNull(session)) {
+            throw new IllegalArgumentException(RB.getString("error.offline.replay.no.session"));
+        }
+        var index = new HistoryIndex(HistoryIndex.ALL);
         try {
-            responseStream = offline() ? null : getInputStream();
-        } catch (IOException e) {
-            responseStream = conn.getErrorStream();
-        } finally {
-            if (nonNull(responseStream)) {
-                tempResponse = File.createTempFile(
-                        format("%s-response", getClass().getSimpleName().toLowerCase()),
-                        ".download");
-                boolean deleteTempFiles =
-                        !AccessController.doPrivileged((PrivilegedAction<Boolean>) () -> Boolean
-                                .getBoolean(SYS_PROP_KEEP_TEMP_FILES));
-                if (deleteTempFiles) {
-                    tempResponse.deleteOnExit();
-                }
-                var xfered = responseStream.transferTo(new FileOutputStream(tempResponse));
-                LOGGER.log(TRACE, "logger.trace.bytes.transferred", xfered,
-                        tempResponse.toString());
-            }
-            conn.disconnect();
+            session.readHistory(index::add);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        var target = conn.getURL();
+        var recorded = index.find(conn.getRequestMethod(), target.getPath(), target.getQuery(),
+                requestData);
+        if (isNull(recorded)) {
+            throw new IOException(MessageFormat.format(RB.getString("error.offline.replay.missing"),
+                    sessionName, conn.getRequestMethod(), target));
         }
+        tempResponse = createTempResponse();
+        try (var out = new FileOutputStream(tempResponse)) {
+            session.copyResponse(recorded, out);
+        }
+        setConnection(new RecordedConnection(conn, recorded, tempResponse));
     }
 
     /**
@@ -355,51 +1526,135 @@ public class Jttp implements Runnable {
 
     /**
      * Handles output.
+     * 
+     * <p>
+     * The session is saved on a thread of its own while the response is printed, and the save is
+     * waited for before this method returns, so the session is complete before the next run loads
+     * it. Downloads are moved into place only after the session has a copy of the body.
+     * 
+     * @throws IOException if an IOException occurs printing the response or saving the session.
      */
     void finish() throws IOException, URISyntaxException {
 
-        var headerRenderer = new HeaderRenderer(conn, colorOutput());
+        var headerRenderer = new HeaderRenderer(conn, requestProperties, colorOutput());
+        // When the body is downloaded to stdout, keep the request and response headers out of it.
+        var headerPs = isDownloadToStdout() ? err : ps;
 
         if (printRequestHeaders()) {
-            headerRenderer.requestLine(ps);
-            headerRenderer.requestHeaders(ps);
+            headerRenderer.requestLine(headerPs);
+            headerRenderer.requestHeaders(headerPs);
         }
 
         if (printRequestBody()) {
             createContentRenderer(conn.getRequestProperty("Content-Type"),
-                    requestData.toCharArray()).run();
-            ps.println();
-            ps.println();
+                    requestData.toCharArray(), headerPs).run();
+            headerPs.println();
+            headerPs.println();
         }
 
         if (!offline()) {
 
-            if (!readOnlySession() && nonNull(session)) {
+            var sessionSave = !readOnlySession() && nonNull(session) ? startSessionSave() : null;
+            try {
+                printResponse(headerRenderer, headerPs, sessionSave);
+            } catch (IOException | RuntimeException e) {
+                // Still wait for the save, but don't let its failure hide this one.
                 try {
-                    session.save(requestData, tempResponse);
-                } catch (XMLStreamException | TransformerFactoryConfigurationError
-                        | TransformerException e) {
-                    LOGGER.log(WARNING, RB, "logger.warning.xmlerror", e.getMessage());
-                    e.printStackTrace();
+                    awaitSessionSave(sessionSave);
+                } catch (IOException saveError) {
+                    if (saveError.getCause() != e.getCause()) {
+                        e.addSuppressed(saveError);
+                    }
                 }
+                throw e;
             }
+            awaitSessionSave(sessionSave);
+        }
+    }
+
+    /**
+     * Prints the response headers and handles the response body.
+     * 
+     * @param headerRenderer renders the response headers.
+     * @param headerPs       where the response headers are printed.
+     * @param sessionSave    the session save in progress, or {@code null}.
+     * @throws IOException if an IOException occurs.
+     */
+    private void printResponse(HeaderRenderer headerRenderer, PrintStream headerPs,
+            FutureTask<Void> sessionSave) throws IOException {
+        if (printResponseHeaders()) {
+            headerRenderer.responseStatusLine(headerPs);
+            headerRenderer.responseHeaders(headerPs);
+            headerPs.println();
+        }
 
-            if (printResponseHeaders()) {
-                headerRenderer.responseStatusLine(ps);
-                headerRenderer.responseHeaders(ps);
+        if (nonNull(directResponse)) {
+            try (var in = directResponse) {
+                var xfered = copyToOutput(in);
+                LOGGER.log(TRACE, "logger.trace.bytes.copied", xfered);
+            } finally {
+                release();
+            }
+            if (!isDownloadToStdout()) {
                 ps.println();
             }
-
-            if (nonNull(tempResponse)) {
-                if (isDownload()) {
-                    doDownload();
-                } else if (printResponseBody()) {
-                    createContentRenderer(conn.getContentType(), tempFileToChars()).run();
-                    ps.println();
+        } else if (nonNull(tempResponse)) {
+            if (isDownloadToStdout()) {
+                try (var in = new FileInputStream(tempResponse)) {
+                    copyToOutput(in);
                 }
-            } else {
-                LOGGER.log(INFO, "logger.info.no.response.body.sent");
+            } else if (isDownload()) {
+                // The download takes the body's file away.
+                awaitSessionSave(sessionSave);
+                doDownload();
+            } else if (printResponseBody()) {
+                createContentRenderer(conn.getContentType(), tempFileToChars(), ps).run();
+                ps.println();
             }
+        } else {
+            LOGGER.log(INFO, "logger.info.no.response.body.sent");
+        }
+    }
+
+    /**
+     * Starts saving the session on a new thread. The connection is read on this thread only.
+     * 
+     * @return the save in progress.
+     * @throws IOException if an IOException occurs reading the response.
+     */
+    private FutureTask<Void> startSessionSave() throws IOException {
+        var exchange = new Session.Exchange(conn);
+        var data = requestData;
+        var response = tempResponse;
+        var properties = requestProperties;
+        var save = new FutureTask<Void>(() -> {
+            session.save(exchange, data, response, properties);
+            return null;
+        });
+        var t = new Thread(save, "jttp-session-save");
+        t.setDaemon(true);
+        t.start();
+        return save;
+    }
+
+    /**
+     * Waits for a session save to complete.
+     * 
+     * @param sessionSave the save in progress, or {@code null}.
+     * @throws IOException if the save failed or the wait was interrupted.
+     */
+    private void awaitSessionSave(FutureTask<Void> sessionSave) throws IOException {
+        if (isNull(sessionSave)) {
+            return;
+        }
+        try {
+            sessionSave.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(MessageFormat.format(RB.getString("error.session.save"),
+                    sessionName, e.getCause().toString()), e.getCause());
         }
     }
 
@@ -407,12 +1662,17 @@ public class Jttp implements Runnable {
      * Prior to setup but after construction, make sure base objects needed for the run are
      * instantiated.
      */
-    private void initializeState() {
+    private void initializeState() throws IOException {
         initializeUri();
         initializeRequestHeaders();
         initializeAuthenticator();
         initializeNoVerify();
         initializeRequestData();
+        initializeChecksums();
+        initializeResponseCache();
+        initializeHedging();
+        initializeRetryPolicy();
+        initializeTusUpload();
     }
 
     /**
@@ -426,8 +1686,9 @@ public class Jttp implements Runnable {
         }
         uri.append(urlString);
         if (nonNull(requestItems)) {
-            var qparams = Arrays.stream(requestItems).filter(i -> i.contains("=="))
-                    .map(i -> i.replace("==", "=")).collect(joining("&"));
+            var qparams = Arrays.stream(requestItems).filter(i -> "==".equals(separatorOf(i)))
+                    .map(Jttp::splitItem).map(p -> p.getN() + "=" + p.getV())
+                    .collect(joining("&"));
 
             if (!qparams.isEmpty()) {
                 uri.append("?").append(qparams);
@@ -445,30 +1706,98 @@ public class Jttp implements Runnable {
      */
     private void initializeRequestHeaders() {
         requestHeaders =
-                nonNull(requestItems) ? Arrays.stream(requestItems).filter(i -> i.contains(":"))
-                        .map(i -> new Pair<String, String>(i.split(":")[0], i.split(":")[1]))
-                        .collect(groupingBy(Pair::getN, mapping(Pair::getV, toList()))) : Map.of();
+                nonNull(requestItems)
+                        ? Arrays.stream(requestItems).filter(i -> ":".equals(separatorOf(i)))
+                                .map(Jttp::splitItem)
+                                .collect(groupingBy(Pair::getN, mapping(Pair::getV, toList())))
+                        : Map.of();
+    }
+
+    /**
+     * @param item a request item.
+     * @return the separator of the item, the first of {@code ==}, {@code =}, {@code :} and
+     *         {@code @} in it, or {@code null} if it has none. The value after the separator may
+     *         contain any of them.
+     */
+    private static String separatorOf(String item) {
+        String separator = null;
+        var first = item.length();
+        for (var candidate : ITEM_SEPARATORS) {
+            var i = item.indexOf(candidate);
+            if (i != -1 && i < first) {
+                first = i;
+                separator = candidate;
+            }
+        }
+        return separator;
+    }
+
+    /**
+     * @param item a request item with a separator.
+     * @return the name and value of the item.
+     */
+    private static Pair<String, String> splitItem(String item) {
+        var separator = separatorOf(item);
+        var i = item.indexOf(separator);
+        return new Pair<>(item.substring(0, i), item.substring(i + separator.length()));
     }
 
     /**
      * Initializes an Authenticator object if auth credentials were set on the command line.
+     * 
+     * <p>
+     * With {@code --auth-type BASIC} the {@code Authorization} header is also sent with the first
+     * request instead of waiting for a challenge. With {@code --auth-type DIGEST} no Authenticator
+     * is installed; challenges are answered by {@link DigestAuth} so they can be saved and reused.
+     * With {@code --auth-type OAUTH2} the credentials are the client's, used to get an access token
+     * from {@code --oauth2-token-url}.
      */
     private void initializeAuthenticator() {
+        if (authType == AuthType.OAUTH2) {
+            initializeOAuth2Client();
+            return;
+        }
         if (nonNull(auth) && !auth.isEmpty() && !auth.isBlank()) {
-            Authenticator a;
-            if (auth.indexOf(":") != -1) {
-                var creds = auth.split(":");
-                a = new JttpAuthenticator(creds[0], creds[1].toCharArray());
-            } else {
-                a = new JttpAuthenticator(auth);
+            var idx = auth.indexOf(':');
+            var username = idx == -1 ? auth : auth.substring(0, idx);
+            var password = idx == -1
+                    ? System.console().readPassword(RB.getString("jttp.password.prompt"))
+                    : auth.substring(idx + 1).toCharArray();
+            if (authType == AuthType.DIGEST) {
+                digestAuth = new DigestAuth(username, password);
+                return;
+            }
+            if (authType == AuthType.BASIC) {
+                var userPass = new StringBuilder(username).append(':').append(password);
+                basicCredentials = "Basic " + Base64.getEncoder()
+                        .encodeToString(userPass.toString().getBytes(StandardCharsets.UTF_8));
             }
-            Authenticator.setDefault(a);
+            authenticator = new JttpAuthenticator(username, password);
+        }
+    }
+
+    /**
+     * Initializes the OAuth 2.0 client from the client credentials in {@code -A} (optional when a
+     * refresh token is given) and the {@code --oauth2-*} options.
+     */
+    private void initializeOAuth2Client() {
+        if (isNull(oauth2TokenUrl)) {
+            throw new IllegalArgumentException(RB.getString("error.oauth2.no.token.url"));
+        }
+        String clientId = null;
+        char[] clientSecret = null;
+        if (nonNull(auth) && !auth.isBlank()) {
+            var idx = auth.indexOf(':');
+            clientId = idx == -1 ? auth : auth.substring(0, idx);
+            clientSecret = idx == -1 ? null : auth.substring(idx + 1).toCharArray();
         }
+        oauth2Client = new OAuth2Client(oauth2TokenUrl, clientId, clientSecret, oauth2Scope,
+                oauth2RefreshToken, this::openConnection);
     }
 
     /**
-     * If {@code -N} is set on the command line, set up TrustManager & HostNameVerifier to trust
-     * everything.
+     * If {@code -N} is set on the command line, set up a socket factory that trusts every
+     * certificate for the connections of this run.
      * 
      * <p>
      * Emits a log message at warning that this option was selected.
@@ -493,27 +1822,31 @@ public class Jttp implements Runnable {
                 }
             }};
 
-            HostnameVerifier trustAllHostnames = new HostnameVerifier() {
-
-                @Override
-                public boolean verify(String hostname, SSLSession session) {
-                    return true;
-                }
-            };
-
             try {
                 LOGGER.log(WARNING, "logger.warning.noverify", Jttp.class.getSimpleName());
-                System.setProperty("jsse.enableSNIExtension", "false");
                 var sc = SSLContext.getInstance("SSL");
                 sc.init(null, trustAllCertificates, new SecureRandom());
-                HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-                HttpsURLConnection.setDefaultHostnameVerifier(trustAllHostnames);
+                trustAllSocketFactory = sc.getSocketFactory();
             } catch (GeneralSecurityException e) {
                 throw new RuntimeException(e);
             }
         }
     }
 
+    /**
+     * If {@code -N} is set on the command line, makes an HTTPS connection trust every certificate
+     * and host name. Only the connection is affected, not the defaults of the process.
+     * 
+     * @param connection the HttpURLConnection.
+     */
+    private void applyNoVerify(HttpURLConnection connection) {
+        if (nonNull(trustAllSocketFactory) && connection instanceof HttpsURLConnection) {
+            var https = (HttpsURLConnection) connection;
+            https.setSSLSocketFactory(trustAllSocketFactory);
+            https.setHostnameVerifier(TRUST_ALL_HOSTNAMES);
+        }
+    }
+
     /**
      * Initializes request data and resets the MIME type if needed.
      */
@@ -521,16 +1854,13 @@ public class Jttp implements Runnable {
         requestDataMap =
                 nonNull(requestItems)
                         ? Arrays.stream(requestItems)
-                                .filter(i -> i.contains("=") && !i.contains("=="))
-                                .map(i -> new Pair<String, String>(i.split("=")[0],
-                                        i.split("=")[1]))
+                                .filter(i -> "=".equals(separatorOf(i))).map(Jttp::splitItem)
                                 .collect(toMap(Pair::getN, Pair::getV))
                         : Map.of();
         uploadFiles = nonNull(requestItems)
-                ? Arrays.stream(requestItems).filter(i -> i.contains("@"))
-                        .map(i -> new Pair<String, File>(i.split("@")[0],
-                                new File(i.split("@")[1])))
-                        .collect(toMap(Pair::getN, Pair::getV))
+                ? Arrays.stream(requestItems).filter(i -> "@".equals(separatorOf(i)))
+                        .map(Jttp::splitItem)
+                        .collect(toMap(Pair::getN, p -> new File(p.getV())))
                 : Map.of();
 
         if (!requestDataMap.isEmpty() && method == RequestMethod.GET) {
@@ -540,7 +1870,66 @@ public class Jttp implements Runnable {
             requestMimeType = RequestMimeType.MULTIPART;
         }
         if (uploadFiles.isEmpty() && requestDataMap.isEmpty() && method.hasPayload()) {
-            inStream = System.in;
+            inStream = stdin;
+        }
+    }
+
+    /**
+     * Initializes the response body digests if set from the command line.
+     */
+    private void initializeChecksums() {
+        if (nonNull(digests) && digests.length > 0) {
+            checksums = new Checksums(digests);
+        }
+    }
+
+    /**
+     * Installs the on-disk response cache if {@code --cache} is set on the command line.
+     * 
+     * <p>
+     * The cache is only used for {@code GET} requests whose response is printed, not downloaded.
+     * It must be installed before the HttpURLConnection is opened.
+     */
+    private void initializeResponseCache() throws IOException {
+        if (cache && !download && method == RequestMethod.GET) {
+            responseCache = new DiskResponseCache(Paths.get(Util.getCacheDirectory()));
+        }
+    }
+
+    /**
+     * Initializes the hedging policy if {@code --hedge} is set on the command line.
+     */
+    private void initializeHedging() {
+        if (nonNull(hedge)) {
+            hedgedRequest =
+                    new HedgedRequest(hedge, Session.getHostDirectory(url).resolve("latency.txt"));
+        }
+    }
+
+    /**
+     * Initializes the retry policy if {@code --retries} is set on the command line.
+     */
+    private void initializeRetryPolicy() {
+        if (retries > 0) {
+            retryPolicy = new RetryPolicy(retries,
+                    nonNull(retryStatuses) ? Set.of(retryStatuses) : RetryPolicy.DEFAULT_STATUSES,
+                    nonNull(retryExceptions) ? Set.of(retryExceptions)
+                            : RetryPolicy.DEFAULT_EXCEPTIONS,
+                    retryBackoff);
+        }
+    }
+
+    /**
+     * Initializes the resumable upload if {@code --tus} is set on the command line.
+     */
+    private void initializeTusUpload() {
+        if (nonNull(tusFile)) {
+            if (!tusFile.isFile()) {
+                throw new IllegalArgumentException(
+                        MessageFormat.format(RB.getString("error.tus.no.file"), tusFile));
+            }
+            tusUpload = new TusUpload(tusFile, url, Math.max(1, tusChunkSize),
+                    Math.max(1, tusParallel), Paths.get(Util.getUploadsDirectory()));
         }
     }
 
@@ -622,7 +2011,31 @@ public class Jttp implements Runnable {
         return sb.toString();
     }
 
+    /**
+     * @return a new temporary file for the response body, deleted on exit unless
+     *         {@code jttp.keep.tempfiles} is {@code true}.
+     * @throws IOException if an IOException occurs.
+     */
+    private File createTempResponse() throws IOException {
+        var tempFile = File.createTempFile(
+                format("%s-response", getClass().getSimpleName().toLowerCase()), ".download");
+        boolean deleteTempFiles =
+                !AccessController.doPrivileged((PrivilegedAction<Boolean>) () -> Boolean
+                        .getBoolean(SYS_PROP_KEEP_TEMP_FILES));
+        if (deleteTempFiles) {
+            tempFile.deleteOnExit();
+        }
+        return tempFile;
+    }
+
+    /**
+     * @return the response body, from memory if it was kept there while it was read.
+     * @throws IOException if an IOException occurs reading the temporary file.
+     */
     private byte[] tempFileToBytes() throws IOException {
+        if (nonNull(responseBody) && nonNull(responseBody.getBytes())) {
+            return responseBody.getBytes();
+        }
         try (var fis = new FileInputStream(tempResponse)) {
             return toByteArray(fis);
         }
@@ -637,22 +2050,22 @@ public class Jttp implements Runnable {
         return chars;
     }
 
-    private ContentRenderer createContentRenderer(String contentType, char[] content)
-            throws IOException {
+    private ContentRenderer createContentRenderer(String contentType, char[] content,
+            PrintStream out) throws IOException {
         ContentRenderer renderer = null;
         if ((!formatOutput() && !colorOutput()) || isNull(contentType) || contentType.isEmpty()) {
-            renderer = ContentRenderer.newRawInstance(content, ps);
+            renderer = ContentRenderer.newRawInstance(content, out);
         } else if (contentType.contains("json")) {
-            renderer = new JsonRenderer(content, ps, colorOutput(), formatOutput());
+            renderer = new JsonRenderer(content, out, colorOutput(), formatOutput());
         } else if (contentType.contains("xml")) {
-            renderer = new MarkupRenderer(content, ps, colorOutput(), formatOutput());
+            renderer = new MarkupRenderer(content, out, colorOutput(), formatOutput());
         } else if (contentType.contains("html")) {
             // Don't format Html.
-            renderer = new MarkupRenderer(content, ps, colorOutput(), false);
+            renderer = new MarkupRenderer(content, out, colorOutput(), false);
         } else if (contentType.equals(RequestMimeType.FORM.getContentType())) {
-            renderer = new FormDataRenderer(content, ps, colorOutput());
+            renderer = new FormDataRenderer(content, out, colorOutput());
         } else {
-            renderer = ContentRenderer.newRawInstance(content, ps);
+            renderer = ContentRenderer.newRawInstance(content, out);
         }
         return renderer;
     }
@@ -676,10 +2089,31 @@ public class Jttp implements Runnable {
      */
     private void sendMultipartData(OutputStream output) throws IOException {
         conn.setChunkedStreamingMode(CHUNK_SZ);
+        // The total is the files and the part headers and boundaries around them.
+        var framing = new ByteArrayOutputStream();
+        writeMultipartData(framing, false);
+        var total = (long) framing.size();
+        for (var file : uploadFiles.values()) {
+            total += file.length();
+        }
+        try (var progress = TransferProgress.start(RB.getString("jttp.progress.upload"), total, 0,
+                progressStream())) {
+            writeMultipartData(progress.wrap(output), true);
+        }
+    }
+
+    /**
+     * Writes request data and files as multipart form parts.
+     * 
+     * @param output    the OutputStream.
+     * @param withFiles if {@code false} leave the content of the files out.
+     * @throws IOException if an IOException.
+     */
+    private void writeMultipartData(OutputStream output, boolean withFiles) throws IOException {
         try (var pw = new PrintWriter(output, true, defaultCharset())) {
             var somethingWritten = false;
             for (var entry : requestDataMap.entrySet()) {
-                pw.append("--").append(BOUNDARY).append(CRLF)
+                pw.append("--").append(boundary).append(CRLF)
                         .append("Content-Disposition: form-data; name=\"").append(entry.getKey())
                         .append("\"").append(CRLF).append("Content-Type: text/plain; charset=")
                         .append(defaultCharset().name()).append(CRLF).append(CRLF)
@@ -690,7 +2124,7 @@ public class Jttp implements Runnable {
             for (var entry : uploadFiles.entrySet()) {
                 var contentType =
                         URLConnection.guessContentTypeFromName(entry.getValue().getName());
-                pw.append("--").append(BOUNDARY).append(CRLF)
+                pw.append("--").append(boundary).append(CRLF)
                         .append("Content-Disposition: form-data; name=\"").append(entry.getKey())
                         .append("\"").append(CRLF).append("Content-Type: ");
                 if (isNull(contentType) || !contentType.contains("text")) {
@@ -702,29 +2136,62 @@ public class Jttp implements Runnable {
                             .append(CRLF);
                 }
                 pw.append(CRLF).flush();
-                Files.copy(entry.getValue().toPath(), output);
-                output.flush();
+                if (withFiles) {
+                    Files.copy(entry.getValue().toPath(), output);
+                    output.flush();
+                }
                 pw.append(CRLF).flush();
                 somethingWritten = true;
             }
             if (somethingWritten) {
-                pw.append("--").append(BOUNDARY).append("--").append(CRLF).flush();
+                pw.append("--").append(boundary).append("--").append(CRLF).flush();
             }
         }
     }
 
     private InputStream getInputStream() throws IOException {
         // Assuming we already tested for offline run.
-        if (conn instanceof HttpsURLConnection) {
+        var in = conn.getInputStream();
+        if (nonNull(responseCache) && !(conn instanceof RecordedConnection)) {
+            in = responseCache.storeWhileReading(conn, in);
+        }
+        // Checked by protocol, since a response from the cache isn't an HttpsURLConnection.
+        if (conn.getURL().getProtocol().equals("https")) {
             if (nonNull(conn.getHeaderField("Content-Encoding"))
                     && conn.getHeaderField("Content-Encoding").equals("gzip")) {
-                return new GZIPInputStream(conn.getInputStream());
+                return new GZIPInputStream(in);
             } else {
-                return conn.getInputStream();
+                return in;
             }
         } else {
-            return conn.getInputStream();
+            return in;
+        }
+    }
+
+    /**
+     * Copies the stream to the output PrintStream unchanged, bypassing the renderers.
+     * 
+     * <p>
+     * Stops early if the output is closed (for example when piped to {@code head}).
+     * 
+     * @param in the InputStream.
+     * @return number of bytes copied.
+     * @throws IOException if an IOException occurs reading the stream.
+     */
+    private long copyToOutput(InputStream in) throws IOException {
+        ps.flush();
+        var buf = new byte[CHUNK_SZ];
+        var xfered = 0L;
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            // Writes this large go straight through the PrintStream's buffer.
+            ps.write(buf, 0, read);
+            if (ps.checkError()) {
+                break;
+            }
+            xfered += read;
         }
+        return xfered;
     }
 
     private void doDownload() throws IOException {
@@ -733,6 +2200,9 @@ public class Jttp implements Runnable {
             Files.createDirectories(download.getParent());
         }
         Files.move(tempResponse.toPath(), download, ATOMIC_MOVE);
+        if (nonNull(partialDownload)) {
+            partialDownload.complete();
+        }
     }
 
     private Path getDownloadPath() {
@@ -751,6 +2221,71 @@ public class Jttp implements Runnable {
         return download;
     }
 
+    /**
+     * @param keepAlive {@code true} to leave connections open for the next request to the host.
+     */
+    void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @param captureResponse {@code true} to keep the response body readable with
+     *                        {@link #getResponseBody()} after the run.
+     */
+    void setCaptureResponse(boolean captureResponse) {
+        this.captureResponse = captureResponse;
+    }
+
+    /**
+     * @return the host the request is sent to.
+     */
+    String getHost() {
+        initializeUri();
+        return url.getHost();
+    }
+
+    /**
+     * @return the session name, or {@code null} if no session is used.
+     */
+    String getSessionName() {
+        return nonNull(sessionName) && !sessionName.isEmpty() ? sessionName : null;
+    }
+
+    /**
+     * @return the response status, {@code 0} if the request wasn't sent ({@code --offline}), or
+     *         {@code -1} if there was no valid response.
+     */
+    int getResponseCode() {
+        if (offline()) {
+            return 0;
+        }
+        if (isNull(conn)) {
+            return -1;
+        }
+        try {
+            return conn.getResponseCode();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param name a header name.
+     * @return the value of the response header, or {@code null} if there is none.
+     */
+    String getResponseHeader(String name) {
+        return offline() || isNull(conn) ? null : conn.getHeaderField(name);
+    }
+
+    /**
+     * @return the response body, not to be changed, or {@code null} if it wasn't kept (see
+     *         {@link #setCaptureResponse(boolean)}).
+     * @throws IOException if an IOException occurs reading it.
+     */
+    byte[] getResponseBody() throws IOException {
+        return isNull(tempResponse) || !tempResponse.exists() ? null : tempFileToBytes();
+    }
+
     private boolean offline() {
         return offline;
     }
@@ -772,19 +2307,56 @@ public class Jttp implements Runnable {
     }
 
     private boolean readOnlySession() {
-        return readOnlySession;
+        // Replayed responses are in the session already.
+        return readOnlySession || offlineReplay;
     }
 
     private boolean isDownload() {
         return download;
     }
 
+    private boolean isDownloadToStdout() {
+        return download && nonNull(outfile) && outfile.getPath().equals("-");
+    }
+
+    private boolean isResumableDownload() {
+        return download && !isDownloadToStdout() && method == RequestMethod.GET;
+    }
+
+    /**
+     * @return {@code true} if the response body goes to stdout unchanged and neither the session,
+     *         a post-process script nor a digest needs a copy of it.
+     */
+    private boolean streamResponseDirectly() {
+        var rawBody = isDownloadToStdout()
+                || (printResponseBody() && !colorOutput() && !formatOutput());
+        var spoolNeeded = (nonNull(session) && !readOnlySession())
+                || (nonNull(postProcessScriptName) && !postProcessScriptName.isEmpty())
+                || nonNull(checksums) || watch > 0 || captureResponse;
+        return rawBody && !spoolNeeded;
+    }
+
+    /**
+     * @return {@code true} if a hedging policy is set and the request is safe to duplicate.
+     */
+    private boolean isHedged() {
+        return nonNull(hedgedRequest)
+                && (method == RequestMethod.GET || method == RequestMethod.HEAD)
+                && !isResumableDownload();
+    }
+
+    private boolean isSegmentedDownload() {
+        return isResumableDownload() && segments > 1;
+    }
+
     private boolean colorOutput() {
-        return !download && (prettyPrint == PrettyPrint.ALL || prettyPrint == PrettyPrint.COLORS);
+        return !download
+                && (prettyPrint == PrettyPrint.ALL || prettyPrint == PrettyPrint.COLORS);
     }
 
     private boolean formatOutput() {
-        return !download && (prettyPrint == PrettyPrint.ALL || prettyPrint == PrettyPrint.INDENT);
+        return !download
+                && (prettyPrint == PrettyPrint.ALL || prettyPrint == PrettyPrint.INDENT);
     }
 
     @Deprecated(forRemoval = true, since = "1.1")
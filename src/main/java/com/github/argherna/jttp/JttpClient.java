@@ -0,0 +1,453 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.nonNull;
+import static java.util.Objects.requireNonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import picocli.CommandLine;
+
+/**
+ * Sends Jttp requests from a Java program, in the same process.
+ *
+ * <p>
+ * A client is built once with the options every request shares (session, authentication,
+ * timeouts, what to print and how) and can be used from several threads at once. Every
+ * {@link Request} is run by a Jttp of its own, exactly as the command line would run it, so
+ * sessions, caching, retries and rendering behave the same.
+ *
+ * <p>
+ * Requests aren't independent of each other, though. Those that use the same session are sent
+ * one at a time by this client, so it never updates the session file concurrently; other clients
+ * and processes using the session aren't held back. All requests in the process share the JDK's
+ * pool of kept-alive connections, the retry budget and hedging latencies per host, and the
+ * history and cache in the base directory.
+ *
+ * <pre>
+ * var client = JttpClient.newBuilder().session("api").prettyPrint("INDENT").build();
+ * var response = client.request("POST", "https://api.example.com/items").field("name", "widget")
+ *         .header("X-Trace", "42").send(System.out);
+ * </pre>
+ *
+ * <p>
+ * The rendered request and response (as selected by {@link Builder#print(String) print}) are
+ * written to the {@link OutputStream} or {@link Writer} given to {@link Request#send}. Progress is
+ * never shown.
+ */
+public final class JttpClient {
+
+    private final List<String> options;
+
+    private final List<String> items;
+
+    private final Map<String, ReentrantLock> sessionLocks = new ConcurrentHashMap<>();
+
+    private JttpClient(List<String> options, List<String> items) {
+        this.options = List.copyOf(options);
+        this.items = List.copyOf(items);
+    }
+
+    /**
+     * @return a new Builder, for a client with the defaults of the command line, except that
+     *         output isn't colored.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Starts a request.
+     *
+     * @param method the request method, one of the methods {@code -X} accepts.
+     * @param url    the url, as on the command line.
+     * @return the request, to be completed and sent.
+     */
+    public Request request(String method, String url) {
+        return new Request(requireNonNull(method), requireNonNull(url));
+    }
+
+    /**
+     * Starts a {@code GET} request.
+     *
+     * @param url the url, as on the command line.
+     * @return the request, to be completed and sent.
+     */
+    public Request get(String url) {
+        return request("GET", url);
+    }
+
+    /**
+     * Runs one request.
+     */
+    private Response send(List<String> args, byte[] body, PrintStream ps) throws IOException {
+        var stdin = nonNull(body) ? new ByteArrayInputStream(body) : InputStream.nullInputStream();
+        var jttp = new Jttp(ps, stdin);
+        jttp.setKeepAlive(true);
+        new CommandLine(jttp).parseArgs(args.toArray(new String[0]));
+        ReentrantLock session = null;
+        if (nonNull(jttp.getSessionName())) {
+            session = sessionLocks.computeIfAbsent(jttp.getSessionName(),
+                    s -> new ReentrantLock());
+            session.lock();
+        }
+        try {
+            jttp.run();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        } finally {
+            if (nonNull(session)) {
+                session.unlock();
+            }
+            ps.flush();
+        }
+        return new Response(jttp);
+    }
+
+    /**
+     * Builds a {@link JttpClient}. Not thread safe.
+     */
+    public static final class Builder {
+
+        private final List<String> options = new ArrayList<>();
+
+        private final List<String> items = new ArrayList<>();
+
+        private String prettyPrint = "NONE";
+
+        private Builder() {
+        }
+
+        /**
+         * @param sessionName a session to reuse and update, created if it doesn't exist.
+         * @return this Builder.
+         */
+        public Builder session(String sessionName) {
+            return options("-S", sessionName);
+        }
+
+        /**
+         * Reads the session but doesn't update it.
+         *
+         * @return this Builder.
+         */
+        public Builder readOnlySession() {
+            return options("-R");
+        }
+
+        /**
+         * @param authType one of {@code BASIC}, {@code DIGEST} and {@code OAUTH2}.
+         * @param user     the user (or client id).
+         * @param password the password (or client secret).
+         * @return this Builder.
+         */
+        public Builder auth(String authType, String user, String password) {
+            return options("--auth-type", authType, "-A", user + ":" + password);
+        }
+
+        /**
+         * @param header a header sent with every request.
+         * @param value  its value.
+         * @return this Builder.
+         */
+        public Builder header(String header, String value) {
+            items.add(header + ":" + value);
+            return this;
+        }
+
+        /**
+         * @param millis longest wait for a connection, {@code 0} for no limit.
+         * @return this Builder.
+         */
+        public Builder connectTimeout(int millis) {
+            return options("--connect-timeout", Integer.toString(millis));
+        }
+
+        /**
+         * @param millis longest wait for the response to start or continue, {@code 0} for no
+         *               limit.
+         * @return this Builder.
+         */
+        public Builder readTimeout(int millis) {
+            return options("--read-timeout", Integer.toString(millis));
+        }
+
+        /**
+         * @param millis longest time for a whole request, {@code 0} for no limit.
+         * @return this Builder.
+         */
+        public Builder timeout(long millis) {
+            return options("--timeout", Long.toString(millis));
+        }
+
+        /**
+         * @param entities what to print, as for {@code -p} (default {@code hb}).
+         * @return this Builder.
+         */
+        public Builder print(String entities) {
+            return options("-p", entities);
+        }
+
+        /**
+         * @param prettyPrint one of {@code NONE} (the default), {@code COLORS}, {@code INDENT} and
+         *                    {@code ALL}.
+         * @return this Builder.
+         */
+        public Builder prettyPrint(String prettyPrint) {
+            this.prettyPrint = requireNonNull(prettyPrint);
+            return this;
+        }
+
+        /**
+         * Adds options as they would be given on the command line, for those this Builder has no
+         * method for.
+         *
+         * @param args options and their values.
+         * @return this Builder.
+         */
+        public Builder options(String... args) {
+            options.addAll(Arrays.asList(args));
+            return this;
+        }
+
+        /**
+         * @return a new JttpClient. Later changes to this Builder don't affect it.
+         */
+        public JttpClient build() {
+            new File(Util.getBaseSaveDirectory()).mkdirs();
+            var args = new ArrayList<String>(options);
+            // The caller owns stderr.
+            args.add("--no-progress");
+            args.add("-P");
+            args.add(prettyPrint);
+            return new JttpClient(args, items);
+        }
+    }
+
+    /**
+     * A request being built. Not thread safe; each request is built and sent by one thread.
+     */
+    public final class Request {
+
+        private final List<String> args = new ArrayList<>(options);
+
+        private final List<String> requestItems = new ArrayList<>(items);
+
+        private final String url;
+
+        private byte[] body;
+
+        private Request(String method, String url) {
+            args.add("-X");
+            args.add(method);
+            this.url = url;
+        }
+
+        /**
+         * @param header a request header.
+         * @param value  its value.
+         * @return this Request.
+         */
+        public Request header(String header, String value) {
+            requestItems.add(header + ":" + value);
+            return this;
+        }
+
+        /**
+         * @param name  a query parameter, added to the url as it is.
+         * @param value its value.
+         * @return this Request.
+         */
+        public Request query(String name, String value) {
+            requestItems.add(name + "==" + value);
+            return this;
+        }
+
+        /**
+         * @param name  a field of the form or Json object sent as the body.
+         * @param value its value.
+         * @return this Request.
+         */
+        public Request field(String name, String value) {
+            requestItems.add(name + "=" + value);
+            return this;
+        }
+
+        /**
+         * @param name a part of the multipart form sent as the body.
+         * @param file the file sent as the part.
+         * @return this Request.
+         */
+        public Request file(String name, File file) {
+            requestItems.add(name + "@" + file.getPath());
+            return this;
+        }
+
+        /**
+         * @param body the body, sent as it is if there are no fields or files.
+         * @return this Request.
+         */
+        public Request body(byte[] body) {
+            this.body = body.clone();
+            return this;
+        }
+
+        /**
+         * @param body the body, sent as it is in UTF-8 if there are no fields or files.
+         * @return this Request.
+         */
+        public Request body(String body) {
+            this.body = body.getBytes(UTF_8);
+            return this;
+        }
+
+        /**
+         * Adds options for this request only, as they would be given on the command line.
+         *
+         * @param options options and their values.
+         * @return this Request.
+         */
+        public Request options(String... options) {
+            args.addAll(Arrays.asList(options));
+            return this;
+        }
+
+        /**
+         * Sends the request.
+         *
+         * @param out where the request and response are printed, not closed.
+         * @return the response.
+         * @throws IOException if an IOException occurs.
+         */
+        public Response send(OutputStream out) throws IOException {
+            return JttpClient.this.send(commandLine(), body, new PrintStream(out, false, UTF_8));
+        }
+
+        /**
+         * Sends the request.
+         *
+         * @param out where the request and response are printed, not closed.
+         * @return the response.
+         * @throws IOException if an IOException occurs.
+         */
+        public Response send(Writer out) throws IOException {
+            var writerOut = new WriterOutputStream(out);
+            try {
+                return JttpClient.this.send(commandLine(), body,
+                        new PrintStream(writerOut, false, UTF_8));
+            } finally {
+                writerOut.flush();
+            }
+        }
+
+        private List<String> commandLine() {
+            var commandLine = new ArrayList<String>(args);
+            commandLine.add(url);
+            commandLine.addAll(requestItems);
+            return commandLine;
+        }
+    }
+
+    /**
+     * The outcome of a request.
+     */
+    public static final class Response {
+
+        private final Jttp jttp;
+
+        private Response(Jttp jttp) {
+            this.jttp = jttp;
+        }
+
+        /**
+         * @return the response status, {@code 0} if the request wasn't sent (offline), or
+         *         {@code -1} if there was no valid response.
+         */
+        public int getStatus() {
+            return jttp.getResponseCode();
+        }
+
+        /**
+         * @param name a header name.
+         * @return the value of the response header, or {@code null} if there is none.
+         */
+        public String getHeader(String name) {
+            return jttp.getResponseHeader(name);
+        }
+    }
+
+    /**
+     * Decodes the UTF-8 bytes written to it to a Writer, keeping incomplete characters until their
+     * last byte is written.
+     */
+    private static class WriterOutputStream extends OutputStream {
+
+        private final Writer out;
+
+        private final CharsetDecoder decoder = UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        private final ByteBuffer bytes = ByteBuffer.allocate(0x1000);
+
+        private final CharBuffer chars = CharBuffer.allocate(0x1000);
+
+        private WriterOutputStream(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                var n = Math.min(len, bytes.remaining());
+                bytes.put(b, off, n);
+                off += n;
+                len -= n;
+                bytes.flip();
+                CoderResult result;
+                do {
+                    result = decoder.decode(bytes, chars, false);
+                    drain();
+                } while (result.isOverflow());
+                bytes.compact();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+
+        private void drain() throws IOException {
+            chars.flip();
+            out.write(chars.array(), 0, chars.limit());
+            chars.clear();
+        }
+    }
+}
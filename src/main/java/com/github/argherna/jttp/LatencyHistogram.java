@@ -0,0 +1,129 @@
+package com.github.argherna.jttp;
+
+/**
+ * Counts latencies in log-linear buckets: every power of two is split into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so a recorded value is known to within about 3% from
+ * one microsecond to hours in a fixed array of counters.
+ *
+ * <p>
+ * Not thread safe. Each thread records in its own histogram and they are
+ * {@link #add(LatencyHistogram) added} together at the end.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1)];
+
+    private long total;
+
+    private long sum;
+
+    private long max;
+
+    /**
+     * Records a value.
+     *
+     * @param value the value (microseconds for latencies), negative values count as {@code 0}.
+     */
+    void record(long value) {
+        var v = Math.max(0, value);
+        counts[index(v)]++;
+        total++;
+        sum += v;
+        max = Math.max(max, v);
+    }
+
+    /**
+     * Records a value and corrects for coordinated omission: if the value is longer than the
+     * interval at which values were expected, the values that would have been recorded while
+     * waiting ({@code value - interval}, {@code value - 2 * interval}, ...) are recorded too.
+     *
+     * @param value    the value.
+     * @param interval the expected interval between values, {@code 0} for no correction.
+     */
+    void record(long value, long interval) {
+        record(value);
+        if (interval > 0) {
+            for (var missed = value - interval; missed >= interval; missed -= interval) {
+                record(missed);
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other the other histogram.
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return the number of values recorded.
+     */
+    long getCount() {
+        return total;
+    }
+
+    /**
+     * @return the mean of the values recorded, or {@code 0} if there are none.
+     */
+    double getMean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /**
+     * @return the largest value recorded.
+     */
+    long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile the percentile, from {@code 0} to {@code 100}.
+     * @return the highest value in the bucket holding the percentile (never more than the largest
+     *         value recorded), or {@code 0} if no values were recorded.
+     */
+    long getValueAtPercentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        var rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        var seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        var magnitude = 63 - Long.numberOfLeadingZeros(value);
+        var shift = magnitude - SUB_BUCKET_BITS;
+        var sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        var shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        var sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,328 @@
+package com.github.argherna.jttp;
+
+import static java.lang.System.Logger.Level.DEBUG;
+import static java.lang.System.Logger.Level.INFO;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.stream.Collectors.joining;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.text.MessageFormat;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Obtains OAuth 2.0 access tokens with the client credentials or refresh token grant (RFC 6749)
+ * and keeps them between runs.
+ *
+ * <p>
+ * The token, its expiry and the refresh token are saved as {@code token.properties} in the
+ * session. A saved token is reused until less than a tenth of its lifetime (at most a minute) is
+ * left, then it is refreshed before the request is sent instead of waiting for a {@code 401}.
+ * Refreshing happens while holding an exclusive lock on {@code SESSIONNAME.lock} next to the
+ * session file, and the saved token is read again once the lock is held, so concurrent runs
+ * with the same session hit the token endpoint only once.
+ */
+class OAuth2Client {
+
+    private static final Long REFRESH_MARGIN_MILLIS = 60000L;
+
+    private static final String PROP_ACCESS_TOKEN = "access_token";
+
+    private static final String PROP_TOKEN_TYPE = "token_type";
+
+    private static final String PROP_ISSUED_AT = "issued_at";
+
+    private static final String PROP_EXPIRES_AT = "expires_at";
+
+    private static final String PROP_REFRESH_TOKEN = "refresh_token";
+
+    private static final String PROP_TOKEN_URL = "token_url";
+
+    private static final String PROP_CLIENT_ID = "client_id";
+
+    private final URI tokenUrl;
+
+    private final String clientId;
+
+    private final char[] clientSecret;
+
+    private final String scope;
+
+    private final String refreshToken;
+
+    private final ConnectionFactory connections;
+
+    private Properties state = new Properties();
+
+    private boolean issuedThisRun;
+
+    private String rejectedToken;
+
+    /**
+     * Constructs a new OAuth2Client.
+     *
+     * @param tokenUrl     the token endpoint.
+     * @param clientId     the client identifier, possibly {@code null} with a refresh token.
+     * @param clientSecret the client secret, possibly {@code null} for a public client.
+     * @param scope        the scope to request, possibly {@code null}.
+     * @param refreshToken a refresh token to start with, possibly {@code null}.
+     * @param connections  opens the connections to the token endpoint.
+     */
+    OAuth2Client(URI tokenUrl, String clientId, char[] clientSecret, String scope,
+            String refreshToken, ConnectionFactory connections) {
+        this.tokenUrl = tokenUrl;
+        this.clientId = clientId;
+        this.clientSecret = nonNull(clientSecret) ? clientSecret.clone() : null;
+        this.scope = scope;
+        this.refreshToken = refreshToken;
+        this.connections = connections;
+    }
+
+    /**
+     * Returns the {@code Authorization} header value, obtaining a new access token if there is no
+     * saved token or it is about to expire.
+     *
+     * @param session  the session the token is saved in, or {@code null} to keep it in memory.
+     * @param readOnly {@code true} to use a token saved in the session but keep a new one in
+     *                 memory.
+     * @return the {@code Authorization} header value.
+     * @throws IOException if the token endpoint can't be reached or refuses the grant.
+     */
+    String getAuthorization(Session session, boolean readOnly) throws IOException {
+        if (!isUsable() && nonNull(session)) {
+            load(session.getTokenState());
+        }
+        if (!isUsable()) {
+            if (nonNull(session) && !readOnly) {
+                refreshLocked(session);
+            } else {
+                requestToken();
+            }
+        }
+        return String.format("%s %s", state.getProperty(PROP_TOKEN_TYPE, "Bearer"),
+                state.getProperty(PROP_ACCESS_TOKEN));
+    }
+
+    /**
+     * Forgets the access token after the server rejected it.
+     *
+     * @return {@code true} if the token was saved by an earlier run and a new one should be tried,
+     *         {@code false} if it was just issued (so a new one won't help).
+     */
+    boolean invalidate() {
+        if (issuedThisRun || isNull(state.getProperty(PROP_ACCESS_TOKEN))) {
+            return false;
+        }
+        rejectedToken = state.getProperty(PROP_ACCESS_TOKEN);
+        state.remove(PROP_ACCESS_TOKEN);
+        state.remove(PROP_EXPIRES_AT);
+        return true;
+    }
+
+    /**
+     * Obtains a token while holding the session's lock file, unless a concurrent run already
+     * saved a fresh one.
+     *
+     * @param session the session.
+     * @throws IOException if an IOException occurs.
+     */
+    private void refreshLocked(Session session) throws IOException {
+        var lockPath = session.getLockPath();
+        // FileLock is held per process, so threads of the same process queue up here first.
+        synchronized (OAuth2Client.class) {
+            // A new session has no directory yet.
+            Files.createDirectories(lockPath.getParent());
+            try (var channel = FileChannel.open(lockPath, CREATE, WRITE)) {
+                // Released when the channel is closed.
+                channel.lock();
+                load(session.loadTokenState());
+                if (isUsable()) {
+                    Jttp.LOGGER.log(DEBUG, "logger.debug.oauth2.concurrent", tokenUrl);
+                    return;
+                }
+                requestToken();
+                session.saveTokenState(state);
+            }
+        }
+    }
+
+    /**
+     * Calls the token endpoint, using the refresh token if there is one and falling back to the
+     * client credentials grant if the refresh token is refused.
+     *
+     * @throws IOException if an IOException occurs or every grant is refused.
+     */
+    private void requestToken() throws IOException {
+        var currentRefreshToken = state.getProperty(PROP_REFRESH_TOKEN, refreshToken);
+        if (nonNull(currentRefreshToken)) {
+            var params = new LinkedHashMap<String, String>();
+            params.put("grant_type", "refresh_token");
+            params.put("refresh_token", currentRefreshToken);
+            // Kept unless the server rotates it.
+            state.setProperty(PROP_REFRESH_TOKEN, currentRefreshToken);
+            try {
+                postTokenRequest(params);
+                return;
+            } catch (IOException e) {
+                if (isNull(clientSecret)) {
+                    throw e;
+                }
+                Jttp.LOGGER.log(INFO, "logger.info.oauth2.refresh.refused", e.getMessage());
+                state.remove(PROP_REFRESH_TOKEN);
+            }
+        }
+        var params = new LinkedHashMap<String, String>();
+        params.put("grant_type", "client_credentials");
+        postTokenRequest(params);
+    }
+
+    /**
+     * Posts a token request and saves the response in the state.
+     *
+     * @param params the grant parameters.
+     * @throws IOException if an IOException occurs or the endpoint doesn't answer with a token.
+     */
+    private void postTokenRequest(Map<String, String> params) throws IOException {
+        if (nonNull(scope)) {
+            params.put("scope", scope);
+        }
+        var tokenConn = connections.open(tokenUrl.toURL(), "POST", true);
+        tokenConn.setUseCaches(false);
+        tokenConn.setRequestProperty("Content-Type", RequestMimeType.FORM.getContentType());
+        tokenConn.setRequestProperty("Accept", "application/json");
+        if (nonNull(clientId) && nonNull(clientSecret)) {
+            var credentials = encode(clientId) + ":" + encode(new String(clientSecret));
+            tokenConn.setRequestProperty("Authorization",
+                    "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(UTF_8)));
+        } else if (nonNull(clientId)) {
+            params.put(PROP_CLIENT_ID, clientId);
+        }
+        var form = params.entrySet().stream()
+                .map(e -> String.format("%s=%s", e.getKey(), encode(e.getValue())))
+                .collect(joining("&"));
+        Jttp.LOGGER.log(DEBUG, "logger.debug.oauth2.request", params.get("grant_type"), tokenUrl);
+        var issuedAt = System.currentTimeMillis();
+        try {
+            try (var out = tokenConn.getOutputStream()) {
+                out.write(form.getBytes(UTF_8));
+            }
+            var status = tokenConn.getResponseCode();
+            var body = readBody(status < 400 ? tokenConn.getInputStream()
+                    : tokenConn.getErrorStream());
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException(MessageFormat.format(Jttp.RB.getString("error.oauth2.token"),
+                        tokenUrl, status, body));
+            }
+            saveResponse(body, issuedAt);
+        } finally {
+            tokenConn.disconnect();
+        }
+    }
+
+    /**
+     * @param body     the token response.
+     * @param issuedAt time the request was sent, in milliseconds since the epoch.
+     * @throws IOException if the response doesn't contain an access token.
+     */
+    private void saveResponse(String body, long issuedAt) throws IOException {
+        Map<?, ?> response;
+        try {
+            response = (Map<?, ?>) Json.parse(body);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            throw new IOException(MessageFormat.format(Jttp.RB.getString("error.oauth2.token"),
+                    tokenUrl, HttpURLConnection.HTTP_OK, body), e);
+        }
+        if (!(response.get(PROP_ACCESS_TOKEN) instanceof String)) {
+            throw new IOException(MessageFormat.format(Jttp.RB.getString("error.oauth2.token"),
+                    tokenUrl, HttpURLConnection.HTTP_OK, body));
+        }
+        var previousRefreshToken = state.getProperty(PROP_REFRESH_TOKEN);
+        state = new Properties();
+        state.setProperty(PROP_TOKEN_URL, tokenUrl.toString());
+        if (nonNull(clientId)) {
+            state.setProperty(PROP_CLIENT_ID, clientId);
+        }
+        state.setProperty(PROP_ACCESS_TOKEN, (String) response.get(PROP_ACCESS_TOKEN));
+        // Bearer is case insensitive, but some servers only accept it capitalized.
+        var tokenType = response.get(PROP_TOKEN_TYPE) instanceof String
+                && !"bearer".equalsIgnoreCase((String) response.get(PROP_TOKEN_TYPE))
+                        ? (String) response.get(PROP_TOKEN_TYPE)
+                        : "Bearer";
+        state.setProperty(PROP_TOKEN_TYPE, tokenType);
+        state.setProperty(PROP_ISSUED_AT, Long.toString(issuedAt));
+        if (response.get("expires_in") instanceof BigDecimal) {
+            var expiresIn = ((BigDecimal) response.get("expires_in")).longValue();
+            state.setProperty(PROP_EXPIRES_AT, Long.toString(issuedAt + expiresIn * 1000));
+        }
+        if (response.get(PROP_REFRESH_TOKEN) instanceof String) {
+            state.setProperty(PROP_REFRESH_TOKEN, (String) response.get(PROP_REFRESH_TOKEN));
+        } else if (nonNull(previousRefreshToken)) {
+            state.setProperty(PROP_REFRESH_TOKEN, previousRefreshToken);
+        }
+        issuedThisRun = true;
+    }
+
+    /**
+     * Replaces the state with a saved one if it was issued by the same endpoint to the same
+     * client.
+     *
+     * @param saved the saved state, possibly empty.
+     */
+    private void load(Properties saved) {
+        if (tokenUrl.toString().equals(saved.getProperty(PROP_TOKEN_URL))
+                && String.valueOf(clientId).equals(saved.getProperty(PROP_CLIENT_ID, "null"))) {
+            state = new Properties();
+            state.putAll(saved);
+        }
+    }
+
+    /**
+     * @return {@code true} if there is an access token that isn't about to expire and wasn't
+     *         rejected by the server.
+     */
+    private boolean isUsable() {
+        return isFresh() && !state.getProperty(PROP_ACCESS_TOKEN).equals(rejectedToken);
+    }
+
+    /**
+     * @return {@code true} if there is an access token that isn't about to expire.
+     */
+    private boolean isFresh() {
+        if (isNull(state.getProperty(PROP_ACCESS_TOKEN))) {
+            return false;
+        }
+        if (isNull(state.getProperty(PROP_EXPIRES_AT))) {
+            return true;
+        }
+        var expiresAt = Long.parseLong(state.getProperty(PROP_EXPIRES_AT));
+        var issuedAt = Long.parseLong(state.getProperty(PROP_ISSUED_AT, "0"));
+        var margin = Math.min(REFRESH_MARGIN_MILLIS, (expiresAt - issuedAt) / 10);
+        return System.currentTimeMillis() < expiresAt - margin;
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        if (isNull(in)) {
+            return "";
+        }
+        try (in) {
+            return new String(in.readAllBytes(), UTF_8);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, UTF_8);
+    }
+}
@@ -0,0 +1,219 @@
+package com.github.argherna.jttp;
+
+import static java.lang.System.Logger.Level.DEBUG;
+import static java.lang.System.Logger.Level.INFO;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * A download that is persisted as it is received so that an interrupted run can be resumed.
+ *
+ * <p>
+ * The body is written to {@code FILENAME.part} next to the download target. The validator for
+ * the response ({@code ETag}, or {@code Last-Modified} when there is no {@code ETag}) and the
+ * request URL are saved to {@code FILENAME.part.properties} before the body is read. When Jttp is
+ * run again for the same URL and target, the request is sent with {@code Range} and
+ * {@code If-Range} headers. A {@code 206} response is appended to the part file; a {@code 200}
+ * response means the resource changed and the download starts over. A {@code 416} response whose
+ * complete length is the length of the part file means the whole body was already received; any
+ * other {@code 416} response discards the part file.
+ */
+class PartialDownload {
+
+    private static final String PROP_URL = "url";
+
+    private static final String PROP_VALIDATOR = "validator";
+
+    private final Path part;
+
+    private final Path state;
+
+    private final URL url;
+
+    private long offset;
+
+    /**
+     * Constructs a new PartialDownload.
+     *
+     * @param target the path the completed download is moved to.
+     * @param url    the URL being downloaded.
+     */
+    PartialDownload(Path target, URL url) {
+        this.part = target.resolveSibling(target.getFileName() + ".part");
+        this.state = target.resolveSibling(target.getFileName() + ".part.properties");
+        this.url = url;
+    }
+
+    /**
+     * @return {@code true} if a partial download for the same URL exists and can be resumed.
+     * @throws IOException if an IOException occurs.
+     */
+    boolean isResumable() throws IOException {
+        if (!Files.exists(part) || !Files.exists(state)) {
+            return false;
+        }
+        var props = loadState();
+        return url.toString().equals(props.getProperty(PROP_URL))
+                && nonNull(props.getProperty(PROP_VALIDATOR)) && Files.size(part) > 0;
+    }
+
+    /**
+     * Sets the {@code Range} and {@code If-Range} request headers on the connection if a
+     * resumable partial download exists. Called again for every connection that is reopened to
+     * resend the request.
+     *
+     * @param conn the HttpURLConnection, not yet connected.
+     * @throws IOException if an IOException occurs.
+     */
+    void prepare(HttpURLConnection conn) throws IOException {
+        if (offset == 0 && isResumable()) {
+            offset = Files.size(part);
+            Jttp.LOGGER.log(INFO, "logger.info.download.resume", part, offset);
+        }
+        if (offset > 0) {
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            conn.setRequestProperty("Range", String.format("bytes=%d-", offset));
+            conn.setRequestProperty("If-Range", loadState().getProperty(PROP_VALIDATOR));
+        }
+    }
+
+    /**
+     * Opens the part file for writing the response body.
+     *
+     * <p>
+     * The file is appended to if the server answered the range that was requested, otherwise it
+     * is truncated. The validator from the response is saved before returning so that the
+     * download can be resumed if it is interrupted.
+     *
+     * @param conn the HttpURLConnection with a successful response.
+     * @return an OutputStream positioned at the end of the bytes already received.
+     * @throws IOException if an IOException occurs.
+     */
+    OutputStream open(HttpURLConnection conn) throws IOException {
+        var append = offset > 0 && conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL
+                && rangeStart(conn.getHeaderField("Content-Range")) == offset;
+        if (offset > 0 && !append) {
+            Jttp.LOGGER.log(INFO, "logger.info.download.restart", part);
+            offset = 0;
+        }
+        if (!Files.exists(part.getParent())) {
+            Files.createDirectories(part.getParent());
+        }
+        saveState(conn);
+        return new FileOutputStream(part.toFile(), append);
+    }
+
+    /**
+     * Tells whether a {@code 416 Range Not Satisfiable} response to the resumed request means the
+     * part file already holds the whole body, because an earlier run was stopped after the last
+     * byte was written but before the file was moved to its target.
+     *
+     * @param conn the HttpURLConnection with a {@code 416} response.
+     * @return {@code true} if the complete length in the response's {@code Content-Range} header
+     *         is the length of the part file.
+     * @throws IOException if an IOException occurs.
+     */
+    boolean isComplete(HttpURLConnection conn) throws IOException {
+        return offset > 0 && completeLength(conn.getHeaderField("Content-Range")) == offset;
+    }
+
+    /**
+     * @return number of bytes that were already present when the download was resumed.
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the part file.
+     */
+    File getFile() {
+        return part.toFile();
+    }
+
+    /**
+     * Deletes the saved state. Call after the part file has been moved to its target.
+     *
+     * @throws IOException if an IOException occurs.
+     */
+    void complete() throws IOException {
+        Files.deleteIfExists(state);
+    }
+
+    /**
+     * Deletes the part file and its state so the next run starts from scratch.
+     *
+     * @throws IOException if an IOException occurs.
+     */
+    void discard() throws IOException {
+        Jttp.LOGGER.log(DEBUG, "logger.debug.download.discard", part);
+        Files.deleteIfExists(part);
+        Files.deleteIfExists(state);
+    }
+
+    private Properties loadState() throws IOException {
+        var props = new Properties();
+        try (var in = Files.newInputStream(state)) {
+            props.load(in);
+        }
+        return props;
+    }
+
+    private void saveState(HttpURLConnection conn) throws IOException {
+        var validator = nonNull(conn.getHeaderField("ETag")) ? conn.getHeaderField("ETag")
+                : conn.getHeaderField("Last-Modified");
+        if (isNull(validator) || validator.startsWith("W/")) {
+            // Weak validators can't be used with If-Range, so this download can't be resumed.
+            Files.deleteIfExists(state);
+            return;
+        }
+        var props = new Properties();
+        props.setProperty(PROP_URL, url.toString());
+        props.setProperty(PROP_VALIDATOR, validator);
+        try (var out = Files.newOutputStream(state)) {
+            props.store(out, null);
+        }
+    }
+
+    /**
+     * @param contentRange value of a {@code Content-Range} header.
+     * @return the complete length given with an unsatisfied range, or {@code -1} if it can't be
+     *         parsed.
+     */
+    private static long completeLength(String contentRange) {
+        if (isNull(contentRange) || !contentRange.startsWith("bytes */")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(8).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param contentRange value of a {@code Content-Range} header.
+     * @return the first byte position of the range, or {@code -1} if it can't be parsed.
+     */
+    private static long rangeStart(String contentRange) {
+        if (isNull(contentRange) || !contentRange.startsWith("bytes ")
+                || contentRange.indexOf('-') == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, contentRange.indexOf('-')).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.argherna.jttp;
+
+import static java.util.Objects.nonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.CacheResponse;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A connection whose response was recorded earlier, in a session's history or in the response
+ * cache, so it can be rendered, run through scripts and downloaded like a response from the
+ * network without sending anything.
+ *
+ * <p>
+ * The history keeps the status and content type of a response, so those are the only headers of
+ * a response from it. Request properties can be set and read as on an unconnected connection.
+ */
+class RecordedConnection extends HttpURLConnection {
+
+    private final int status;
+
+    private final String message;
+
+    private final Body body;
+
+    private final Map<String, List<String>> headerFields = new LinkedHashMap<>();
+
+    /**
+     * Constructs a new RecordedConnection with a response from a session's history.
+     *
+     * @param conn  the connection the request was built on, with its URL, method and request
+     *              properties.
+     * @param entry the history entry recorded for the request.
+     * @param body  the recorded response body.
+     */
+    RecordedConnection(HttpURLConnection conn, Session.HistoryEntry entry, File body) {
+        this(conn, conn.getRequestProperties(), entry.status, null,
+                () -> new FileInputStream(body));
+        headerFields.put(null, List.of("HTTP/1.1 " + entry.status));
+        if (nonNull(entry.contentType)) {
+            headerFields.put("Content-Type", List.of(entry.contentType));
+        }
+    }
+
+    /**
+     * Constructs a new RecordedConnection with a response from the response cache.
+     *
+     * @param conn              the connection the request was built on, with its URL and method.
+     * @param requestProperties the request properties the request was built with.
+     * @param response          the cached response.
+     * @throws IOException if an IOException occurs reading the cached headers.
+     */
+    RecordedConnection(HttpURLConnection conn, Map<String, List<String>> requestProperties,
+            CacheResponse response) throws IOException {
+        this(conn, requestProperties, statusCode(response), statusMessage(response),
+                response::getBody);
+        headerFields.putAll(response.getHeaders());
+    }
+
+    private RecordedConnection(HttpURLConnection conn,
+            Map<String, List<String>> requestProperties, int status, String message, Body body) {
+        super(conn.getURL());
+        this.status = status;
+        this.message = message;
+        this.body = body;
+        this.method = conn.getRequestMethod();
+        this.doOutput = conn.getDoOutput();
+        requestProperties.entrySet().stream().filter(e -> nonNull(e.getKey()))
+                .forEach(e -> e.getValue().forEach(v -> addRequestProperty(e.getKey(), v)));
+    }
+
+    @Override
+    public void connect() {
+        // Nothing to connect to.
+    }
+
+    @Override
+    public void disconnect() {
+        // Nothing to release.
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return status;
+    }
+
+    @Override
+    public String getResponseMessage() {
+        return message;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return Collections.unmodifiableMap(headerFields);
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        return headerFields.entrySet().stream()
+                .filter(e -> nonNull(e.getKey()) && e.getKey().equalsIgnoreCase(name))
+                .map(e -> e.getValue().get(0)).findFirst().orElse(null);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        var keys = new ArrayList<>(headerFields.keySet());
+        return n > 0 && n < keys.size() ? keys.get(n) : null;
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        var values = new ArrayList<>(headerFields.values());
+        return n >= 0 && n < values.size() ? values.get(n).get(0) : null;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return body.open();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return null;
+    }
+
+    private static int statusCode(CacheResponse response) throws IOException {
+        var statusLine = response.getHeaders().get(null).get(0).split(" ", 3);
+        return Integer.parseInt(statusLine[1]);
+    }
+
+    private static String statusMessage(CacheResponse response) throws IOException {
+        var statusLine = response.getHeaders().get(null).get(0).split(" ", 3);
+        return statusLine.length > 2 ? statusLine[2] : null;
+    }
+
+    /**
+     * Opens the recorded response body.
+     */
+    private interface Body {
+
+        /**
+         * @return the response body.
+         * @throws IOException if an IOException occurs.
+         */
+        InputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,208 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.nonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Sends the requests recorded in a session's history again, concurrently, and compares the
+ * responses with the recorded ones.
+ *
+ * <p>
+ * Requests are sent at the times they were recorded at, relative to the first one, divided by
+ * {@code speed}; with a speed of {@code 0} they are sent as fast as {@code parallel} threads
+ * allow. At most {@code parallel} requests are in flight, and a request that has to wait for a
+ * free thread is late. Latencies are measured from the time a request was due, so being late
+ * counts, as in {@link Bench}'s open model.
+ *
+ * <p>
+ * The history is read one entry at a time, so sessions of any length can be replayed. For each
+ * entry, the latency and status are printed, with the recorded status when it is different. When
+ * the status is the same, the body is compared with the recorded one by its SHA-256 digest.
+ */
+class Replay {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final URI base;
+
+    private final double speed;
+
+    private final int parallel;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private long firstTimestamp = -1;
+
+    private long sent;
+
+    private long errors;
+
+    private long statusChanges;
+
+    private long bodyChanges;
+
+    /**
+     * Constructs a new Replay.
+     *
+     * @param base     scheme, host and port the requests are sent to.
+     * @param speed    how many times faster than recorded to send the requests, or {@code 0} for
+     *                 as fast as possible.
+     * @param parallel the most requests in flight.
+     */
+    Replay(URI base, double speed, int parallel) {
+        this.base = base;
+        this.speed = speed;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Replays the history and prints a line per request and the report.
+     *
+     * @param session     the session whose history is replayed.
+     * @param connections opens connections with the session's request properties.
+     * @param ps          where the results are printed.
+     * @throws IOException if the history can't be read or the replay is interrupted.
+     */
+    void run(Session session, ConnectionFactory connections, PrintStream ps)
+            throws IOException {
+        var executor = Executors.newFixedThreadPool(parallel, r -> {
+            var t = new Thread(r, "jttp-replay");
+            t.setDaemon(true);
+            return t;
+        });
+        var inFlight = new Semaphore(parallel);
+        var startNanos = System.nanoTime();
+        try {
+            session.readHistory(entry -> {
+                var recorded = nonNull(entry.responseFile) ? digest(entry.openResponse()) : null;
+                if (firstTimestamp < 0) {
+                    firstTimestamp = entry.timestamp;
+                }
+                var dueNanos = startNanos;
+                if (speed > 0) {
+                    dueNanos += (long) (TimeUnit.MILLISECONDS
+                            .toNanos(entry.timestamp - firstTimestamp) / speed);
+                    for (var wait = dueNanos - System.nanoTime(); wait > 0;
+                            wait = dueNanos - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                var sendNanos = speed > 0 ? dueNanos : System.nanoTime();
+                executor.execute(() -> {
+                    try {
+                        replay(entry, recorded, sendNanos, connections, ps);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            });
+            inFlight.acquire(parallel);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        report(ps, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Sends one recorded request and records the result.
+     */
+    private void replay(Session.HistoryEntry entry, byte[] recorded, long dueNanos,
+            ConnectionFactory connections, PrintStream ps) {
+        int status;
+        byte[] body;
+        long micros;
+        try {
+            var target = new URL(base.getScheme() + "://" + base.getRawAuthority() + entry.uri
+                    + (nonNull(entry.query) ? "?" + entry.query : ""));
+            var conn = connections.open(target, entry.method, nonNull(entry.data));
+            if (nonNull(entry.data)) {
+                var data = entry.data.getBytes(UTF_8);
+                conn.setFixedLengthStreamingMode(data.length);
+                try (var out = conn.getOutputStream()) {
+                    out.write(data);
+                }
+            }
+            status = conn.getResponseCode();
+            var in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+            body = nonNull(in) ? digest(in) : digest(InputStream.nullInputStream());
+            micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dueNanos);
+        } catch (IOException e) {
+            synchronized (this) {
+                errors++;
+                ps.println(MessageFormat.format(Jttp.RB.getString("jttp.replay.entry.error"),
+                        entry.id, entry.method, entry.uri, e.toString()));
+            }
+            return;
+        }
+        synchronized (this) {
+            histogram.record(micros);
+            sent++;
+            String key;
+            if (status != entry.status) {
+                statusChanges++;
+                key = "jttp.replay.entry.status";
+            } else if (nonNull(recorded) && !Arrays.equals(recorded, body)) {
+                bodyChanges++;
+                key = "jttp.replay.entry.body";
+            } else {
+                key = "jttp.replay.entry";
+            }
+            ps.println(MessageFormat.format(Jttp.RB.getString(key), entry.id, entry.method,
+                    entry.uri, status, micros / 1000.0, entry.status));
+        }
+    }
+
+    private void report(PrintStream ps, long elapsedNanos) {
+        ps.println(MessageFormat.format(Jttp.RB.getString("jttp.replay.summary"), sent,
+                elapsedNanos / 1e9, errors, statusChanges, bodyChanges));
+        for (var percentile : PERCENTILES) {
+            ps.println(MessageFormat.format(Jttp.RB.getString("jttp.bench.percentile"),
+                    percentile, histogram.getValueAtPercentile(percentile) / 1000.0));
+        }
+        ps.println(MessageFormat.format(Jttp.RB.getString("jttp.bench.max"),
+                histogram.getMax() / 1000.0, histogram.getMean() / 1000));
+    }
+
+    /**
+     * @param in a stream, read to the end and closed.
+     * @return the SHA-256 digest of the stream.
+     */
+    private static byte[] digest(InputStream in) throws IOException {
+        try (var digestIn = new DigestInputStream(in, MessageDigest.getInstance("SHA-256"))) {
+            digestIn.transferTo(OutputStream.nullOutputStream());
+            return digestIn.getMessageDigest().digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -4,13 +4,16 @@ package com.github.argherna.jttp;
  * HTTP request methods.
  */
 enum RequestMethod {
-    DELETE(false), GET(false), HEAD(false), OPTIONS(false), PATCH(true), POST(true), PUT(
-            true), TRACE(false);
+    DELETE(false, true), GET(false, true), HEAD(false, true), OPTIONS(false, true), PATCH(true,
+            false), POST(true, false), PUT(true, true), TRACE(false, true);
 
     private final boolean hasPayload;
 
-    private RequestMethod(boolean hasPayload) {
+    private final boolean idempotent;
+
+    private RequestMethod(boolean hasPayload, boolean idempotent) {
         this.hasPayload = hasPayload;
+        this.idempotent = idempotent;
     }
 
     /**
@@ -19,4 +22,12 @@ enum RequestMethod {
     public boolean hasPayload() {
         return hasPayload;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return {@code true} if sending the request more than once has the same effect as sending it
+     *         once (RFC 7231 section 4.2.2), so it is safe to retry.
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+}
@@ -0,0 +1,177 @@
+package com.github.argherna.jttp;
+
+import static java.lang.System.Logger.Level.INFO;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a failed attempt is retried and how long to wait first.
+ *
+ * <p>
+ * An attempt is retried if the response status or the exception thrown is retryable. The wait is
+ * exponential backoff with full jitter (a random time between zero and
+ * {@code backoff * 2^attempt}, capped at {@value #MAX_BACKOFF_MILLIS} milliseconds), but never
+ * shorter than a {@code Retry-After} response header asks for.
+ *
+ * <p>
+ * Methods that aren't idempotent ({@code POST}, {@code PATCH}) are only retried when the server
+ * can't have acted on the request: the connection was refused, or the server answered {@code 429}
+ * or {@code 503} with {@code Retry-After}.
+ *
+ * <p>
+ * Retries to a host are also limited by a budget shared by every request in the process: at most
+ * {@value #MIN_RETRIES} retries plus a fifth of the requests sent. This keeps a batch of requests
+ * against an overloaded server from multiplying its load. Budgets are kept for the
+ * {@value #MAX_BUDGETS} hosts used most recently.
+ */
+class RetryPolicy {
+
+    static final Set<Integer> DEFAULT_STATUSES = Set.of(408, 429, 500, 502, 503, 504);
+
+    static final Set<String> DEFAULT_EXCEPTIONS =
+            Set.of("java.net.SocketException", "java.net.SocketTimeoutException");
+
+    private static final Long MAX_BACKOFF_MILLIS = 30000L;
+
+    private static final Integer MIN_RETRIES = 10;
+
+    private static final Double BUDGET_RATIO = 0.2;
+
+    private static final Integer MAX_BUDGETS = 256;
+
+    private static final Map<String, AtomicLong[]> BUDGETS =
+            new LinkedHashMap<>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, AtomicLong[]> eldest) {
+                    return size() > MAX_BUDGETS;
+                }
+            };
+
+    private final int retries;
+
+    private final Collection<Integer> statuses;
+
+    private final Collection<String> exceptions;
+
+    private final long backoffMillis;
+
+    /**
+     * Constructs a new RetryPolicy.
+     *
+     * @param retries       maximum number of retries for one request.
+     * @param statuses      response statuses to retry.
+     * @param exceptions    names of exception classes to retry, including subclasses.
+     * @param backoffMillis base of the exponential backoff.
+     */
+    RetryPolicy(int retries, Collection<Integer> statuses, Collection<String> exceptions,
+            long backoffMillis) {
+        this.retries = retries;
+        this.statuses = statuses;
+        this.exceptions = exceptions;
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * Counts a request (not a retry) to the host towards the retry budget.
+     *
+     * @param host the host.
+     */
+    void onRequest(String host) {
+        budget(host)[0].incrementAndGet();
+    }
+
+    /**
+     * @param attempt number of retries already made for this request.
+     * @param method  the request method.
+     * @param conn    the HttpURLConnection of the failed attempt.
+     * @param failure the exception thrown by the attempt, or {@code null} if it got a response.
+     * @return milliseconds to wait before retrying, or {@code -1} to not retry.
+     * @throws IOException if an IOException occurs reading the response status.
+     */
+    long nextDelay(int attempt, RequestMethod method, HttpURLConnection conn,
+            IOException failure) throws IOException {
+        if (attempt >= retries) {
+            return -1;
+        }
+        String retryAfter = null;
+        if (nonNull(failure)) {
+            if (!isRetryable(failure) || (!method.isIdempotent()
+                    && !(failure instanceof ConnectException))) {
+                return -1;
+            }
+        } else {
+            var status = conn.getResponseCode();
+            retryAfter = conn.getHeaderField("Retry-After");
+            if (!statuses.contains(status) || (!method.isIdempotent()
+                    && !((status == 429 || status == 503) && nonNull(retryAfter)))) {
+                return -1;
+            }
+        }
+        var budget = budget(conn.getURL().getHost());
+        if (budget[1].incrementAndGet() > MIN_RETRIES + BUDGET_RATIO * budget[0].get()) {
+            budget[1].decrementAndGet();
+            Jttp.LOGGER.log(INFO, "logger.info.retry.budget", conn.getURL().getHost());
+            return -1;
+        }
+        var ceiling = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attempt, 30));
+        var delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Math.max(delay, retryAfterMillis(retryAfter));
+    }
+
+    /**
+     * @param failure an exception.
+     * @return {@code true} if the exception's class or one of its superclasses is retryable.
+     */
+    private boolean isRetryable(IOException failure) {
+        for (Class<?> c = failure.getClass(); nonNull(c); c = c.getSuperclass()) {
+            if (exceptions.contains(c.getName()) || exceptions.contains(c.getSimpleName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param retryAfter value of a {@code Retry-After} header (seconds or an HTTP date).
+     * @return milliseconds to wait, or {@code 0} if there is no usable value.
+     */
+    static long retryAfterMillis(String retryAfter) {
+        if (isNull(retryAfter)) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                var date = ZonedDateTime.parse(retryAfter.trim(),
+                        DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(Instant.now(), date.toInstant()).toMillis());
+            } catch (DateTimeParseException e2) {
+                return 0;
+            }
+        }
+    }
+
+    private static AtomicLong[] budget(String host) {
+        synchronized (BUDGETS) {
+            return BUDGETS.computeIfAbsent(host,
+                    h -> new AtomicLong[] {new AtomicLong(), new AtomicLong()});
+        }
+    }
+}
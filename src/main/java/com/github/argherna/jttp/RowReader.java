@@ -0,0 +1,247 @@
+package com.github.argherna.jttp;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads rows of named values one at a time from CSV or NDJSON text, so files of any length can be
+ * read.
+ *
+ * <p>
+ * CSV follows RFC 4180: the first record holds the column names, fields are separated by commas,
+ * and a field in double quotes may hold commas, line breaks and doubled double quotes. In NDJSON,
+ * every non-blank line is a Json object; string members are taken as they are and other members
+ * as Json text.
+ *
+ * <p>
+ * A malformed row doesn't stop the reader: its text is still available from
+ * {@link #getText() getText} and reading continues with the next row.
+ */
+class RowReader {
+
+    /**
+     * Formats of rows files.
+     */
+    enum Format {
+        CSV, NDJSON
+    }
+
+    private final BufferedReader in;
+
+    private final Format format;
+
+    private List<String> columns;
+
+    private int number;
+
+    private final StringBuilder record = new StringBuilder();
+
+    private String text;
+
+    /**
+     * Constructs a new RowReader.
+     *
+     * @param in     the text.
+     * @param format its format.
+     */
+    RowReader(BufferedReader in, Format format) {
+        this.in = in;
+        this.format = format;
+    }
+
+    /**
+     * @param filename a file name.
+     * @return {@link Format#NDJSON} for names ending in {@code .ndjson}, {@code .jsonl} or
+     *         {@code .json}, {@link Format#CSV} otherwise.
+     */
+    static Format formatOf(String filename) {
+        var name = filename.toLowerCase();
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json")
+                ? Format.NDJSON
+                : Format.CSV;
+    }
+
+    /**
+     * @return the CSV header record as read, or {@code null} for NDJSON or before the first row.
+     */
+    String getHeader() {
+        return isNull(columns) || format != Format.CSV ? null : toCsv(columns);
+    }
+
+    /**
+     * @return the number of the last row read.
+     */
+    int getNumber() {
+        return number;
+    }
+
+    /**
+     * @return the last row read as it appeared in the text (without its line break), also if it
+     *         was malformed.
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * Reads the next row.
+     *
+     * @return the row, or {@code null} at the end of the text.
+     * @throws IOException              if an IOException occurs.
+     * @throws IllegalArgumentException if a row is malformed.
+     */
+    Row next() throws IOException {
+        if (format == Format.NDJSON) {
+            String line;
+            do {
+                line = in.readLine();
+                if (isNull(line)) {
+                    return null;
+                }
+                number++;
+            } while (line.isBlank());
+            text = line;
+            var value = Json.parse(line);
+            if (!(value instanceof Map)) {
+                throw new IllegalArgumentException(
+                        MessageFormat.format(Jttp.RB.getString("error.rows.record"), number));
+            }
+            var values = new LinkedHashMap<String, String>();
+            ((Map<?, ?>) value).forEach((k, v) -> values.put((String) k,
+                    v instanceof String ? (String) v : Json.write(v)));
+            return new Row(number, values, line);
+        }
+        if (isNull(columns)) {
+            columns = readRecord();
+            if (isNull(columns)) {
+                return null;
+            }
+        }
+        var fields = readRecord();
+        while (nonNull(fields) && fields.size() == 1 && fields.get(0).isEmpty()) {
+            // Blank line.
+            fields = readRecord();
+        }
+        if (isNull(fields)) {
+            return null;
+        }
+        number++;
+        text = record.toString();
+        if (fields.size() != columns.size()) {
+            throw new IllegalArgumentException(
+                    MessageFormat.format(Jttp.RB.getString("error.rows.record"), number));
+        }
+        var values = new LinkedHashMap<String, String>();
+        for (int i = 0; i < columns.size(); i++) {
+            values.put(columns.get(i), fields.get(i));
+        }
+        return new Row(number, values, toCsv(fields));
+    }
+
+    /**
+     * @return the fields of the next CSV record, or {@code null} at the end of the text.
+     */
+    private List<String> readRecord() throws IOException {
+        var fields = new ArrayList<String>();
+        var field = new StringBuilder();
+        var quoted = false;
+        record.setLength(0);
+        var c = in.read();
+        if (c == -1) {
+            return null;
+        }
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    number++;
+                    text = record.toString();
+                    throw new IllegalArgumentException(MessageFormat
+                            .format(Jttp.RB.getString("error.rows.record"), number));
+                } else if (c == '"') {
+                    in.mark(1);
+                    if (in.read() == '"') {
+                        record.append('"');
+                        field.append('"');
+                    } else {
+                        in.reset();
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r') {
+                    in.mark(1);
+                    if (in.read() != '\n') {
+                        in.reset();
+                    }
+                }
+                fields.add(field.toString());
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+            if (c != -1) {
+                record.append((char) c);
+            }
+            c = in.read();
+        }
+    }
+
+    /**
+     * @param fields values.
+     * @return the values as a CSV record, quoted where needed.
+     */
+    static String toCsv(List<String> fields) {
+        var sb = new StringBuilder();
+        for (var field : fields) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            if (field.contains(",") || field.contains("\"") || field.contains("\n")
+                    || field.contains("\r")) {
+                sb.append('"').append(field.replace("\"", "\"\"")).append('"');
+            } else {
+                sb.append(field);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A row of named values.
+     */
+    static class Row {
+
+        final int number;
+
+        final Map<String, String> values;
+
+        final String text;
+
+        /**
+         * @param number number of the row: of the record after the header in CSV, of the line
+         *               in NDJSON.
+         * @param values the values by column name.
+         * @param text   the row as a CSV record or NDJSON line.
+         */
+        Row(int number, Map<String, String> values, String text) {
+            this.number = number;
+            this.values = values;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.github.argherna.jttp;
+
+import static java.lang.System.Logger.Level.WARNING;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sends one request per row of a CSV or NDJSON file.
+ *
+ * <p>
+ * The request is given as a template: the arguments of a Jttp run in which {@code ${column}} is
+ * replaced by the row's value of the column, so the url, request items and headers can all vary
+ * per row. A row that has no such column fails without sending anything.
+ *
+ * <p>
+ * Rows are read as they are sent, so the file may be arbitrarily long or be a pipe. Requests run
+ * on a fixed pool of worker threads, requests that use the same session one at a time, and at
+ * most twice as many rows as there are workers are read ahead. The output of each request is
+ * written to stdout as a whole, in the order the requests finish.
+ *
+ * <p>
+ * A row fails if it is malformed, or if its request can't be sent, gets no response or gets a
+ * status of 400 or more. Optionally, a line per row with its number, status, time and error is
+ * written to a CSV results file, and the rows that failed are written to a failures file in the
+ * format of the input (with the CSV header), so they can be sent again with the failures file as
+ * the rows. A summary is printed on stderr at the end.
+ */
+class Rows {
+
+    private static final Pattern COLUMN = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    private final RowReader rows;
+
+    private final List<String> template;
+
+    private final Path resultsFile;
+
+    private final Path failuresFile;
+
+    private final PrintStream out;
+
+    private final Runner runner;
+
+    private BufferedWriter results;
+
+    private BufferedWriter failures;
+
+    /**
+     * Constructs a new Rows.
+     *
+     * @param rows         the rows.
+     * @param template     the arguments of a run, with {@code ${column}} placeholders.
+     * @param parallel     number of worker threads.
+     * @param resultsFile  file to write a line per row to, or {@code null}.
+     * @param failuresFile file to write the rows that failed to, or {@code null}.
+     * @param out          stdout.
+     * @param err          stderr.
+     */
+    Rows(RowReader rows, List<String> template, int parallel, Path resultsFile, Path failuresFile,
+            PrintStream out, PrintStream err) {
+        this.rows = rows;
+        this.template = template;
+        this.resultsFile = resultsFile;
+        this.failuresFile = failuresFile;
+        this.out = out;
+        this.runner = new Runner("jttp-rows", parallel, 0, err);
+    }
+
+    /**
+     * Sends a request for every row and prints the summary.
+     *
+     * @return the number of rows that failed.
+     * @throws IOException if an IOException occurs reading the rows or writing the results.
+     */
+    long run() throws IOException {
+        runner.start();
+        var count = 0;
+        try {
+            if (nonNull(resultsFile)) {
+                results = Files.newBufferedWriter(resultsFile, UTF_8);
+                results.write("row,status,millis,error");
+                results.newLine();
+            }
+            while (true) {
+                RowReader.Row row;
+                try {
+                    row = rows.next();
+                } catch (IllegalArgumentException e) {
+                    count++;
+                    complete(rows.getNumber(), rows.getText(), malformed(e));
+                    continue;
+                }
+                if (isNull(row)) {
+                    break;
+                }
+                count++;
+                var current = row;
+                runner.submit(() -> {
+                    complete(current.number, current.text,
+                            runner.execute(() -> arguments(current), false, (jttp, result) -> {
+                                if (result.status == -1 || result.status >= 400) {
+                                    throw new IOException(MessageFormat.format(
+                                            Jttp.RB.getString("error.rows.status"),
+                                            current.number, result.status));
+                                }
+                            }));
+                    runner.release();
+                });
+            }
+            runner.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            runner.stop();
+            close();
+        }
+        runner.printSummary(count);
+        return runner.getFailed();
+    }
+
+    /**
+     * @param row the row.
+     * @return the template with the row's values in place of the placeholders.
+     * @throws IllegalArgumentException if the row has no column named in the template.
+     */
+    private List<String> arguments(RowReader.Row row) {
+        var args = new ArrayList<String>(template.size());
+        for (var arg : template) {
+            args.add(COLUMN.matcher(arg).replaceAll(m -> Matcher.quoteReplacement(
+                    valueOf(row, m.group(1)))));
+        }
+        return args;
+    }
+
+    private static String valueOf(RowReader.Row row, String column) {
+        var value = row.values.get(column);
+        if (isNull(value)) {
+            throw new IllegalArgumentException(MessageFormat
+                    .format(Jttp.RB.getString("error.rows.column"), row.number, column));
+        }
+        return value;
+    }
+
+    /**
+     * @param e why a row couldn't be read.
+     * @return a failed result for the row, with the reason as its output.
+     */
+    private static Runner.Result malformed(IllegalArgumentException e) {
+        var result = new Runner.Result();
+        result.failure = e;
+        result.output = (Runner.describe(e) + System.lineSeparator()).getBytes(UTF_8);
+        return result;
+    }
+
+    /**
+     * Counts a finished row and writes its output, result and failure.
+     *
+     * @param number the row number.
+     * @param text   the row as it is written to the failures file.
+     * @param result the result.
+     */
+    private void complete(int number, String text, Runner.Result result) {
+        if (nonNull(result.failure)) {
+            Jttp.LOGGER.log(WARNING, "logger.warning.rows.failed", number,
+                    Runner.describe(result.failure));
+        }
+        runner.count(result);
+        synchronized (out) {
+            out.write(result.output, 0, result.output.length);
+            out.flush();
+        }
+        try {
+            synchronized (this) {
+                if (nonNull(results)) {
+                    results.write(RowReader.toCsv(List.of(Integer.toString(number),
+                            Integer.toString(result.status),
+                            Long.toString(TimeUnit.NANOSECONDS.toMillis(result.getNanos())),
+                            nonNull(result.failure) ? Runner.describe(result.failure) : "")));
+                    results.newLine();
+                }
+                if (nonNull(result.failure) && nonNull(failuresFile) && nonNull(text)) {
+                    if (isNull(failures)) {
+                        failures = Files.newBufferedWriter(failuresFile, UTF_8);
+                        if (nonNull(rows.getHeader())) {
+                            failures.write(rows.getHeader());
+                            failures.newLine();
+                        }
+                    }
+                    failures.write(text);
+                    failures.newLine();
+                }
+            }
+        } catch (IOException e) {
+            Jttp.LOGGER.log(WARNING, "logger.warning.rows.failed", number, Runner.describe(e));
+        }
+    }
+
+    private synchronized void close() throws IOException {
+        if (nonNull(results)) {
+            results.close();
+        }
+        if (nonNull(failures)) {
+            failures.close();
+        }
+    }
+}
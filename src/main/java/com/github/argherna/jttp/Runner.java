@@ -0,0 +1,290 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import picocli.CommandLine;
+
+/**
+ * Runs many Jttp runs in one process, the way {@link Batch}, {@link Rows} and {@link Workflow} do.
+ *
+ * <p>
+ * Runs execute on a fixed pool of worker threads. Submitting waits while twice as many runs as
+ * there are workers are in flight or waiting for their output to be written. Runs that use the
+ * same session execute one at a time, and optionally at most {@code hostLimit} at a time to one
+ * host. Connections are kept alive between runs. The output of each run is collected in memory,
+ * and the runs' statuses and times are counted for the summary.
+ */
+class Runner {
+
+    private final String threadName;
+
+    private final int parallel;
+
+    private final int hostLimit;
+
+    private final PrintStream err;
+
+    private final Semaphore window;
+
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    private final Map<String, ReentrantLock> sessionLocks = new ConcurrentHashMap<>();
+
+    private final Map<Integer, AtomicLong> statusCounts = new TreeMap<>();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private ExecutorService executor;
+
+    private long startNanos;
+
+    /**
+     * Constructs a new Runner.
+     *
+     * @param threadName name of the worker threads.
+     * @param parallel   number of worker threads.
+     * @param hostLimit  maximum number of concurrent runs to one host, or {@code 0} for no limit.
+     * @param err        stderr, of the runs and for the summary.
+     */
+    Runner(String threadName, int parallel, int hostLimit, PrintStream err) {
+        this.threadName = threadName;
+        this.parallel = parallel;
+        this.hostLimit = hostLimit;
+        this.err = err;
+        this.window = new Semaphore(parallel * 2);
+    }
+
+    /**
+     * Starts the worker threads.
+     *
+     * @return the worker threads, for runs that aren't {@link #submit(Runnable) submitted}.
+     */
+    Executor start() {
+        executor = Executors.newFixedThreadPool(parallel, r -> {
+            var t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+        startNanos = System.nanoTime();
+        return executor;
+    }
+
+    /**
+     * Runs a task on a worker thread once there is room in the window. The task calls
+     * {@link #release()} when its output has been written.
+     *
+     * @param task the task.
+     * @throws InterruptedException if interrupted while waiting for room.
+     */
+    void submit(Runnable task) throws InterruptedException {
+        window.acquire();
+        executor.execute(task);
+    }
+
+    /**
+     * Makes room in the window for another task.
+     */
+    void release() {
+        window.release();
+    }
+
+    /**
+     * Waits for the submitted tasks to finish.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void await() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Executes one run on the calling thread with its output going to a buffer.
+     *
+     * @param args            supplies the arguments of the run; a RuntimeException thrown fails
+     *                        the run.
+     * @param captureResponse {@code true} to keep the response for the check.
+     * @param check           checks the run once it is done, throwing an IOException to fail
+     *                        it.
+     * @return the result.
+     */
+    Result execute(Supplier<List<String>> args, boolean captureResponse, Check check) {
+        var buffer = new ByteArrayOutputStream();
+        var ps = new PrintStream(buffer, true, UTF_8);
+        var result = new Result();
+        result.startNanos = System.nanoTime();
+        Semaphore host = null;
+        ReentrantLock session = null;
+        try {
+            var jttp = new Jttp(ps, err, InputStream.nullInputStream());
+            jttp.setKeepAlive(true);
+            jttp.setCaptureResponse(captureResponse);
+            var argv = new ArrayList<>(args.get());
+            // Concurrent status lines would overwrite each other.
+            argv.add(0, "--no-progress");
+            new CommandLine(jttp).parseArgs(argv.toArray(new String[0]));
+            if (hostLimit > 0) {
+                host = hostPermits.computeIfAbsent(jttp.getHost(),
+                        h -> new Semaphore(hostLimit));
+                host.acquire();
+            }
+            if (nonNull(jttp.getSessionName())) {
+                session = sessionLocks.computeIfAbsent(jttp.getSessionName(),
+                        s -> new ReentrantLock());
+                session.lock();
+            }
+            result.startNanos = System.nanoTime();
+            jttp.run();
+            result.status = jttp.getResponseCode();
+            check.check(jttp, result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.failure = e;
+        } catch (IOException | RuntimeException e) {
+            result.failure = e;
+            ps.println(describe(e));
+        } finally {
+            result.endNanos = System.nanoTime();
+            if (nonNull(session)) {
+                session.unlock();
+            }
+            if (nonNull(host)) {
+                host.release();
+            }
+        }
+        ps.flush();
+        result.output = buffer.toByteArray();
+        return result;
+    }
+
+    /**
+     * Counts a finished run for the summary.
+     *
+     * @param result the result.
+     */
+    void count(Result result) {
+        if (nonNull(result.failure)) {
+            failed.incrementAndGet();
+        }
+        if (result.status > 0) {
+            synchronized (statusCounts) {
+                statusCounts.computeIfAbsent(result.status / 100, k -> new AtomicLong())
+                        .incrementAndGet();
+            }
+        }
+        totalNanos.addAndGet(result.getNanos());
+        maxNanos.accumulateAndGet(result.getNanos(), Math::max);
+    }
+
+    /**
+     * Counts a failure that happened after its run was counted, such as writing its output.
+     */
+    void countFailure() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * @return the number of runs that failed.
+     */
+    long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Prints the number of runs, throughput, failures, latency and counts per status class.
+     *
+     * @param count the number of runs.
+     */
+    void printSummary(int count) {
+        var elapsedNanos = System.nanoTime() - startNanos;
+        var elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        err.println(MessageFormat.format(Jttp.RB.getString("jttp.batch.summary"), count,
+                elapsedMillis, elapsedNanos > 0 ? count * 1e9 / elapsedNanos : 0, failed.get(),
+                count > 0 ? TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / count) : 0,
+                TimeUnit.NANOSECONDS.toMillis(maxNanos.get())));
+        synchronized (statusCounts) {
+            statusCounts.forEach((statusClass, n) -> err.println(MessageFormat
+                    .format(Jttp.RB.getString("jttp.batch.summary.status"), statusClass, n)));
+        }
+    }
+
+    /**
+     * @param e an exception thrown by a run.
+     * @return the message of its innermost cause.
+     */
+    static String describe(Throwable e) {
+        var cause = e;
+        while (nonNull(cause.getCause())) {
+            cause = cause.getCause();
+        }
+        return isNull(cause.getMessage()) ? cause.toString() : cause.getMessage();
+    }
+
+    /**
+     * Checks a run once it is done.
+     */
+    interface Check {
+
+        /**
+         * @param jttp   the run.
+         * @param result its result so far.
+         * @throws IOException if the run failed.
+         */
+        void check(Jttp jttp, Result result) throws IOException;
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    static class Result {
+
+        int status;
+
+        long startNanos;
+
+        long endNanos;
+
+        Throwable failure;
+
+        byte[] output;
+
+        /**
+         * @return how long the run took, not counting the wait for its host or session.
+         */
+        long getNanos() {
+            return endNanos - startNanos;
+        }
+    }
+}
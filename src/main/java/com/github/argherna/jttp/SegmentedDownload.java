@@ -0,0 +1,315 @@
+package com.github.argherna.jttp;
+
+import static java.lang.String.format;
+import static java.lang.System.Logger.Level.DEBUG;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a response body as concurrent byte ranges.
+ *
+ * <p>
+ * The resource is first probed with a {@code HEAD} request to find out if the server accepts
+ * byte ranges and how large the body is. If it does, the target file is preallocated to the
+ * full length and every segment is written into it with positional {@link FileChannel} writes.
+ * The first segment is fetched on the HttpURLConnection built by Jttp so that its response
+ * headers are the ones rendered and saved to the session. The probe and the remaining segments
+ * are fetched on sibling connections from a {@link ConnectionFactory} that gives them the same
+ * request properties, TLS settings and authentication.
+ *
+ * <p>
+ * If the server does not accept byte ranges, {@link #probe() probe} returns {@code false} and
+ * the caller downloads in a single stream as usual.
+ */
+class SegmentedDownload {
+
+    private static final Integer BUF_SZ = 0x10000;
+
+    private static final Long MIN_SEGMENT_SZ = 0x100000L;
+
+    private final URL url;
+
+    private final ConnectionFactory connections;
+
+    private final int segments;
+
+    private long contentLength = -1;
+
+    private String validator;
+
+    /**
+     * Constructs a new SegmentedDownload.
+     *
+     * @param url         the URL being downloaded.
+     * @param connections opens the sibling connections, with the request properties and
+     *                    authentication of the connection built by Jttp.
+     * @param segments    the maximum number of segments to download concurrently.
+     */
+    SegmentedDownload(URL url, ConnectionFactory connections, int segments) {
+        this.url = url;
+        this.connections = connections;
+        this.segments = segments;
+    }
+
+    /**
+     * Sends a {@code HEAD} request on a sibling connection to find out if the resource can be
+     * downloaded in segments.
+     *
+     * @return {@code true} if the server accepts byte ranges and reports a content length large
+     *         enough to split.
+     * @throws IOException if an IOException occurs.
+     */
+    boolean probe() throws IOException {
+        var head = openSibling("HEAD");
+        try {
+            var acceptRanges = head.getHeaderField("Accept-Ranges");
+            if (head.getResponseCode() != HttpURLConnection.HTTP_OK
+                    || !"bytes".equals(acceptRanges)
+                    || nonNull(head.getHeaderField("Content-Encoding"))) {
+                Jttp.LOGGER.log(DEBUG, "logger.debug.segments.unsupported", url);
+                return false;
+            }
+            contentLength = head.getContentLengthLong();
+            validator = nonNull(head.getHeaderField("ETag")) ? head.getHeaderField("ETag")
+                    : head.getHeaderField("Last-Modified");
+            return contentLength >= 2 * MIN_SEGMENT_SZ;
+        } finally {
+            head.disconnect();
+        }
+    }
+
+    /**
+     * @return the content length reported by {@link #probe() probe}, or {@code -1}.
+     */
+    long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Sets the request headers for the first segment on a connection.
+     *
+     * <p>
+     * Must only be called after {@link #probe() probe} returns {@code true}, before the
+     * connection is connected. Called again for every connection that is reopened to resend the
+     * request.
+     *
+     * @param first the HttpURLConnection that fetches the first segment, not yet connected.
+     */
+    void prepare(HttpURLConnection first) {
+        first.setRequestProperty("Accept-Encoding", "identity");
+        first.setRequestProperty("Range", range(0, getSegmentSize()));
+        if (nonNull(validator)) {
+            first.setRequestProperty("If-Range", validator);
+        }
+    }
+
+    /**
+     * Downloads every segment into the given file.
+     *
+     * <p>
+     * Must only be called after {@link #prepare(HttpURLConnection) prepare}. If the server answers
+     * the first segment with a full {@code 200} response, the body is written in a single stream.
+     *
+     * @param first    the HttpURLConnection that was prepared and sent for the first segment.
+     * @param file     the file to write, preallocated to the full content length.
+     * @param progress counts the bytes written by every segment.
+     * @return number of bytes written, or {@code -1} if the server answered with an error status
+     *         (in which case nothing is read from {@code first}).
+     * @throws IOException if an IOException occurs or a segment cannot be fetched.
+     */
+    long transferTo(HttpURLConnection first, File file, TransferProgress progress)
+            throws IOException {
+        var count = getSegmentCount();
+        var segmentSz = getSegmentSize();
+        var status = first.getResponseCode();
+        if (status >= 300) {
+            return -1;
+        }
+
+        try (var raf = new RandomAccessFile(file, "rw"); var channel = raf.getChannel()) {
+            if (status != HttpURLConnection.HTTP_PARTIAL) {
+                // Server ignored the range, so the whole body is on this connection.
+                try (var in = first.getInputStream()) {
+                    return write(in, channel, 0, progress);
+                }
+            }
+
+            checkRange(0, 0, segmentSz, first);
+            Jttp.LOGGER.log(DEBUG, "logger.debug.segments.start", contentLength, count);
+            raf.setLength(contentLength);
+            var executor = Executors.newFixedThreadPool(count - 1);
+            try {
+                var futures = new ArrayList<Future<Long>>();
+                for (int i = 1; i < count; i++) {
+                    var start = i * segmentSz;
+                    var size = Math.min(segmentSz, contentLength - start);
+                    var index = i;
+                    futures.add(executor
+                            .submit(() -> fetch(index, start, size, channel, progress)));
+                }
+                long xfered;
+                try (var in = first.getInputStream()) {
+                    xfered = write(in, channel, 0, progress);
+                }
+                for (var future : futures) {
+                    xfered += future.get();
+                }
+                return xfered;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Fetches one segment on a sibling connection and writes it at its offset.
+     *
+     * @param index    segment number (for messages).
+     * @param start    offset of the first byte of the segment.
+     * @param size     number of bytes in the segment.
+     * @param channel  the FileChannel to write to.
+     * @param progress counts the bytes written.
+     * @return number of bytes written.
+     * @throws IOException if an IOException occurs or the server doesn't answer with the range.
+     */
+    private long fetch(int index, long start, long size, FileChannel channel,
+            TransferProgress progress) throws IOException {
+        var sibling = openSibling("GET");
+        try {
+            sibling.setRequestProperty("Range", range(start, size));
+            if (nonNull(validator)) {
+                sibling.setRequestProperty("If-Range", validator);
+            }
+            var status = sibling.getResponseCode();
+            if (status != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException(MessageFormat.format(
+                        Jttp.RB.getString("error.segment.status"), index, status));
+            }
+            checkRange(index, start, size, sibling);
+            try (var in = sibling.getInputStream()) {
+                return write(in, channel, start, progress);
+            }
+        } finally {
+            sibling.disconnect();
+        }
+    }
+
+    /**
+     * Checks that a {@code 206} response holds the requested range of a resource with the probed
+     * content length, so that a server answering another range, or a resource that changed
+     * without changing its validator, can't leave a corrupt file.
+     *
+     * @param index      segment number (for messages).
+     * @param start      offset of the first byte of the segment.
+     * @param size       number of bytes in the segment.
+     * @param connection the HttpURLConnection with the {@code 206} response.
+     * @throws IOException if the {@code Content-Range} header doesn't match.
+     */
+    private void checkRange(int index, long start, long size, HttpURLConnection connection)
+            throws IOException {
+        var contentRange = connection.getHeaderField("Content-Range");
+        var range = parseContentRange(contentRange);
+        if (isNull(range) || range[0] != start || range[1] != start + size - 1
+                || range[2] != contentLength) {
+            throw new IOException(MessageFormat.format(Jttp.RB.getString("error.segment.range"),
+                    index, contentRange, Long.toString(start),
+                    Long.toString(start + size - 1), Long.toString(contentLength)));
+        }
+    }
+
+    /**
+     * Opens a sibling connection to the URL.
+     *
+     * @param method the request method.
+     * @return a new, unconnected HttpURLConnection.
+     * @throws IOException if an IOException occurs.
+     */
+    private HttpURLConnection openSibling(String method) throws IOException {
+        var sibling = connections.open(url, method, false);
+        sibling.setRequestProperty("Accept-Encoding", "identity");
+        return sibling;
+    }
+
+    /**
+     * Copies the stream to the channel starting at the given position.
+     *
+     * @param in       the InputStream.
+     * @param channel  the FileChannel.
+     * @param position offset in the channel to start writing at.
+     * @param progress counts the bytes written.
+     * @return number of bytes written.
+     * @throws IOException if an IOException occurs.
+     */
+    private static long write(InputStream in, FileChannel channel, long position,
+            TransferProgress progress) throws IOException {
+        var buf = new byte[BUF_SZ];
+        var written = 0L;
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            var bb = ByteBuffer.wrap(buf, 0, read);
+            while (bb.hasRemaining()) {
+                written += channel.write(bb, position + written);
+            }
+            progress.add(read);
+        }
+        return written;
+    }
+
+    private int getSegmentCount() {
+        return (int) Math.min(segments, contentLength / MIN_SEGMENT_SZ);
+    }
+
+    private long getSegmentSize() {
+        var count = getSegmentCount();
+        return (contentLength + count - 1) / count;
+    }
+
+    /**
+     * @param contentRange value of a {@code Content-Range} header.
+     * @return the first and last byte positions and the complete length, or {@code null} if it
+     *         can't be parsed or the complete length is unknown.
+     */
+    private static long[] parseContentRange(String contentRange) {
+        if (isNull(contentRange) || !contentRange.startsWith("bytes ")) {
+            return null;
+        }
+        var dash = contentRange.indexOf('-');
+        var slash = contentRange.indexOf('/');
+        if (dash == -1 || slash < dash) {
+            return null;
+        }
+        try {
+            return new long[] {Long.parseLong(contentRange.substring(6, dash).trim()),
+                    Long.parseLong(contentRange.substring(dash + 1, slash).trim()),
+                    Long.parseLong(contentRange.substring(slash + 1).trim())};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String range(long start, long size) {
+        return format("bytes=%d-%d", start, start + size - 1);
+    }
+}
@@ -1,25 +1,29 @@
 package com.github.argherna.jttp;
 
 import static java.lang.String.format;
-import static java.lang.System.Logger.Level.WARNING;
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import static java.nio.file.StandardOpenOption.CREATE;
+import static java.lang.System.Logger.Level.INFO;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.util.Comparator.reverseOrder;
+import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpCookie;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.Channels;
 import java.nio.file.FileSystem;
-import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystemException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -30,35 +34,35 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.dom.DOMSource;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
 
 /**
  * Session object that loads and saves session data.
  * 
  * <p>
- * Session data is saved by default to
- * {@code ${user.home}/.jttp/sessions/HOST_PORT/SESSIONNAME.zip}. The zip file consists of 2 files:
+ * Session data is saved by default in the directory
+ * {@code ${user.home}/.jttp/sessions/HOST_PORT/SESSIONNAME}, kept by a {@link SessionStore}. The
+ * history is appended to segment files there, next to these files:
  * <ul>
  * <li>{@code headers.xml} for request headers.
  * <li>{@code cookies.xml} for cookies.
  * </ul>
+ * If Digest authentication was used, the last challenge for the host is saved in
+ * {@code auth.properties} so the next request can authenticate on the first try. OAuth 2.0 access
+ * and refresh tokens are saved in {@code token.properties}.
+ * 
+ * <p>
+ * Sessions used to be saved in {@code SESSIONNAME.zip}, which is rewritten whole on every save.
+ * That zip layout (the files above, {@code history.xml} and a file per response) is still the
+ * format sessions are exported to and imported from, and a session saved in a zip is imported
+ * into a directory the first time it is used.
  */
 class Session {
 
@@ -66,7 +70,7 @@ class Session {
             (PrivilegedAction<Boolean>) () -> Boolean.getBoolean(Jttp.SYS_PROP_KEEP_TEMP_FILES));
 
     private static final Collection<String> RESTRICTED_HEADERS =
-            Set.of("Host", "Connection", "Set-Cookie");
+            Set.of("Host", "Connection", "Set-Cookie", "If-None-Match", "If-Modified-Since");
 
     private static final Integer DEFAULT_INDENT = 2;
 
@@ -78,83 +82,331 @@ class Session {
 
     private static final Map<String, String> SAVE_ENV = Map.of("create", "true");
 
-    private final URI sessionFsUri;
+    private static final List<String> STATE_FILES =
+            List.of("cookies.xml", "headers.xml", "auth.properties", "token.properties");
+
+    private final SessionStore store;
 
-    private final HttpURLConnection conn;
+    private final Path legacyZip;
+
+    private final Path lockPath;
+
+    private HttpURLConnection conn;
 
     // Maybe make this an option later, for now hardcode as on.
     private final boolean formatSessionXml = true;
 
-    private Document history;
+    private boolean legacyZipChecked;
+
+    private Properties authState = new Properties();
+
+    private Properties tokenState = new Properties();
 
     Session(String sessionName, HttpURLConnection conn) throws URISyntaxException {
-        this.sessionFsUri = initSessionFsUri(sessionName, conn.getURL().toURI());
+        this(getHostDirectory(conn.getURL().toURI()), sessionName, conn);
+    }
+
+    /**
+     * Constructs a new Session saved in the given directory instead of the host's sessions
+     * directory.
+     * 
+     * @param hostDir     the directory the session's files are saved in.
+     * @param sessionName the session name.
+     * @param conn        the HttpURLConnection.
+     */
+    Session(Path hostDir, String sessionName, HttpURLConnection conn) {
+        this.store = new SessionStore(hostDir.resolve(sessionName));
+        this.legacyZip = hostDir.resolve(sessionName + ".zip");
+        this.lockPath = hostDir.resolve(sessionName + ".lock");
         this.conn = conn;
     }
 
+    /**
+     * Replaces the connection this Session saves data from, used when Jttp reconnects (for
+     * example to serve a revalidated response from the cache).
+     * 
+     * @param conn the HttpURLConnection.
+     */
+    void setConnection(HttpURLConnection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * @return the authentication state loaded from the session, possibly empty.
+     */
+    Properties getAuthState() {
+        return authState;
+    }
+
+    /**
+     * Sets the authentication state to save with the session.
+     * 
+     * @param authState the authentication state (never credentials).
+     */
+    void setAuthState(Properties authState) {
+        this.authState = authState;
+    }
+
+    /**
+     * @return the OAuth 2.0 token state loaded with the session, possibly empty.
+     */
+    Properties getTokenState() {
+        return tokenState;
+    }
+
+    /**
+     * Reads the OAuth 2.0 token state from the session file again, picking up a token saved by
+     * another run since this session was loaded.
+     * 
+     * @return the token state, possibly empty.
+     * @throws IOException if an IOException occurs.
+     */
+    Properties loadTokenState() throws IOException {
+        tokenState = doLoadTokenState(store().state("token.properties"));
+        return tokenState;
+    }
+
+    /**
+     * Writes the OAuth 2.0 token state to the session file right away, so concurrent runs can
+     * use it before this run finishes.
+     * 
+     * @param state the token state.
+     * @throws IOException if an IOException occurs.
+     */
+    void saveTokenState(Properties state) throws IOException {
+        tokenState = state;
+        try {
+            store().writeState("token.properties", out -> state.store(out, null));
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return path of the file locked while the session's OAuth 2.0 token is refreshed.
+     */
+    Path getLockPath() {
+        return lockPath;
+    }
+
     /**
      * Load and populate session data into the different parts of the request.
      * 
      * <p>
-     * If the session file doesn't yet exist, then this method does nothing. If an IOException
-     * occurs and the session file exists, then it is thrown.
+     * If the session doesn't yet exist, then this method does nothing. If an IOException occurs
+     * and the session exists, then it is thrown.
      * 
-     * @throws IOException                  if an IOException occurs.
-     * @throws XMLStreamException           if an XMLStreamException occurs.
-     * @throws SAXException                 if a SAXException occurs.
-     * @throws ParserConfigurationException if a ParserConfigurationException occurs.
+     * @throws IOException        if an IOException occurs.
+     * @throws XMLStreamException if an XMLStreamException occurs.
      */
-    void load() throws XMLStreamException, ParserConfigurationException, SAXException, IOException {
+    void load() throws XMLStreamException, IOException {
         // Load headers into HttpURLConnection request properties
         // Set cookies in default CookieHandler's CookieStore.
-        try (var sessionFs = FileSystems.newFileSystem(sessionFsUri, LOAD_ENV)) {
-            history = getHistoryXml(sessionFs);
-            doLoadCookies(sessionFs);
-            doLoadHeaders(sessionFs);
-        } catch (FileSystemNotFoundException e) {
-            // No filesystem available since this is the first time using this so just create
-            // the starter history Xml document.
-            history = generateNewHistoryDocument();
+        var store = store();
+        doLoadCookies(store.state("cookies.xml"));
+        doLoadHeaders(store.state("headers.xml"));
+        doLoadAuthState(store.state("auth.properties"));
+        tokenState = doLoadTokenState(store.state("token.properties"));
+    }
+
+    /**
+     * Save session data. The history entry is appended, so saving takes as long as writing the
+     * response and the session's headers and cookies, however long the history is. Nothing is
+     * read from the connection, so the session can be saved on another thread while the
+     * connection is still in use.
+     * 
+     * @param exchange          the request and response, read from the connection.
+     * @param requestData       data sent as part of the request, possibly {@code null}.
+     * @param response          response from the server.
+     * @param requestProperties request properties of the connection, read before it connected.
+     * @return the entry added to the history.
+     * 
+     * @throws IOException        if an IOException occurs.
+     * @throws XMLStreamException if an XMLStreamException occurs.
+     */
+    HistoryEntry save(Exchange exchange, String requestData, File response,
+            Map<String, List<String>> requestProperties) throws IOException, XMLStreamException {
+        var store = store();
+        doSaveCookies(store, exchange.setCookies, requestProperties);
+        doSaveHeaders(store, requestProperties);
+        doSaveAuthState(store);
+        var entry = new HistoryEntry(0, Instant.now().toEpochMilli());
+        entry.method = exchange.method;
+        entry.uri = exchange.path;
+        entry.query = exchange.query;
+        entry.data = nonNull(requestData) && !requestData.isBlank() ? requestData.strip() : null;
+        entry.status = exchange.status;
+        entry.contentType = exchange.contentType;
+        entry.responseFile = response.toPath();
+        entry.responseLength = Files.size(entry.responseFile);
+        return store.append(List.of(entry)).get(0);
+    }
+
+    /**
+     * Copies the response body recorded with a history entry.
+     * 
+     * @param entry a history entry.
+     * @param out   where the body is copied to.
+     * @return {@code false} if no body was recorded with the entry.
+     * @throws IOException if an IOException occurs.
+     */
+    boolean copyResponse(HistoryEntry entry, OutputStream out) throws IOException {
+        if (isNull(entry.responseFile)) {
+            return false;
         }
+        try (var in = entry.openResponse()) {
+            in.transferTo(out);
+        }
+        return true;
     }
 
     /**
-     * Save session data.
+     * Writes the session in the zip layout it used to be saved in: {@code history.xml}, a file
+     * named {@code entry-ID-TIMESTAMP} per recorded response and the session's state files.
      * 
-     * @param requestData data sent as part of the request, possibly {@code null}.
-     * @param response    response from the server.
+     * @param zip the zip file, replaced if it exists.
+     * @throws IOException        if an IOException occurs.
+     * @throws XMLStreamException if an XMLStreamException occurs.
+     */
+    void exportZip(Path zip) throws IOException, XMLStreamException {
+        var store = store();
+        var historyXml = File.createTempFile("history", ".xml");
+        if (DELETE_TEMPFILES) {
+            historyXml.deleteOnExit();
+        }
+        Files.deleteIfExists(zip);
+        try (var sessionFs = newZipFileSystem(zip, SAVE_ENV)) {
+            try (var outfile = Files.newOutputStream(historyXml.toPath())) {
+                var xsw = XMLOutputFactory.newInstance().createXMLStreamWriter(outfile, "utf-8");
+                xsw.writeStartDocument("utf-8", "1.0");
+                doFormat(xsw, 0);
+                xsw.writeStartElement("jttp_history");
+                store.read(entry -> {
+                    doFormat(xsw, 1);
+                    writeHistoryEntry(xsw, entry);
+                    if (nonNull(entry.responseFile)) {
+                        try (var in = entry.openResponse()) {
+                            Files.copy(in, sessionFs
+                                    .getPath(format("/entry-%d-%d", entry.id, entry.timestamp)));
+                        }
+                    }
+                });
+                doFormat(xsw, 0);
+                xsw.writeEndElement();
+                xsw.writeEndDocument();
+                xsw.close();
+            }
+            Files.copy(historyXml.toPath(), sessionFs.getPath("/history.xml"));
+            for (var name : STATE_FILES) {
+                if (Files.exists(store.state(name))) {
+                    Files.copy(store.state(name), sessionFs.getPath("/" + name));
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the history of a session exported to a zip file to this session's history, with
+     * new ids, and replaces this session's headers, cookies and authentication state with the
+     * exported ones.
      * 
-     * @throws IOException                          if an IOException occurs.
-     * @throws XMLStreamException                   if an XMLStreamException occurs.
-     * @throws TransformerException                 if a TransformerException occurs.
-     * @throws TransformerFactoryConfigurationError if a TransformerFactoryConfigurationError
-     *                                              occurs.
-     */
-    void save(String requestData, File response) throws IOException, XMLStreamException,
-            TransformerFactoryConfigurationError, TransformerException {
-        var timeOfRun = Instant.now();
-        // Create the filesystem
-        try (var sessionFs = FileSystems.newFileSystem(sessionFsUri, SAVE_ENV)) {
-            doSaveCookies(sessionFs);
-            doSaveHeaders(sessionFs);
-            var entryId = doUpdateAndSaveHistory(sessionFs, requestData, timeOfRun);
-            doSaveResponseData(sessionFs, response, timeOfRun, entryId);
+     * @param zip the zip file.
+     * @throws IOException        if an IOException occurs.
+     * @throws XMLStreamException if an XMLStreamException occurs.
+     */
+    void importZip(Path zip) throws IOException, XMLStreamException {
+        importZip(zip, store());
+    }
+
+    /**
+     * @return the store, after importing the session's legacy zip file into it the first time it
+     *         is used if the store doesn't exist yet.
+     * @throws IOException if an IOException occurs.
+     */
+    private SessionStore store() throws IOException {
+        if (!legacyZipChecked) {
+            legacyZipChecked = true;
+            if (!store.exists() && Files.exists(legacyZip)) {
+                importLegacyZip();
+            }
         }
+        return store;
     }
 
     /**
-     * Loads a file named {@code cookies.xml} in the session zip file.
+     * Imports the legacy zip file into a new directory and renames it to the store's, so a run
+     * never sees a half imported session. If another run imported it first, that import is kept.
+     * The zip file is left as it is and no longer updated.
+     * 
+     * @throws IOException if an IOException occurs.
+     */
+    private void importLegacyZip() throws IOException {
+        var staging = new SessionStore(Files.createTempDirectory(legacyZip.getParent(),
+                store.getDirectory().getFileName() + ".import"));
+        try {
+            importZip(legacyZip, staging);
+            try {
+                Files.move(staging.getDirectory(), store.getDirectory(), ATOMIC_MOVE);
+                Jttp.LOGGER.log(INFO, "logger.info.session.imported", legacyZip,
+                        store.getDirectory());
+            } catch (FileSystemException e) {
+                // Renaming onto a directory that isn't empty doesn't always throw a
+                // DirectoryNotEmptyException, so check whether another run imported it first.
+                if (!store.exists()) {
+                    throw e;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            if (Files.exists(staging.getDirectory())) {
+                try (var paths = Files.walk(staging.getDirectory())) {
+                    for (var path : paths.sorted(reverseOrder()).collect(toList())) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+    }
+
+    private void importZip(Path zip, SessionStore target) throws IOException, XMLStreamException {
+        try (var sessionFs = newZipFileSystem(zip, LOAD_ENV)) {
+            var entries = new ArrayList<HistoryEntry>();
+            readZipHistory(sessionFs, entries::add);
+            target.append(entries);
+            for (var name : STATE_FILES) {
+                var file = sessionFs.getPath("/" + name);
+                if (Files.exists(file)) {
+                    target.writeState(name, out -> Files.copy(file, out));
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a zip file as a FileSystem of its own. Unlike one opened by URI, it isn't registered
+     * for the whole process, so several runs can open the same zip file at once.
+     */
+    private static FileSystem newZipFileSystem(Path zip, Map<String, String> env)
+            throws IOException {
+        return FileSystems.newFileSystem(zip, env);
+    }
+
+    /**
+     * Loads a {@code cookies.xml} file of the session if it exists.
      * 
      * <p>
      * Cookies are added to the HttpURLConnection in this Session.
      * 
-     * @param sessionFs the pseudo FileSystem of the zip file.
+     * @param cookiesXml the file.
      * @throws IOException        if an IOException occurs.
      * @throws XMLStreamException if an XMLStreamException.
      */
-    private void doLoadCookies(FileSystem sessionFs) throws IOException, XMLStreamException {
-        var cookiesXml = sessionFs.getPath("/cookies.xml");
-        try (var infile = cookiesXml.toUri().toURL().openStream()) {
+    private void doLoadCookies(Path cookiesXml) throws IOException, XMLStreamException {
+        if (!Files.exists(cookiesXml)) {
+            return;
+        }
+        try (var infile = Files.newInputStream(cookiesXml)) {
             var xmlIf = XMLInputFactory.newInstance();
             var xmlEvR = xmlIf.createXMLEventReader(infile);
             var qCNm = new QName("name");
@@ -235,18 +487,20 @@ class Session {
     }
 
     /**
-     * Loads a file named {@code headers.xml} in the session zip file.
+     * Loads a {@code headers.xml} file of the session if it exists.
      * 
      * <p>
      * Headers in the XML file are added to the HttpURLConnection in this Session.
      * 
-     * @param sessionFs the pseudo FileSystem of the zip file.
+     * @param headersXml the file.
      * @throws IOException        if an IOException occurs.
      * @throws XMLStreamException if an XMLStreamException.
      */
-    private void doLoadHeaders(FileSystem sessionFs) throws IOException, XMLStreamException {
-        var headersXml = sessionFs.getPath("/headers.xml");
-        try (var infile = headersXml.toUri().toURL().openStream()) {
+    private void doLoadHeaders(Path headersXml) throws IOException, XMLStreamException {
+        if (!Files.exists(headersXml)) {
+            return;
+        }
+        try (var infile = Files.newInputStream(headersXml)) {
             var xmlIf = XMLInputFactory.newInstance();
             var xmlEvR = xmlIf.createXMLEventReader(infile);
             var qNm = new QName("name");
@@ -281,222 +535,168 @@ class Session {
     }
 
     /**
-     * Instantiates the history document for this Session.
-     * 
-     * <p>
-     * First, try to read an existing history document on the Session FileSystem. Failing that,
-     * generate a new one.
+     * Loads an {@code auth.properties} file of the session if it exists.
      * 
-     * @param sessionFs the Session FileSystem.
-     * 
-     * @return Document containing history data.
-     * 
-     * @throws IOException                  if an IOException occurs.
-     * @throws MalformedURLException        if a MalformedURLException occurs.
-     * @throws ParserConfigurationException if a ParserConfigurationException occurs.
-     * @throws SAXException                 if a SAXException occurs.
+     * @param authProperties the file.
+     * @throws IOException if an IOException occurs.
      */
-    private Document getHistoryXml(FileSystem sessionFs)
-            throws ParserConfigurationException, MalformedURLException, SAXException, IOException {
-        var historyXml = sessionFs.getPath("/history.xml");
-        Document histDoc = null;
-        var dbf = DocumentBuilderFactory.newInstance();
-        var histDb = dbf.newDocumentBuilder();
-        if (Files.exists(historyXml)) {
-            try (var xmlIn = historyXml.toUri().toURL().openStream()) {
-                histDoc = histDb.parse(xmlIn);
-            } catch (Exception e) {
-                // Something's wrong so log it and generate a new history document.
-                Jttp.LOGGER.log(WARNING, "logger.warning.xml.history.error", e);
-                generateNewHistoryDocument(histDb);
+    private void doLoadAuthState(Path authProperties) throws IOException {
+        if (Files.exists(authProperties)) {
+            try (var in = Files.newInputStream(authProperties)) {
+                authState.load(in);
             }
-        } else {
-            histDoc = generateNewHistoryDocument(histDb);
         }
-        return histDoc;
-    }
-
-    /**
-     * @return Document containing root element for history data.
-     */
-    private Document generateNewHistoryDocument() throws ParserConfigurationException {
-        var dbf = DocumentBuilderFactory.newInstance();
-        return generateNewHistoryDocument(dbf.newDocumentBuilder());
-    }
-
-    /**
-     * @param db a DocumentBuilder.
-     * @return Document containing root element for history data.
-     */
-    private Document generateNewHistoryDocument(DocumentBuilder db) {
-        var histDoc = db.newDocument();
-        var root = histDoc.createElement("jttp_history");
-        histDoc.appendChild(root);
-        return histDoc;
     }
 
     /**
-     * Adds an entry with the appropriate ID and saves it to the Session FileSystem.
-     * 
-     * @param sessionFs   FileSystem to write the history document to.
-     * @param requestData data sent by the request, possibly null or empty.
-     * @param timeOfRun   Instant the request is being recorded.
+     * Loads a {@code token.properties} file of the session if it exists.
      * 
-     * @return the ID of the entry appended to the history.
-     * 
-     * @throws IOException                          if an IOException occurs.
-     * @throws TransformerFactoryConfigurationError if a TransformerFactoryConfigurationError
-     *                                              occurs.
-     * @throws TransformerException                 if a TransformerException occurs.
-     */
-    private int doUpdateAndSaveHistory(FileSystem sessionFs, String requestData, Instant timeOfRun)
-            throws IOException, TransformerFactoryConfigurationError, TransformerException {
-        var root = history.getDocumentElement(); // jttp_history
-        var id = 1;
-        var elts = root.getElementsByTagName("entry");
-        if (nonNull(elts) && elts.getLength() > 0) {
-            for (int i = 0; i < elts.getLength(); i++) {
-                var entry = (Element) elts.item(i);
-                var entryId = Integer.valueOf(entry.getAttribute("id"));
-                id = Math.max(id, entryId);
+     * @param tokenProperties the file.
+     * @return the token state, possibly empty.
+     * @throws IOException if an IOException occurs.
+     */
+    private Properties doLoadTokenState(Path tokenProperties) throws IOException {
+        var state = new Properties();
+        if (Files.exists(tokenProperties)) {
+            try (var in = Files.newInputStream(tokenProperties)) {
+                state.load(in);
             }
-            id++;
         }
-        root.appendChild(createEntry(id, requestData, timeOfRun));
-        writeHistory(sessionFs);
-        return id;
+        return state;
     }
 
     /**
-     * Creates an Entry in the history document.
-     * 
-     * @param id          the ID for the entry.
-     * @param requestData data sent by the request, possibly null or empty.
-     * @param timeOfRun   Instant the request is being recorded.
-     * @return the entry Node.
+     * Reads the entries of the history one at a time, in the order they were recorded, without
+     * loading the whole history. The response body recorded with an entry stays readable while the
+     * session exists.
      * 
-     * @throws IOException if an IOException occurs.
+     * @param visitor called with each entry.
+     * @throws IOException        if an IOException occurs or the visitor throws one.
+     * @throws XMLStreamException if an XMLStreamException occurs or the visitor throws one.
      */
-    private Node createEntry(int id, String requestData, Instant timeOfRun) throws IOException {
-        var entry = history.createElement("entry");
-        entry.setAttribute("id", Integer.toString(id));
-        entry.setAttribute("timestamp", Long.toString(timeOfRun.toEpochMilli()));
-
-        var request = history.createElement("request");
-
-        var method = history.createElement("method");
-        var methodText = history.createTextNode(conn.getRequestMethod());
-        method.appendChild(methodText);
-        request.appendChild(method);
-
-        var uri = history.createElement("uri");
-        var uriText = history.createTextNode(conn.getURL().getPath());
-        uri.appendChild(uriText);
-        request.appendChild(uri);
-
-        if (nonNull(conn.getURL().getQuery())) {
-            var query = history.createElement("query");
-            var queryString = history.createCDATASection(conn.getURL().getQuery());
-            query.appendChild(queryString);
-            request.appendChild(query);
-        }
-
-        if (nonNull(requestData) && !requestData.isEmpty() && !requestData.isBlank()) {
-            var data = history.createElement("data");
-            var dataString = history.createCDATASection(requestData);
-            data.appendChild(dataString);
-            request.appendChild(data);
-        }
-        entry.appendChild(request);
-
-        var response = history.createElement("response");
-
-        var status = history.createElement("status");
-        var statuscode = history.createTextNode(Integer.toString(conn.getResponseCode()));
-        status.appendChild(statuscode);
-        response.appendChild(status);
-
-        if (nonNull(conn.getHeaderField("Content-Type"))) {
-            var contentType = history.createElement("content_type");
-            var contentTypeString = history.createTextNode(conn.getHeaderField("Content-Type"));
-            contentType.appendChild(contentTypeString);
-            response.appendChild(contentType);
-        }
-
-        entry.appendChild(response);
-        return entry;
+    void readHistory(HistoryVisitor visitor) throws IOException, XMLStreamException {
+        store().read(visitor);
     }
 
     /**
-     * Writes the history to the Session FileSystem.
-     * 
-     * @param sessionFs where to write the history.
+     * Reads the {@code history.xml} file of a session zip file if it exists. An entry's response
+     * is the {@code entry-ID-TIMESTAMP} file in the zip file, readable while it is open.
      * 
-     * @throws IOException                          if an IOException occurs.
-     * @throws TransformerFactoryConfigurationError if a TransformerFactoryConfigurationError
-     *                                              occurs.
-     * @throws TransformerException                 if a TransformerException occurs.
+     * @param sessionFs the pseudo FileSystem of the zip file.
+     * @param visitor   called with each entry.
+     * @throws IOException        if an IOException occurs or the visitor throws one.
+     * @throws XMLStreamException if an XMLStreamException occurs or the visitor throws one.
      */
-    private void writeHistory(FileSystem sessionFs)
-            throws TransformerFactoryConfigurationError, TransformerException, IOException {
-        var historyXml = File.createTempFile("history", ".xml");
-        if (DELETE_TEMPFILES) {
-            historyXml.deleteOnExit();
+    private void readZipHistory(FileSystem sessionFs, HistoryVisitor visitor)
+            throws IOException, XMLStreamException {
+        var historyXml = sessionFs.getPath("/history.xml");
+        if (!Files.exists(historyXml)) {
+            return;
+        }
+        try (var infile = Files.newInputStream(historyXml)) {
+            var xmlEvR = XMLInputFactory.newInstance().createXMLEventReader(infile);
+            var qId = new QName("id");
+            var qTimestamp = new QName("timestamp");
+            HistoryEntry entry = null;
+            while (xmlEvR.hasNext()) {
+                var xmlEv = xmlEvR.nextEvent();
+                if (xmlEv.isStartElement()) {
+                    var se = xmlEv.asStartElement();
+                    var currEltNm = se.getName().getLocalPart();
+                    if (currEltNm.equals("entry")) {
+                        entry = new HistoryEntry(
+                                Integer.parseInt(se.getAttributeByName(qId).getValue()),
+                                Long.parseLong(se.getAttributeByName(qTimestamp).getValue()));
+                    } else if (nonNull(entry) && currEltNm.equals("method")) {
+                        entry.method = xmlEvR.getElementText().trim();
+                    } else if (nonNull(entry) && currEltNm.equals("uri")) {
+                        entry.uri = xmlEvR.getElementText().trim();
+                    } else if (nonNull(entry) && currEltNm.equals("query")) {
+                        entry.query = xmlEvR.getElementText().trim();
+                    } else if (nonNull(entry) && currEltNm.equals("data")) {
+                        entry.data = xmlEvR.getElementText().strip();
+                    } else if (nonNull(entry) && currEltNm.equals("status")) {
+                        entry.status = Integer.parseInt(xmlEvR.getElementText().trim());
+                    } else if (nonNull(entry) && currEltNm.equals("content_type")) {
+                        entry.contentType = xmlEvR.getElementText().trim();
+                    }
+                } else if (xmlEv.isEndElement() && nonNull(entry)
+                        && xmlEv.asEndElement().getName().getLocalPart().equals("entry")) {
+                    var response = sessionFs.getPath(
+                            format("/entry-%d-%d", entry.id, entry.timestamp));
+                    if (Files.exists(response)) {
+                        entry.responseFile = response;
+                        entry.responseLength = Files.size(response);
+                    }
+                    visitor.visit(entry);
+                    entry = null;
+                }
+            }
         }
-
-        var formatted = Util.formatMarkup(new DOMSource(history));
-        var historyXmlAsPath = Paths.get(historyXml.toURI());
-        Files.writeString(historyXmlAsPath, formatted, CREATE);
-        var historyXmlInSession = sessionFs.getPath("/history.xml");
-        Files.copy(historyXmlAsPath, historyXmlInSession, REPLACE_EXISTING);
     }
 
     /**
-     * Writes the response data to a file in the Session FileSystem.
-     * 
-     * <p>
-     * File name has the format {@code entry-[ID]-[timeOfRunInMillis]}.
-     * 
-     * @param sessionFs the Session FileSystem.
-     * @param response  the response data File.
-     * @param timeOfRun Instant the request is being recorded.
-     * @param entryId   Id for the entry.
+     * Writes a history entry as an {@code entry} element of {@code history.xml}.
      * 
-     * @throws IOException if an IOException occurs.
+     * @param xsw   the XMLStreamWriter.
+     * @param entry the history entry.
+     * @throws XMLStreamException if an XMLStreamException occurs.
      */
-    private void doSaveResponseData(FileSystem sessionFs, File response, Instant timeOfRun,
-            int entryId) throws IOException {
-        var responseAsPath = Paths.get(response.toURI());
-        var responseInSession =
-                sessionFs.getPath(format("/entry-%d-%d", entryId, timeOfRun.toEpochMilli()));
-        Files.copy(responseAsPath, responseInSession, REPLACE_EXISTING);
+    private void writeHistoryEntry(XMLStreamWriter xsw, HistoryEntry entry)
+            throws XMLStreamException {
+        xsw.writeStartElement("entry");
+        xsw.writeAttribute("id", Integer.toString(entry.id));
+        xsw.writeAttribute("timestamp", Long.toString(entry.timestamp));
+        doFormat(xsw, 2);
+        xsw.writeStartElement("request");
+        doFormat(xsw, 3);
+        writeXmlElement(xsw, "method", entry.method);
+        doFormat(xsw, 3);
+        writeXmlElement(xsw, "uri", entry.uri);
+        if (nonNull(entry.query)) {
+            doFormat(xsw, 3);
+            writeXmlElement(xsw, "query", entry.query);
+        }
+        if (nonNull(entry.data)) {
+            doFormat(xsw, 3);
+            writeXmlElement(xsw, "data", entry.data);
+        }
+        doFormat(xsw, 2);
+        xsw.writeEndElement(); // request
+        doFormat(xsw, 2);
+        xsw.writeStartElement("response");
+        doFormat(xsw, 3);
+        writeXmlElement(xsw, "status", Integer.toString(entry.status));
+        if (nonNull(entry.contentType)) {
+            doFormat(xsw, 3);
+            writeXmlElement(xsw, "content_type", entry.contentType);
+        }
+        doFormat(xsw, 2);
+        xsw.writeEndElement(); // response
+        doFormat(xsw, 1);
+        xsw.writeEndElement(); // entry
     }
 
     /**
-     * Save a file named {@code cookies.xml} in the session zip file.
+     * Save a file named {@code cookies.xml} in the session store.
      * 
-     * @param sessionFs the psuedo FileSystem of the zip file.
+     * @param store             the session store.
+     * @param responseCookies   values of the response's {@code Set-Cookie} headers.
+     * @param requestProperties request properties holding the cookies sent.
      * @throws IOException        if an IOException occurs.
      * @throws XMLStreamException if an XMLStreamException.
      */
-    private void doSaveCookies(FileSystem sessionFs) throws IOException, XMLStreamException {
-        var cookiesXml = File.createTempFile("cookies", ".xml");
-        if (DELETE_TEMPFILES) {
-            cookiesXml.deleteOnExit();
-        }
-        // Go through the response headers, filter out the Set-Cookie header(s), create
-        // a flat List containing only the values from the Set-Cookie header(s).
-        var setCookies = conn.getHeaderFields().entrySet().stream()
-                .filter(e -> "Set-Cookie".equals(e.getKey())).map(e -> e.getValue())
-                .collect(toList()).stream().flatMap(List::stream).collect(toList());
+    private void doSaveCookies(SessionStore store, List<String> responseCookies,
+            Map<String, List<String>> requestProperties) throws IOException, XMLStreamException {
+        var setCookies = new ArrayList<String>(responseCookies);
         // Check the request headers as well and add those too.
-        setCookies.addAll(conn.getRequestProperties().entrySet().stream()
+        setCookies.addAll(requestProperties.entrySet().stream()
                 .filter(e -> "Cookie".equals(e.getKey())).map(e -> e.getValue()).collect(toList())
                 .stream().flatMap(List::stream).collect(toList()));
 
-        try (var outfile = new FileWriter(cookiesXml)) {
+        store.writeState("cookies.xml", outfile -> {
             var xmlOf = XMLOutputFactory.newInstance();
-            var xsw = xmlOf.createXMLStreamWriter(outfile);
+            var xsw = xmlOf.createXMLStreamWriter(outfile, "utf-8");
             xsw.writeStartDocument("utf-8", "1.0");
             doFormat(xsw, 0);
             if (setCookies.isEmpty()) {
@@ -568,36 +768,32 @@ class Session {
                 }
             }
             xsw.writeEndDocument();
-        }
-        var cookiesXmlAsPath = Paths.get(cookiesXml.toURI());
-        var cookiesXmlInSession = sessionFs.getPath("/cookies.xml");
-        Files.copy(cookiesXmlAsPath, cookiesXmlInSession, REPLACE_EXISTING);
+            xsw.close();
+        });
     }
 
     /**
-     * Save a file named {@code headers.xml} in the session zip file.
+     * Save a file named {@code headers.xml} in the session store.
      * 
-     * @param sessionFs the psuedo FileSystem of the zip file.
+     * @param store             the session store.
+     * @param requestProperties request properties to save as headers.
      * @throws IOException        if an IOException occurs.
      * @throws XMLStreamException if an XMLStreamException occurs.
      */
-    private void doSaveHeaders(FileSystem sessionFs) throws IOException, XMLStreamException {
-        var headersXml = File.createTempFile("headers", ".xml");
-        if (DELETE_TEMPFILES) {
-            headersXml.deleteOnExit();
-        }
-        try (var outfile = new FileWriter(headersXml)) {
+    private void doSaveHeaders(SessionStore store, Map<String, List<String>> requestProperties)
+            throws IOException, XMLStreamException {
+        store.writeState("headers.xml", outfile -> {
             var xmlOf = XMLOutputFactory.newInstance();
-            XMLStreamWriter xsw = xmlOf.createXMLStreamWriter(outfile);
+            XMLStreamWriter xsw = xmlOf.createXMLStreamWriter(outfile, "utf-8");
             xsw.writeStartDocument("utf-8", "1.0");
             doFormat(xsw, 0);
-            if (conn.getRequestProperties().isEmpty()) {
+            if (requestProperties.isEmpty()) {
                 xsw.writeEmptyElement("jttp_headers");
             } else {
                 xsw.writeStartElement("jttp_headers");
                 var indentLevel = 1;
                 doFormat(xsw, indentLevel);
-                var reqProps = conn.getRequestProperties().entrySet().stream()
+                var reqProps = requestProperties.entrySet().stream()
                         .filter(e -> !RESTRICTED_HEADERS.contains(e.getKey())
                                 && nonNull(e.getValue().get(0)))
                         .collect(toMap(e -> e.getKey(), e -> e.getValue()));
@@ -629,10 +825,22 @@ class Session {
                 xsw.writeEndElement();
             }
             xsw.writeEndDocument();
+            xsw.close();
+        });
+    }
+
+    /**
+     * Save a file named {@code auth.properties} in the session store if there is any
+     * authentication state.
+     * 
+     * @param store the session store.
+     * @throws IOException        if an IOException occurs.
+     * @throws XMLStreamException if an XMLStreamException occurs.
+     */
+    private void doSaveAuthState(SessionStore store) throws IOException, XMLStreamException {
+        if (!authState.isEmpty()) {
+            store.writeState("auth.properties", out -> authState.store(out, null));
         }
-        var headersXmlAsPath = Paths.get(headersXml.toURI());
-        var headersXmlInSession = sessionFs.getPath("/headers.xml");
-        Files.copy(headersXmlAsPath, headersXmlInSession, REPLACE_EXISTING);
     }
 
     /**
@@ -676,18 +884,161 @@ class Session {
     }
 
     /**
-     * @param sessionName name for the session zip file.
-     * @param url         the URI for the Jttp request.
-     * 
-     * @return a URI for the zip file to use as the basis for a pseudo FileSystem object.
+     * @param url a request URI.
+     * @return the directory session files for the URI's host are saved in.
      */
-    private URI initSessionFsUri(String sessionName, URI url) {
+    static Path getHostDirectory(URI url) {
         var hostDir =
                 url.getPort() != -1 ? format("%s_%d", url.getHost(), url.getPort()) : url.getHost();
-        var saveDir = Paths.get(Util.getSessionsDirectory(), hostDir);
-        if (!saveDir.toFile().exists()) {
-            saveDir.toFile().mkdirs();
+        return Paths.get(Util.getSessionsDirectory(), hostDir);
+    }
+
+    /**
+     * Handles the entries of the history as they are read.
+     */
+    interface HistoryVisitor {
+
+        /**
+         * @param entry the next entry.
+         * @throws IOException        if an IOException occurs.
+         * @throws XMLStreamException if an XMLStreamException occurs.
+         */
+        void visit(HistoryEntry entry) throws IOException, XMLStreamException;
+    }
+
+    /**
+     * What saving the session needs from a connection, read on the thread that uses the
+     * connection.
+     */
+    static class Exchange {
+
+        final String method;
+
+        final String path;
+
+        final String query;
+
+        final int status;
+
+        final String contentType;
+
+        final List<String> setCookies;
+
+        /**
+         * Reads the request and response from a connection.
+         *
+         * @param conn the connection, with its response.
+         * @throws IOException if an IOException occurs.
+         */
+        Exchange(HttpURLConnection conn) throws IOException {
+            method = conn.getRequestMethod();
+            path = conn.getURL().getPath();
+            query = conn.getURL().getQuery();
+            status = conn.getResponseCode();
+            contentType = conn.getHeaderField("Content-Type");
+            // Flatten the values of the Set-Cookie header(s).
+            setCookies = conn.getHeaderFields().entrySet().stream()
+                    .filter(e -> "Set-Cookie".equals(e.getKey())).map(e -> e.getValue())
+                    .flatMap(List::stream).collect(toList());
+        }
+    }
+
+    /**
+     * A request recorded in the history, the status and content type of its response and where
+     * the response body is stored.
+     */
+    static class HistoryEntry {
+
+        final int id;
+
+        final long timestamp;
+
+        String method = "GET";
+
+        String uri = "/";
+
+        String query;
+
+        String data;
+
+        int status;
+
+        String contentType;
+
+        /** The file the response body is stored in, {@code null} if none was recorded. */
+        Path responseFile;
+
+        long responseOffset;
+
+        long responseLength;
+
+        HistoryEntry(int id, long timestamp) {
+            this.id = id;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return the response body.
+         * @throws IOException if an IOException occurs.
+         */
+        InputStream openResponse() throws IOException {
+            var channel = Files.newByteChannel(responseFile);
+            channel.position(responseOffset);
+            return new BoundedInputStream(Channels.newInputStream(channel), responseLength);
+        }
+    }
+
+    /**
+     * Reads no more than a number of bytes from the stream it wraps.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            var b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            var n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            var skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
         }
-        return URI.create(format("jar:file:%s/%s.zip", saveDir.toString(), sessionName));
     }
 }
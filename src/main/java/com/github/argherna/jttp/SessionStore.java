@@ -0,0 +1,358 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * The files of a session in a directory: append-only segment files holding the history, a small
+ * manifest saying how much of the segments is committed, and the session's state files.
+ *
+ * <p>
+ * A history entry is saved by appending a record (the request, the status and content type of the
+ * response, and the response body) to the last segment, forcing it to disk, and then replacing the
+ * manifest with one holding the new committed length. Saving costs as much as the new data,
+ * however long the history is. Readers only read the committed part of a segment, so a save
+ * that didn't finish is never seen and is overwritten by the next one. A segment isn't appended to
+ * once it is larger than {@value #SEGMENT_SIZE} bytes; a new one is started instead.
+ *
+ * <p>
+ * State files (cookies, headers, authentication and token state) are small and replaced whole.
+ * Every file is written next to the one it replaces and renamed over it, so a reader sees either
+ * the old or the new version. Appends are serialized within the process and, with a lock on
+ * {@code store.lock}, between processes.
+ */
+class SessionStore {
+
+    private static final int RECORD_MAGIC = 0x4a545450; // JTTP
+
+    static final int SEGMENT_SIZE = 0x4000000;
+
+    private static final String MANIFEST = "manifest.properties";
+
+    private static final Map<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path directory;
+
+    /**
+     * Constructs a new SessionStore. Nothing is created until something is saved.
+     *
+     * @param directory the directory of the session.
+     */
+    SessionStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the directory of the session.
+     */
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return {@code true} if the directory of the session exists.
+     */
+    boolean exists() {
+        return Files.isDirectory(directory);
+    }
+
+    /**
+     * @param name a state file name.
+     * @return the state file, which may not exist.
+     */
+    Path state(String name) {
+        return directory.resolve(name);
+    }
+
+    /**
+     * Replaces a state file.
+     *
+     * @param name   the state file name.
+     * @param writer writes the new content.
+     * @throws IOException        if an IOException occurs.
+     * @throws XMLStreamException if the writer throws one.
+     */
+    void writeState(String name, StateWriter writer) throws IOException, XMLStreamException {
+        Files.createDirectories(directory);
+        var temp = Files.createTempFile(directory, name, ".tmp");
+        try {
+            try (var channel = FileChannel.open(temp, WRITE)) {
+                var out = Channels.newOutputStream(channel);
+                writer.write(out);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, state(name), REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Appends entries to the history and commits them together. Each entry's response is read
+     * from where the entry says it is and copied into the store.
+     *
+     * @param entries entries with their request, response status and content type, timestamp and
+     *                response; their ids are ignored.
+     * @return the appended entries, with the ids they were given and their response in the store.
+     * @throws IOException if an IOException occurs.
+     */
+    List<Session.HistoryEntry> append(List<Session.HistoryEntry> entries) throws IOException {
+        Files.createDirectories(directory);
+        var lock = LOCKS.computeIfAbsent(directory.toAbsolutePath().normalize(),
+                d -> new ReentrantLock());
+        lock.lock();
+        try (var lockChannel = FileChannel.open(directory.resolve("store.lock"), CREATE, WRITE)) {
+            // Released when the channel is closed.
+            lockChannel.lock();
+            var manifest = readManifest();
+            var appended = new ArrayList<Session.HistoryEntry>(entries.size());
+            var segment = manifest.lengths.size();
+            if (segment == 0 || manifest.lengths.get(segment - 1) >= SEGMENT_SIZE) {
+                manifest.lengths.add(0L);
+                segment++;
+            }
+            var segmentPath = segment(segment);
+            try (var channel = FileChannel.open(segmentPath, CREATE, WRITE)) {
+                var position = manifest.lengths.get(segment - 1);
+                // Bytes past the committed length are left by a save that didn't finish.
+                channel.truncate(position);
+                for (var entry : entries) {
+                    var record = new Session.HistoryEntry(manifest.nextId++, entry.timestamp);
+                    record.method = entry.method;
+                    record.uri = entry.uri;
+                    record.query = entry.query;
+                    record.data = entry.data;
+                    record.status = entry.status;
+                    record.contentType = entry.contentType;
+                    var length = nonNull(entry.responseFile) ? entry.responseLength : -1;
+                    var header = encodeHeader(record, length);
+                    var buffer = ByteBuffer.allocate(8 + header.length);
+                    buffer.putInt(RECORD_MAGIC).putInt(header.length).put(header).flip();
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    if (length >= 0) {
+                        record.responseFile = segmentPath;
+                        record.responseOffset = position;
+                        record.responseLength = length;
+                        channel.position(position);
+                        try (var in = entry.openResponse()) {
+                            var copied = in.transferTo(Channels.newOutputStream(channel));
+                            if (copied != length) {
+                                throw new IOException(MessageFormat.format(
+                                        Jttp.RB.getString("error.session.store.body"),
+                                        entry.responseFile, length, copied));
+                            }
+                        }
+                        position += length;
+                    }
+                    appended.add(record);
+                }
+                channel.force(true);
+                manifest.lengths.set(segment - 1, position);
+            }
+            writeManifest(manifest);
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the committed entries of the history one at a time, in the order they were appended.
+     * An entry's response stays readable as long as the store exists.
+     *
+     * @param visitor called with each entry.
+     * @throws IOException        if an IOException occurs or the visitor throws one.
+     * @throws XMLStreamException if the visitor throws one.
+     */
+    void read(Session.HistoryVisitor visitor) throws IOException, XMLStreamException {
+        var manifest = readManifest();
+        for (int i = 1; i <= manifest.lengths.size(); i++) {
+            var segmentPath = segment(i);
+            var committed = manifest.lengths.get(i - 1);
+            try (var channel = FileChannel.open(segmentPath, READ)) {
+                var position = 0L;
+                while (position < committed) {
+                    var prefix = ByteBuffer.allocate(8);
+                    readFully(channel, prefix, position, segmentPath);
+                    if (prefix.getInt(0) != RECORD_MAGIC) {
+                        throw new IOException(MessageFormat.format(
+                                Jttp.RB.getString("error.session.store.damaged"), segmentPath,
+                                position));
+                    }
+                    var header = ByteBuffer.allocate(prefix.getInt(4));
+                    readFully(channel, header, position + 8, segmentPath);
+                    position += 8 + header.capacity();
+                    var entry = decodeHeader(new DataInputStream(
+                            new ByteArrayInputStream(header.array())), segmentPath, position);
+                    if (nonNull(entry.responseFile)) {
+                        position += entry.responseLength;
+                    }
+                    visitor.visit(entry);
+                }
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position,
+            Path segmentPath) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException(MessageFormat.format(
+                        Jttp.RB.getString("error.session.store.damaged"), segmentPath,
+                        position));
+            }
+        }
+    }
+
+    private static byte[] encodeHeader(Session.HistoryEntry entry, long responseLength)
+            throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(entry.id);
+        out.writeLong(entry.timestamp);
+        writeString(out, entry.method);
+        writeString(out, entry.uri);
+        writeString(out, entry.query);
+        writeString(out, entry.data);
+        out.writeInt(entry.status);
+        writeString(out, entry.contentType);
+        out.writeLong(responseLength);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Session.HistoryEntry decodeHeader(DataInput in, Path segmentPath,
+            long responseOffset) throws IOException {
+        var entry = new Session.HistoryEntry(in.readInt(), in.readLong());
+        entry.method = readString(in);
+        entry.uri = readString(in);
+        entry.query = readString(in);
+        entry.data = readString(in);
+        entry.status = in.readInt();
+        entry.contentType = readString(in);
+        var responseLength = in.readLong();
+        if (responseLength >= 0) {
+            entry.responseFile = segmentPath;
+            entry.responseOffset = responseOffset;
+            entry.responseLength = responseLength;
+        }
+        return entry;
+    }
+
+    /**
+     * Writes a string as its length in UTF-8 bytes and the bytes, {@code -1} for {@code null}.
+     * {@link DataOutput#writeUTF(String)} is limited to 64 KB, too little for request data.
+     */
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if (isNull(s)) {
+            out.writeInt(-1);
+        } else {
+            var bytes = s.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        var length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        var bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private Path segment(int number) {
+        return directory.resolve(String.format("segment-%d.dat", number));
+    }
+
+    private Manifest readManifest() throws IOException {
+        var manifest = new Manifest();
+        var path = directory.resolve(MANIFEST);
+        if (Files.exists(path)) {
+            var properties = new Properties();
+            try (var in = Files.newInputStream(path)) {
+                properties.load(in);
+            }
+            manifest.nextId = Integer.parseInt(properties.getProperty("next.id", "1"));
+            var segments = Integer.parseInt(properties.getProperty("segments", "0"));
+            for (int i = 1; i <= segments; i++) {
+                manifest.lengths.add(Long.valueOf(properties.getProperty("segment." + i
+                        + ".length", "0")));
+            }
+        }
+        return manifest;
+    }
+
+    private void writeManifest(Manifest manifest) throws IOException {
+        var properties = new Properties();
+        properties.setProperty("version", "1");
+        properties.setProperty("next.id", Integer.toString(manifest.nextId));
+        properties.setProperty("segments", Integer.toString(manifest.lengths.size()));
+        for (int i = 1; i <= manifest.lengths.size(); i++) {
+            properties.setProperty("segment." + i + ".length",
+                    Long.toString(manifest.lengths.get(i - 1)));
+        }
+        try {
+            writeState(MANIFEST, out -> properties.store(out, null));
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The next entry id and the committed length of every segment.
+     */
+    private static class Manifest {
+
+        int nextId = 1;
+
+        final List<Long> lengths = new ArrayList<>();
+    }
+
+    /**
+     * Writes the content of a state file.
+     */
+    interface StateWriter {
+
+        /**
+         * @param out where the content is written; closed by the caller.
+         * @throws IOException        if an IOException occurs.
+         * @throws XMLStreamException if an XMLStreamException occurs.
+         */
+        void write(OutputStream out) throws IOException, XMLStreamException;
+    }
+}
@@ -0,0 +1,316 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sends the same request to several targets at once and compares their responses with the first
+ * target's.
+ *
+ * <p>
+ * Every target gets the same method, headers, cookies and body. The request is sent
+ * {@code runs} times, to all targets in parallel each time, and the latencies of each target are
+ * recorded in a {@link LatencyHistogram}, from sending the request to reading the whole body.
+ *
+ * <p>
+ * Bodies are compared while they are read, by a digest: a {@link JsonDigest} for Json bodies, so
+ * member order, whitespace and the form of numbers don't matter, and a SHA-256 digest of the bytes
+ * otherwise. Only the first {@value #DIFF_LIMIT} bytes of each body are kept, to print the
+ * {@link Json#diff differences} the first time a target's Json body differs; larger bodies are
+ * only reported as different.
+ */
+class Shadow {
+
+    private static final int DIFF_LIMIT = 0x100000;
+
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final List<URL> targets;
+
+    private final int runs;
+
+    private final Target[] results;
+
+    /**
+     * Constructs a new Shadow.
+     *
+     * @param targets the URLs to send the request to, the first one being the reference.
+     * @param runs    how many times to send the request to each target.
+     */
+    Shadow(List<URL> targets, int runs) {
+        this.targets = targets;
+        this.runs = runs;
+        this.results = new Target[targets.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new Target();
+        }
+    }
+
+    /**
+     * Sends the request and prints a line per response and the report.
+     *
+     * @param connections opens connections with the request properties of the run.
+     * @param method      the request method.
+     * @param body        the request body, or {@code null} for none.
+     * @param ps          where the results are printed.
+     * @return the number of responses that were errors or differed from the first target's.
+     * @throws IOException if the run is interrupted.
+     */
+    long run(ConnectionFactory connections, String method, byte[] body,
+            PrintStream ps) throws IOException {
+        var executor = Executors.newFixedThreadPool(targets.size(), r -> {
+            var t = new Thread(r, "jttp-shadow");
+            t.setDaemon(true);
+            return t;
+        });
+        var differences = 0L;
+        try {
+            for (int run = 1; run <= runs; run++) {
+                var futures = new ArrayList<Future<Response>>();
+                for (var target : targets) {
+                    futures.add(executor.submit(() -> send(target, connections, method, body)));
+                }
+                var responses = new Response[futures.size()];
+                for (int i = 0; i < responses.length; i++) {
+                    responses[i] = futures.get(i).get();
+                }
+                differences += compare(run, responses, ps);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        report(ps);
+        return differences;
+    }
+
+    /**
+     * Sends the request to one target and digests the response body.
+     */
+    private static Response send(URL target, ConnectionFactory connections,
+            String method, byte[] body) {
+        var response = new Response();
+        var start = System.nanoTime();
+        try {
+            var conn = connections.open(target, method, nonNull(body));
+            if (nonNull(body)) {
+                conn.setFixedLengthStreamingMode(body.length);
+                try (var out = conn.getOutputStream()) {
+                    out.write(body);
+                }
+            }
+            response.status = conn.getResponseCode();
+            var in = response.status < 400 ? conn.getInputStream() : conn.getErrorStream();
+            if (isNull(in)) {
+                in = InputStream.nullInputStream();
+            } else if ("gzip".equals(conn.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            digest(conn, in, response);
+            response.micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        } catch (IOException e) {
+            response.error = e;
+        }
+        return response;
+    }
+
+    /**
+     * Reads a body to its end, digesting it and keeping its start.
+     */
+    private static void digest(HttpURLConnection conn, InputStream in, Response response)
+            throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        var contentType = conn.getContentType();
+        try (var body = new DigestInputStream(new HeadInputStream(in, response.head), md)) {
+            if (nonNull(contentType) && contentType.contains("json")) {
+                try {
+                    response.digest = JsonDigest.digest(new InputStreamReader(body, UTF_8));
+                    response.json = true;
+                } catch (IllegalArgumentException e) {
+                    // Not Json after all, compare the bytes.
+                }
+            }
+            body.transferTo(OutputStream.nullOutputStream());
+            if (!response.json) {
+                response.digest = md.digest();
+            }
+        }
+    }
+
+    /**
+     * Compares the responses of one run with the first target's and prints them.
+     *
+     * @return the number of responses that were errors or differed.
+     */
+    private long compare(int run, Response[] responses, PrintStream ps) {
+        var reference = responses[0];
+        var differences = 0L;
+        for (int i = 0; i < responses.length; i++) {
+            var response = responses[i];
+            var target = targets.get(i);
+            var result = results[i];
+            if (nonNull(response.error)) {
+                result.errors++;
+                differences++;
+                ps.println(MessageFormat.format(Jttp.RB.getString("jttp.shadow.response.error"),
+                        run, target, response.error.toString()));
+                continue;
+            }
+            result.histogram.record(response.micros);
+            result.responses++;
+            var millis = response.micros / 1000.0;
+            if (i == 0 || nonNull(reference.error)) {
+                ps.println(MessageFormat.format(Jttp.RB.getString("jttp.shadow.response"), run,
+                        target, response.status, millis));
+            } else if (response.status != reference.status) {
+                result.statusChanges++;
+                differences++;
+                ps.println(MessageFormat.format(Jttp.RB.getString("jttp.shadow.response.status"),
+                        run, target, response.status, millis, reference.status));
+            } else if (!Arrays.equals(response.digest, reference.digest)) {
+                result.bodyChanges++;
+                differences++;
+                ps.println(MessageFormat.format(Jttp.RB.getString("jttp.shadow.response.body"),
+                        run, target, response.status, millis));
+                if (!result.diffPrinted) {
+                    result.diffPrinted = true;
+                    printDiff(reference, response, ps);
+                }
+            } else {
+                ps.println(MessageFormat.format(Jttp.RB.getString("jttp.shadow.response"), run,
+                        target, response.status, millis));
+            }
+        }
+        return differences;
+    }
+
+    private static void printDiff(Response reference, Response response, PrintStream ps) {
+        if (!reference.json || !response.json) {
+            return;
+        }
+        if (reference.head.size() >= DIFF_LIMIT || response.head.size() >= DIFF_LIMIT) {
+            ps.println("  " + MessageFormat.format(Jttp.RB.getString("jttp.shadow.diff.limit"),
+                    DIFF_LIMIT));
+            return;
+        }
+        var before = Json.parse(new String(reference.head.toByteArray(), UTF_8));
+        var after = Json.parse(new String(response.head.toByteArray(), UTF_8));
+        Json.diff(before, after).forEach(change -> ps.println("  " + change));
+    }
+
+    private void report(PrintStream ps) {
+        for (int i = 0; i < results.length; i++) {
+            var result = results[i];
+            ps.println(MessageFormat.format(Jttp.RB.getString("jttp.shadow.summary"),
+                    targets.get(i), result.responses, result.errors, result.statusChanges,
+                    result.bodyChanges));
+            if (result.responses == 0) {
+                continue;
+            }
+            for (var percentile : PERCENTILES) {
+                ps.println("  " + MessageFormat.format(
+                        Jttp.RB.getString("jttp.bench.percentile"), percentile,
+                        result.histogram.getValueAtPercentile(percentile) / 1000.0));
+            }
+            ps.println("  " + MessageFormat.format(Jttp.RB.getString("jttp.bench.max"),
+                    result.histogram.getMax() / 1000.0, result.histogram.getMean() / 1000));
+        }
+    }
+
+    /**
+     * Copies the first {@value #DIFF_LIMIT} bytes read to a buffer.
+     */
+    private static class HeadInputStream extends FilterInputStream {
+
+        private final ByteArrayOutputStream head;
+
+        private HeadInputStream(InputStream in, ByteArrayOutputStream head) {
+            super(in);
+            this.head = head;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = super.read();
+            if (b != -1 && head.size() < DIFF_LIMIT) {
+                head.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var n = super.read(b, off, len);
+            if (n > 0 && head.size() < DIFF_LIMIT) {
+                head.write(b, off, Math.min(n, DIFF_LIMIT - head.size()));
+            }
+            return n;
+        }
+    }
+
+    private static class Response {
+
+        private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+
+        private int status;
+
+        private long micros;
+
+        private byte[] digest;
+
+        private boolean json;
+
+        private IOException error;
+    }
+
+    /**
+     * The results of one target over all runs.
+     */
+    private static class Target {
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private long responses;
+
+        private long errors;
+
+        private long statusChanges;
+
+        private long bodyChanges;
+
+        private boolean diffPrinted;
+    }
+}
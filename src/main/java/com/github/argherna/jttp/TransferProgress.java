@@ -0,0 +1,222 @@
+package com.github.argherna.jttp;
+
+import static java.lang.String.format;
+import static java.util.Objects.nonNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reports the progress of a long upload or download on a stream, usually stderr.
+ *
+ * <p>
+ * The copy loop only adds to a counter. A daemon thread samples the counter a few times per
+ * second and redraws a single status line with bytes done and total, instantaneous and average
+ * throughput, and the estimated time left (or a stall warning if nothing arrived for a while).
+ * Nothing is drawn for transfers that finish within the first second. When the transfer is
+ * closed, a summary line is printed if the status line was shown.
+ *
+ * <p>
+ * Progress isn't reported when {@code --no-progress} is set or the {@code jttp.progress} system
+ * property is {@code false}. {@link #start(String, long, long, PrintStream) start} then returns an
+ * instance that only counts.
+ */
+class TransferProgress implements AutoCloseable {
+
+    static final String SYS_PROP_PROGRESS = "jttp.progress";
+
+    private static final Boolean ENABLED = AccessController.doPrivileged(
+            (PrivilegedAction<Boolean>) () -> Boolean
+                    .parseBoolean(System.getProperty(SYS_PROP_PROGRESS, "true")));
+
+    private static final Long INTERVAL_MILLIS = 250L;
+
+    private static final Long DELAY_MILLIS = 1000L;
+
+    private static final Long STALL_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+    private static final Double SMOOTHING = 0.3;
+
+    private static final String[] UNITS = {"B", "KiB", "MiB", "GiB", "TiB"};
+
+    private final LongAdder done = new LongAdder();
+
+    private final String label;
+
+    private final long total;
+
+    private final long initial;
+
+    private final long startNanos = System.nanoTime();
+
+    private final PrintStream err;
+
+    private ScheduledExecutorService scheduler;
+
+    private long lastBytes;
+
+    private long lastNanos = startNanos;
+
+    private long lastProgressNanos = startNanos;
+
+    private double rate;
+
+    private boolean shown;
+
+    /**
+     * Constructs a new TransferProgress.
+     *
+     * @param label   what is being transferred (for example "Downloading").
+     * @param total   total number of bytes, or {@code -1} if unknown.
+     * @param initial number of bytes already transferred before this run (resumed download).
+     * @param err     where progress is reported, or {@code null} to only count.
+     */
+    private TransferProgress(String label, long total, long initial, PrintStream err) {
+        this.label = label;
+        this.total = total;
+        this.initial = initial;
+        this.err = err;
+        this.lastBytes = initial;
+        done.add(initial);
+    }
+
+    /**
+     * Starts reporting progress of a transfer.
+     *
+     * @param label   what is being transferred (for example "Downloading").
+     * @param total   total number of bytes, or {@code -1} if unknown.
+     * @param initial number of bytes already transferred before this run (resumed download).
+     * @param err     where progress is reported, or {@code null} to only count.
+     * @return a TransferProgress, reporting only if enabled.
+     */
+    static TransferProgress start(String label, long total, long initial, PrintStream err) {
+        var progress = new TransferProgress(label, total, initial, err);
+        if (ENABLED && nonNull(err)) {
+            progress.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                var t = new Thread(r, "jttp-progress");
+                t.setDaemon(true);
+                return t;
+            });
+            progress.scheduler.scheduleAtFixedRate(progress::draw, DELAY_MILLIS, INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+        return progress;
+    }
+
+    /**
+     * Counts bytes transferred. Safe to call from several threads.
+     *
+     * @param bytes number of bytes.
+     */
+    void add(long bytes) {
+        done.add(bytes);
+    }
+
+    /**
+     * @param out an OutputStream.
+     * @return an OutputStream that counts the bytes written to {@code out}.
+     */
+    OutputStream wrap(OutputStream out) {
+        return new FilterOutputStream(out) {
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                done.add(len);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                done.increment();
+            }
+        };
+    }
+
+    /**
+     * Stops reporting and prints the summary line if the status line was shown.
+     */
+    @Override
+    public void close() {
+        if (nonNull(scheduler)) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                if (shown) {
+                    var elapsedNanos = System.nanoTime() - startNanos;
+                    var bytes = done.sum() - initial;
+                    err.printf("\r\033[K%s %s in %s (%s/s)%n", label, bytes(done.sum()),
+                            duration(elapsedNanos), bytes(perSecond(bytes, elapsedNanos)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Redraws the status line. Runs on the scheduler thread.
+     */
+    private synchronized void draw() {
+        var now = System.nanoTime();
+        var bytes = done.sum();
+        if (bytes != lastBytes) {
+            lastProgressNanos = now;
+        }
+        var instant = perSecond(bytes - lastBytes, now - lastNanos);
+        rate = shown ? SMOOTHING * instant + (1 - SMOOTHING) * rate : instant;
+        lastBytes = bytes;
+        lastNanos = now;
+        var average = perSecond(bytes - initial, now - startNanos);
+
+        var line = new StringBuilder("\r\033[K").append(label).append(' ').append(bytes(bytes));
+        if (total > 0) {
+            line.append(" / ").append(bytes(total))
+                    .append(format(" (%d%%)", Math.min(100, bytes * 100 / total)));
+        }
+        line.append("  ").append(bytes((long) rate)).append("/s (avg ")
+                .append(bytes(average)).append("/s)");
+        var stalledNanos = now - lastProgressNanos;
+        if (stalledNanos >= STALL_NANOS) {
+            line.append("  stalled ").append(duration(stalledNanos));
+        } else if (total > 0 && average > 0) {
+            line.append("  ETA ").append(duration(
+                    TimeUnit.SECONDS.toNanos(Math.max(0, total - bytes) / average)));
+        }
+        err.print(line);
+        err.flush();
+        shown = true;
+    }
+
+    private static long perSecond(long bytes, long nanos) {
+        return nanos > 0 ? (long) (bytes * 1e9 / nanos) : 0;
+    }
+
+    private static String bytes(long bytes) {
+        var value = (double) bytes;
+        var unit = 0;
+        while (value >= 1024 && unit < UNITS.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return unit == 0 ? format("%d %s", bytes, UNITS[0]) : format("%.1f %s", value, UNITS[unit]);
+    }
+
+    private static String duration(long nanos) {
+        var seconds = TimeUnit.NANOSECONDS.toSeconds(nanos);
+        if (seconds < 60) {
+            return format("%.1fs", nanos / 1e9);
+        }
+        return format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,433 @@
+package com.github.argherna.jttp;
+
+import static java.lang.System.Logger.Level.DEBUG;
+import static java.lang.System.Logger.Level.INFO;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.stream.Collectors.joining;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+/**
+ * Uploads a file with the tus resumable upload protocol (version 1.0.0).
+ *
+ * <p>
+ * The upload is created with a {@code POST} to the endpoint ({@code creation} extension) and the
+ * file is sent in chunks with {@code PATCH} requests carrying {@code Upload-Offset}. Chunks are
+ * read with positional {@link FileChannel} reads. {@code PATCH} is sent as {@code POST} with
+ * {@code X-HTTP-Method-Override}, which tus servers must honor, because HttpURLConnection doesn't
+ * support it.
+ *
+ * <p>
+ * The upload URL and the offset reached are saved after every chunk to a properties file in the
+ * uploads directory. When Jttp is run again for the same file and endpoint, the offset is
+ * recovered with a {@code HEAD} request and the upload continues from there. A chunk that fails is
+ * retried from the offset the server reports.
+ *
+ * <p>
+ * If more than one part is requested and the server supports the {@code concatenation}
+ * extension, the file is split into that many partial uploads that are sent concurrently and then
+ * concatenated into the final upload.
+ */
+class TusUpload {
+
+    private static final String TUS_VERSION = "1.0.0";
+
+    private static final Integer MAX_CHUNK_ATTEMPTS = 3;
+
+    private static final String PROP_ENDPOINT = "endpoint";
+
+    private static final String PROP_FILE = "file";
+
+    private static final String PROP_LENGTH = "length";
+
+    private static final String PROP_MODIFIED = "modified";
+
+    private static final String PROP_PARTS = "parts";
+
+    private final File file;
+
+    private final URI endpoint;
+
+    private final int chunkSize;
+
+    private final int parallel;
+
+    private final Path stateFile;
+
+    private final Properties state = new Properties();
+
+    /**
+     * Constructs a new TusUpload.
+     *
+     * @param file      the file to upload.
+     * @param endpoint  the tus creation endpoint.
+     * @param chunkSize maximum number of bytes sent with each {@code PATCH}.
+     * @param parallel  number of partial uploads to send concurrently if the server supports
+     *                  concatenation.
+     * @param directory directory the upload state is saved in.
+     */
+    TusUpload(File file, URI endpoint, int chunkSize, int parallel, Path directory) {
+        this.file = file.getAbsoluteFile();
+        this.endpoint = endpoint;
+        this.chunkSize = chunkSize;
+        this.parallel = parallel;
+        this.stateFile = directory.resolve(stateName(endpoint, this.file) + ".properties");
+    }
+
+    /**
+     * Creates or resumes the upload and sends the rest of the file.
+     *
+     * @param factory opens the connections.
+     * @param err     where progress is reported, or {@code null} to not report it.
+     * @return the connection of the last request (the last {@code PATCH}, or the concatenation),
+     *         with its response headers read and its body not yet read.
+     * @throws IOException if an IOException occurs or the server answers with an error.
+     */
+    HttpURLConnection upload(ConnectionFactory factory, PrintStream err) throws IOException {
+        var length = file.length();
+        List<URL> parts;
+        if (loadState(length)) {
+            parts = partUrls();
+            Jttp.LOGGER.log(INFO, "logger.info.tus.resume", file, parts.get(0));
+        } else {
+            parts = create(factory, length);
+        }
+
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                var progress = TransferProgress.start(Jttp.RB.getString("jttp.progress.upload"),
+                        length, 0, err)) {
+            if (parts.size() == 1) {
+                var last = sendPart(factory, channel, 0, parts.get(0), 0, length, progress);
+                deleteState();
+                return last;
+            }
+            sendParts(factory, channel, parts, length, progress);
+        }
+        var concat = factory.open(endpoint.toURL(), "POST", false);
+        concat.setRequestProperty("Tus-Resumable", TUS_VERSION);
+        concat.setRequestProperty("Upload-Concat",
+                "final;" + parts.stream().map(URL::toString).collect(joining(" ")));
+        concat.setRequestProperty("Upload-Metadata", metadata());
+        expect(concat, HttpURLConnection.HTTP_CREATED);
+        deleteState();
+        return concat;
+    }
+
+    /**
+     * Creates the upload, or one partial upload per part if the server supports concatenation.
+     *
+     * @param factory opens the connections.
+     * @param length  file length.
+     * @return the upload URLs.
+     * @throws IOException if an IOException occurs.
+     */
+    private List<URL> create(ConnectionFactory factory, long length) throws IOException {
+        var count = 1;
+        if (parallel > 1 && length >= parallel && supportsConcatenation(factory)) {
+            count = parallel;
+        }
+        state.clear();
+        state.setProperty(PROP_ENDPOINT, endpoint.toString());
+        state.setProperty(PROP_FILE, file.toString());
+        state.setProperty(PROP_LENGTH, Long.toString(length));
+        state.setProperty(PROP_MODIFIED, Long.toString(file.lastModified()));
+        state.setProperty(PROP_PARTS, Integer.toString(count));
+        for (int i = 0; i < count; i++) {
+            var create = factory.open(endpoint.toURL(), "POST", false);
+            create.setRequestProperty("Tus-Resumable", TUS_VERSION);
+            create.setRequestProperty("Upload-Length", Long.toString(partLength(i, count, length)));
+            if (count > 1) {
+                create.setRequestProperty("Upload-Concat", "partial");
+            } else {
+                create.setRequestProperty("Upload-Metadata", metadata());
+            }
+            try {
+                expect(create, HttpURLConnection.HTTP_CREATED);
+                var location = create.getHeaderField("Location");
+                if (isNull(location)) {
+                    throw new IOException(MessageFormat.format(
+                            Jttp.RB.getString("error.tus.no.location"), endpoint));
+                }
+                state.setProperty("location." + i, endpoint.resolve(location).toString());
+                state.setProperty("offset." + i, "0");
+            } finally {
+                create.disconnect();
+            }
+        }
+        Jttp.LOGGER.log(DEBUG, "logger.debug.tus.created", count, endpoint);
+        saveState();
+        return partUrls();
+    }
+
+    /**
+     * Sends every part concurrently.
+     */
+    private void sendParts(ConnectionFactory factory, FileChannel channel, List<URL> parts,
+            long length, TransferProgress progress) throws IOException {
+        var executor = Executors.newFixedThreadPool(parts.size());
+        try {
+            var futures = new ArrayList<Future<HttpURLConnection>>();
+            for (int i = 0; i < parts.size(); i++) {
+                var index = i;
+                var start = partStart(i, parts.size(), length);
+                var partLength = partLength(i, parts.size(), length);
+                futures.add(executor.submit(() -> sendPart(factory, channel, index,
+                        parts.get(index), start, partLength, progress)));
+            }
+            for (var future : futures) {
+                future.get().disconnect();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends the rest of one part, starting at the offset the server has.
+     *
+     * @param factory  opens the connections.
+     * @param channel  the file.
+     * @param index    part number.
+     * @param url      the part's upload URL.
+     * @param start    position of the part in the file.
+     * @param length   length of the part.
+     * @param progress counts the bytes sent.
+     * @return the connection of the last request, with its body not yet read.
+     * @throws IOException if an IOException occurs or a chunk fails too often.
+     */
+    private HttpURLConnection sendPart(ConnectionFactory factory, FileChannel channel, int index,
+            URL url, long start, long length, TransferProgress progress) throws IOException {
+        var offset = Long.parseLong(state.getProperty("offset." + index, "0"));
+        if (offset > 0 || nonNull(state.getProperty("resumed"))) {
+            var head = recoverOffset(factory, url);
+            offset = Long.parseLong(head.getHeaderField("Upload-Offset"));
+            if (offset == length) {
+                progress.add(length);
+                return head;
+            }
+            head.disconnect();
+        }
+        progress.add(offset);
+        var buf = ByteBuffer.allocate((int) Math.min(chunkSize, Math.max(1, length)));
+        var failures = 0;
+        HttpURLConnection patch = null;
+        while (offset < length || isNull(patch)) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), length - offset));
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, start + offset + buf.position()) == -1) {
+                    throw new IOException(MessageFormat
+                            .format(Jttp.RB.getString("error.tus.file.changed"), file));
+                }
+            }
+            buf.flip();
+            patch = factory.open(url, "POST", true);
+            patch.setRequestProperty("X-HTTP-Method-Override", "PATCH");
+            patch.setRequestProperty("Tus-Resumable", TUS_VERSION);
+            patch.setRequestProperty("Upload-Offset", Long.toString(offset));
+            patch.setRequestProperty("Content-Type", "application/offset+octet-stream");
+            patch.setFixedLengthStreamingMode(buf.remaining());
+            try {
+                try (var out = patch.getOutputStream()) {
+                    out.write(buf.array(), 0, buf.remaining());
+                }
+                expect(patch, HttpURLConnection.HTTP_NO_CONTENT);
+                var sent = buf.remaining();
+                offset = Long.parseLong(patch.getHeaderField("Upload-Offset"));
+                progress.add(sent);
+                failures = 0;
+            } catch (IOException | NumberFormatException e) {
+                patch.disconnect();
+                if (++failures >= MAX_CHUNK_ATTEMPTS) {
+                    throw e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+                Jttp.LOGGER.log(INFO, "logger.info.tus.recover", url, e.getMessage());
+                var head = recoverOffset(factory, url);
+                var recovered = Long.parseLong(head.getHeaderField("Upload-Offset"));
+                progress.add(recovered - offset);
+                offset = recovered;
+                if (offset == length) {
+                    // The chunk arrived even though its response didn't.
+                    return head;
+                }
+                head.disconnect();
+                patch = null;
+                continue;
+            }
+            synchronized (state) {
+                state.setProperty("offset." + index, Long.toString(offset));
+                saveState();
+            }
+            if (offset < length) {
+                patch.disconnect();
+            }
+        }
+        return patch;
+    }
+
+    /**
+     * Asks the server for the offset of an upload with a {@code HEAD} request.
+     *
+     * @param factory opens the connection.
+     * @param url     the upload URL.
+     * @return the connection, with an {@code Upload-Offset} response header.
+     * @throws IOException if the upload no longer exists or the header is missing.
+     */
+    private HttpURLConnection recoverOffset(ConnectionFactory factory, URL url)
+            throws IOException {
+        var head = factory.open(url, "HEAD", false);
+        head.setRequestProperty("Tus-Resumable", TUS_VERSION);
+        var status = head.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+            head.disconnect();
+            deleteState();
+            throw new IOException(
+                    MessageFormat.format(Jttp.RB.getString("error.tus.expired"), url));
+        }
+        if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_NO_CONTENT
+                || isNull(head.getHeaderField("Upload-Offset"))) {
+            head.disconnect();
+            throw new IOException(MessageFormat.format(Jttp.RB.getString("error.tus.status"),
+                    "HEAD", url, status));
+        }
+        return head;
+    }
+
+    /**
+     * @param factory opens the connection.
+     * @return {@code true} if an {@code OPTIONS} request lists the concatenation extension.
+     * @throws IOException if an IOException occurs.
+     */
+    private boolean supportsConcatenation(ConnectionFactory factory) throws IOException {
+        var options = factory.open(endpoint.toURL(), "OPTIONS", false);
+        try {
+            var extensions = options.getResponseCode() < 300
+                    ? options.getHeaderField("Tus-Extension")
+                    : null;
+            return nonNull(extensions) && Arrays.stream(extensions.split(",")).map(String::trim)
+                    .anyMatch("concatenation"::equals);
+        } finally {
+            options.disconnect();
+        }
+    }
+
+    private void expect(HttpURLConnection conn, int status) throws IOException {
+        var actual = conn.getResponseCode();
+        if (actual != status) {
+            conn.disconnect();
+            throw new IOException(MessageFormat.format(Jttp.RB.getString("error.tus.status"),
+                    conn.getRequestProperty("X-HTTP-Method-Override") != null ? "PATCH"
+                            : conn.getRequestMethod(),
+                    conn.getURL(), actual));
+        }
+    }
+
+    private String metadata() {
+        return "filename "
+                + Base64.getEncoder().encodeToString(file.getName().getBytes(UTF_8));
+    }
+
+    /**
+     * @param length file length.
+     * @return {@code true} if saved state for this file and endpoint exists and the file hasn't
+     *         changed since.
+     * @throws IOException if an IOException occurs.
+     */
+    private boolean loadState(long length) throws IOException {
+        if (!Files.exists(stateFile)) {
+            return false;
+        }
+        try (var in = Files.newInputStream(stateFile)) {
+            state.load(in);
+        }
+        if (!Long.toString(length).equals(state.getProperty(PROP_LENGTH))
+                || !Long.toString(file.lastModified()).equals(state.getProperty(PROP_MODIFIED))) {
+            deleteState();
+            state.clear();
+            return false;
+        }
+        state.setProperty("resumed", "true");
+        return true;
+    }
+
+    private List<URL> partUrls() throws IOException {
+        var count = Integer.parseInt(state.getProperty(PROP_PARTS, "1"));
+        var urls = new ArrayList<URL>();
+        for (var i : IntStream.range(0, count).toArray()) {
+            urls.add(new URL(state.getProperty("location." + i)));
+        }
+        return urls;
+    }
+
+    private void saveState() throws IOException {
+        Files.createDirectories(stateFile.getParent());
+        var saved = new Properties();
+        saved.putAll(state);
+        saved.remove("resumed");
+        try (var out = Files.newOutputStream(stateFile)) {
+            saved.store(out, null);
+        }
+    }
+
+    private void deleteState() throws IOException {
+        Files.deleteIfExists(stateFile);
+    }
+
+    private static long partStart(int index, int count, long length) {
+        return length / count * index;
+    }
+
+    private static long partLength(int index, int count, long length) {
+        return index == count - 1 ? length - partStart(index, count, length) : length / count;
+    }
+
+    /**
+     * @return a file name derived from the endpoint and the file path.
+     */
+    private static String stateName(URI endpoint, File file) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256")
+                    .digest((endpoint + " " + file).getBytes(UTF_8));
+            var sb = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16))
+                        .append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
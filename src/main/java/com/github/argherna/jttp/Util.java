@@ -3,6 +3,8 @@ package com.github.argherna.jttp;
 import static java.lang.String.format;
 
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.prefs.Preferences;
 
 import javax.xml.transform.OutputKeys;
@@ -35,6 +37,55 @@ final class Util {
         return sw.toString().replaceAll("\n *\n", "\n").replace("?><", "?>\n<");
     }
 
+    /**
+     * Splits a line into arguments the way a shell would: at unquoted whitespace, with single
+     * quotes taken literally and a backslash escaping the next character outside single quotes.
+     *
+     * @param line the line.
+     * @return the arguments.
+     */
+    static List<String> splitArgs(String line) {
+        var args = new ArrayList<String>();
+        var arg = new StringBuilder();
+        var inArg = false;
+        var quote = '\0';
+        for (int i = 0; i < line.length(); i++) {
+            var c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = '\0';
+                } else {
+                    arg.append(c);
+                }
+            } else if (c == '\\' && i + 1 < line.length()) {
+                arg.append(line.charAt(++i));
+                inArg = true;
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = '\0';
+                } else {
+                    arg.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                inArg = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArg) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    inArg = false;
+                }
+            } else {
+                arg.append(c);
+                inArg = true;
+            }
+        }
+        if (inArg) {
+            args.add(arg.toString());
+        }
+        return args;
+    }
+
     /**
      * @return the root save directory.
      */
@@ -59,6 +110,22 @@ final class Util {
                 Preferences.userNodeForPackage(Jttp.class).node("directories").get("scripts", "scripts"));
     }
 
+    /**
+     * @return the name of the directory to store cached responses in.
+     */
+    static String getCacheDirectory() {
+        return format("%s%s%s", getBaseSaveDirectory(), Jttp.FILE_SEP, Preferences
+                .userNodeForPackage(Jttp.class).node("directories").get("cache", "cache"));
+    }
+
+    /**
+     * @return the name of the directory to store the state of resumable uploads in.
+     */
+    static String getUploadsDirectory() {
+        return format("%s%s%s", getBaseSaveDirectory(), Jttp.FILE_SEP, Preferences
+                .userNodeForPackage(Jttp.class).node("directories").get("uploads", "uploads"));
+    }
+
     /**
      * @return absolute path to the preferred downloads directory.
      */
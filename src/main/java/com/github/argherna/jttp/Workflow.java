@@ -0,0 +1,359 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the steps of a workflow file in one process, each step as soon as the steps it needs are
+ * done, so independent branches run in parallel.
+ *
+ * <p>
+ * A workflow file is a Json object with a {@code steps} array. Each step has a {@code name}, the
+ * arguments of a Jttp run in {@code run} (quoted as in a shell, like a line of a
+ * {@link Batch batch} file), optionally the names of the steps it {@code needs}, and optionally
+ * variables to {@code extract} from its response:
+ *
+ * <pre>
+ * {"steps": [
+ *   {"name": "login", "run": "-X POST https://example.com/login user=me",
+ *    "extract": {"token": "$.token"}},
+ *   {"name": "create", "needs": ["login"],
+ *    "run": "-X POST https://example.com/items 'Authorization:Bearer ${token}' name=x",
+ *    "extract": {"item": "Location"}},
+ *   {"name": "fetch", "needs": ["create"], "run": "${item}"}
+ * ]}
+ * </pre>
+ *
+ * <p>
+ * A variable is extracted with a Json path (starting with {@code $}) from the response body, or
+ * from the response header with the given name. {@code ${name}} in the arguments of a step is
+ * replaced with the value of a variable extracted by a step it needs, directly or indirectly.
+ * Each step sees only those variables: it starts with the variables of the steps it needs,
+ * merged in the order of {@code needs}, and adds the ones it extracts.
+ * The file is checked for unknown steps, cycles and unknown variables before anything is sent.
+ *
+ * <p>
+ * A step fails if it throws, gets no response or gets a status of 400 or more, or if a variable
+ * can't be extracted; the steps that need it are skipped. Connections are kept alive between
+ * steps and steps that use the same session run one at a time. The output of each step is
+ * written as a whole when it is done. Step timings and the critical path (the chain of steps
+ * that determined when the workflow ended) are printed on stderr at the end.
+ */
+class Workflow {
+
+    private static final Pattern VARIABLE = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    private final List<Step> steps;
+
+    private final Map<String, Step> byName;
+
+    private final PrintStream out;
+
+    private final PrintStream err;
+
+    private final Runner runner;
+
+    private long startNanos;
+
+    /**
+     * Constructs a new Workflow.
+     *
+     * @param text     the workflow file.
+     * @param parallel number of worker threads.
+     * @param out      stdout.
+     * @param err      stderr.
+     * @throws IllegalArgumentException if the workflow isn't valid.
+     */
+    Workflow(CharSequence text, int parallel, PrintStream out, PrintStream err) {
+        this.steps = order(parse(Json.parse(text)));
+        this.byName = steps.stream().collect(Collectors.toMap(s -> s.name, s -> s));
+        this.out = out;
+        this.err = err;
+        this.runner = new Runner("jttp-workflow", parallel, 0, err);
+    }
+
+    /**
+     * Runs every step and prints the report.
+     *
+     * @return the number of steps that failed.
+     */
+    long run() {
+        var executor = runner.start();
+        startNanos = System.nanoTime();
+        try {
+            var done = new HashMap<String, CompletableFuture<Void>>();
+            for (var step : steps) {
+                var needed =
+                        step.needs.stream().map(done::get).toArray(CompletableFuture<?>[]::new);
+                done.put(step.name, CompletableFuture.allOf(needed)
+                        .thenRunAsync(() -> execute(step), executor));
+            }
+            CompletableFuture.allOf(done.values().toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            runner.stop();
+        }
+        printReport();
+        return steps.stream().filter(s -> nonNull(s.result) && nonNull(s.result.failure)).count();
+    }
+
+    /**
+     * Runs one step with its output going to a buffer, then extracts its variables.
+     *
+     * @param step the step.
+     */
+    private void execute(Step step) {
+        if (step.needs.stream().map(byName::get).anyMatch(s -> !s.succeeded())) {
+            step.skipped = true;
+            return;
+        }
+        step.needs.forEach(need -> step.variables.putAll(byName.get(need).variables));
+        step.result = runner.execute(() -> arguments(step), !step.extract.isEmpty(),
+                (jttp, result) -> {
+                    if (result.status == -1) {
+                        throw new IOException(MessageFormat
+                                .format(Jttp.RB.getString("error.batch.no.response"), step.run));
+                    } else if (result.status >= 400) {
+                        throw new IOException(MessageFormat.format(
+                                Jttp.RB.getString("error.workflow.status"), step.name,
+                                result.status));
+                    }
+                    extract(step, jttp);
+                });
+        synchronized (out) {
+            out.println(MessageFormat.format(Jttp.RB.getString("jttp.workflow.step"), step.name));
+            out.write(step.result.output, 0, step.result.output.length);
+            out.flush();
+        }
+    }
+
+    /**
+     * @param step the step.
+     * @return the arguments of the step with the values of its variables in place.
+     */
+    private static List<String> arguments(Step step) {
+        var args = new ArrayList<String>();
+        for (var arg : Util.splitArgs(step.run)) {
+            args.add(VARIABLE.matcher(arg).replaceAll(
+                    m -> Matcher.quoteReplacement(step.variables.get(m.group(1)))));
+        }
+        return args;
+    }
+
+    private void extract(Step step, Jttp jttp) throws IOException {
+        Object json = null;
+        for (var entry : step.extract.entrySet()) {
+            var source = entry.getValue();
+            String value;
+            if (source.startsWith("$")) {
+                if (isNull(json)) {
+                    var body = jttp.getResponseBody();
+                    json = Json.parse(isNull(body) ? "" : new String(body, UTF_8));
+                }
+                var selected = Json.select(json, source);
+                value = selected instanceof String ? (String) selected : Json.write(selected);
+            } else {
+                value = jttp.getResponseHeader(source);
+                if (isNull(value)) {
+                    throw new IOException(MessageFormat
+                            .format(Jttp.RB.getString("error.workflow.header"), source));
+                }
+            }
+            step.variables.put(entry.getKey(), value);
+        }
+    }
+
+    private void printReport() {
+        for (var step : steps) {
+            if (step.skipped) {
+                err.println(MessageFormat.format(Jttp.RB.getString("jttp.workflow.skipped"),
+                        step.name));
+            } else {
+                err.println(MessageFormat.format(
+                        Jttp.RB.getString(nonNull(step.result.failure) ? "jttp.workflow.failed"
+                                : "jttp.workflow.timing"),
+                        step.name, step.result.status, millis(step.result.startNanos - startNanos),
+                        millis(step.result.getNanos())));
+            }
+        }
+        var path = new ArrayList<Step>();
+        var last = steps.stream().filter(s -> !s.skipped)
+                .max((a, b) -> Long.compare(a.result.endNanos, b.result.endNanos)).orElse(null);
+        while (nonNull(last)) {
+            path.add(last);
+            last = last.needs.stream().map(byName::get).filter(s -> !s.skipped)
+                    .max((a, b) -> Long.compare(a.result.endNanos, b.result.endNanos))
+                    .orElse(null);
+        }
+        if (!path.isEmpty()) {
+            Collections.reverse(path);
+            err.println(MessageFormat.format(Jttp.RB.getString("jttp.workflow.critical"),
+                    path.stream().map(s -> s.name).collect(Collectors.joining(" > ")),
+                    millis(path.get(path.size() - 1).result.endNanos
+                            - path.get(0).result.startNanos)));
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * @param workflow the parsed workflow file.
+     * @return its steps, in the order of the file.
+     */
+    private static List<Step> parse(Object workflow) {
+        if (!(workflow instanceof Map) || !(((Map<?, ?>) workflow).get("steps") instanceof List)) {
+            throw invalid(0);
+        }
+        var steps = new ArrayList<Step>();
+        var number = 0;
+        for (var element : (List<?>) ((Map<?, ?>) workflow).get("steps")) {
+            number++;
+            if (!(element instanceof Map)) {
+                throw invalid(number);
+            }
+            var spec = (Map<?, ?>) element;
+            if (!(spec.get("name") instanceof String) || !(spec.get("run") instanceof String)) {
+                throw invalid(number);
+            }
+            var step = new Step((String) spec.get("name"), (String) spec.get("run"));
+            var needs = spec.get("needs");
+            if (nonNull(needs)) {
+                if (!(needs instanceof List)
+                        || !((List<?>) needs).stream().allMatch(n -> n instanceof String)) {
+                    throw invalid(number);
+                }
+                ((List<?>) needs).forEach(n -> step.needs.add((String) n));
+            }
+            var extract = spec.get("extract");
+            if (nonNull(extract)) {
+                if (!(extract instanceof Map) || !((Map<?, ?>) extract).values().stream()
+                        .allMatch(v -> v instanceof String)) {
+                    throw invalid(number);
+                }
+                ((Map<?, ?>) extract).forEach(
+                        (k, v) -> step.extract.put((String) k, (String) v));
+            }
+            steps.add(step);
+        }
+        return steps;
+    }
+
+    /**
+     * Sorts the steps so each comes after the steps it needs, keeping the order of the file
+     * otherwise, and checks that every variable used is extracted by a step needed.
+     *
+     * @param steps the steps in the order of the file.
+     * @return the steps in the order they can be started in.
+     */
+    private static List<Step> order(List<Step> steps) {
+        var byName = new HashMap<String, Step>();
+        var waiting = new HashMap<String, Integer>();
+        for (var step : steps) {
+            if (nonNull(byName.put(step.name, step))) {
+                throw new IllegalArgumentException(MessageFormat
+                        .format(Jttp.RB.getString("error.workflow.duplicate"), step.name));
+            }
+            waiting.put(step.name, step.needs.size());
+        }
+        var ready = new ArrayDeque<Step>();
+        for (var step : steps) {
+            for (var need : step.needs) {
+                if (!byName.containsKey(need)) {
+                    throw new IllegalArgumentException(MessageFormat.format(
+                            Jttp.RB.getString("error.workflow.unknown"), step.name, need));
+                }
+            }
+            if (step.needs.isEmpty()) {
+                ready.add(step);
+            }
+        }
+        var ordered = new ArrayList<Step>();
+        var available = new HashMap<String, Set<String>>();
+        while (!ready.isEmpty()) {
+            var step = ready.remove();
+            ordered.add(step);
+            var variables = new HashSet<String>();
+            for (var need : step.needs) {
+                variables.addAll(available.get(need));
+                variables.addAll(byName.get(need).extract.keySet());
+            }
+            var matcher = VARIABLE.matcher(step.run);
+            while (matcher.find()) {
+                if (!variables.contains(matcher.group(1))) {
+                    throw new IllegalArgumentException(
+                            MessageFormat.format(Jttp.RB.getString("error.workflow.variable"),
+                                    step.name, matcher.group(1)));
+                }
+            }
+            available.put(step.name, variables);
+            for (var other : steps) {
+                if (other.needs.contains(step.name)
+                        && waiting.merge(other.name, -1, Integer::sum) == 0) {
+                    ready.add(other);
+                }
+            }
+        }
+        if (ordered.size() < steps.size()) {
+            throw new IllegalArgumentException(MessageFormat.format(
+                    Jttp.RB.getString("error.workflow.cycle"),
+                    steps.stream().filter(s -> !ordered.contains(s)).map(s -> s.name)
+                            .collect(Collectors.joining(", "))));
+        }
+        return ordered;
+    }
+
+    private static IllegalArgumentException invalid(int number) {
+        return new IllegalArgumentException(
+                MessageFormat.format(Jttp.RB.getString("error.workflow.invalid"), number));
+    }
+
+    private static class Step {
+
+        private final String name;
+
+        private final String run;
+
+        private final List<String> needs = new ArrayList<>();
+
+        private final Map<String, String> extract = new LinkedHashMap<>();
+
+        /**
+         * The variables of the steps needed and the ones extracted, written only by the step's
+         * own thread before the steps that need it start.
+         */
+        private final Map<String, String> variables = new HashMap<>();
+
+        private Runner.Result result;
+
+        private boolean skipped;
+
+        private Step(String name, String run) {
+            this.name = name;
+            this.run = run;
+        }
+
+        private boolean succeeded() {
+            return !skipped && isNull(result.failure);
+        }
+    }
+}
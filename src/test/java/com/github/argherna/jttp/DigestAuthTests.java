@@ -0,0 +1,172 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the answers to Digest challenges against the examples of RFC 7616, section 3.9.1.
+ */
+public class DigestAuthTests {
+
+    private static final String URL = "http://www.example.org/dir/index.html";
+
+    private static final String CNONCE = "f2/wE4q74E6zIJEtWaHKaf5wv/H5QzzpXusqGemxURZJ";
+
+    private static final String NONCE = "7ypf/xlj9XXwfDPEoM4URrv/xwf94BcCAzFZH4GiTo0v";
+
+    private static final String OPAQUE = "FQhe/qaU925kfnzjCev0ciny7QMkPqMAFRtzCUYo5tdS";
+
+    @Test
+    public void testMd5() throws Exception {
+        var params = answer("MD5");
+        assertEquals("8ca523f5e9506fed4657c9700eebdbec", params.get("response"));
+        assertEquals("Mufasa", params.get("username"));
+        assertEquals("http-auth@example.org", params.get("realm"));
+        assertEquals("/dir/index.html", params.get("uri"));
+        assertEquals(OPAQUE, params.get("opaque"));
+        assertEquals("auth", params.get("qop"));
+        assertEquals("00000001", params.get("nc"));
+        assertEquals(CNONCE, params.get("cnonce"));
+    }
+
+    @Test
+    public void testSha256() throws Exception {
+        var params = answer("SHA-256");
+        assertEquals("753927fa0e85d155564e2e272a28d1802ca10daf4496794697cf8db5856cb6c1",
+                params.get("response"));
+        assertEquals("SHA-256", params.get("algorithm"));
+    }
+
+    @Test
+    public void testSha256Sess() throws Exception {
+        var params = answer("SHA-256-sess");
+        var ha1 = sha256(sha256("Mufasa:http-auth@example.org:Circle of Life") + ":" + NONCE
+                + ":" + CNONCE);
+        var ha2 = sha256("GET:/dir/index.html");
+        assertEquals(sha256(ha1 + ":" + NONCE + ":00000001:" + CNONCE + ":auth:" + ha2),
+                params.get("response"));
+    }
+
+    @Test
+    public void testNonceCount() throws Exception {
+        var digestAuth = new FixedDigestAuth();
+        assertTrue(digestAuth.challenged(challenge("MD5")));
+        assertEquals("00000001", authorize(digestAuth).get("nc"));
+        assertEquals("00000002", authorize(digestAuth).get("nc"));
+
+        // A saved challenge carries its count over to the next run.
+        var next = new FixedDigestAuth();
+        next.load(digestAuth.getState());
+        assertEquals("00000003", authorize(next).get("nc"));
+
+        // A new nonce starts counting again.
+        var info = new StubConnection(Map.of("Authentication-Info",
+                List.of("nextnonce=\"abc\"")));
+        next.update(info);
+        var params = authorize(next);
+        assertEquals("abc", params.get("nonce"));
+        assertEquals("00000001", params.get("nc"));
+    }
+
+    @Test
+    public void testUnsupportedChallenge() throws Exception {
+        var digestAuth = new FixedDigestAuth();
+        assertFalse(digestAuth.challenged(new StubConnection(Map.of("WWW-Authenticate",
+                List.of("Digest realm=\"r\", nonce=\"n\", qop=\"auth-int\"")))));
+        assertFalse(digestAuth.challenged(new StubConnection(Map.of("WWW-Authenticate",
+                List.of("Basic realm=\"r\"")))));
+        assertFalse(digestAuth.authorize(new StubConnection(Map.of())));
+    }
+
+    private static Map<String, String> answer(String algorithm) throws Exception {
+        var digestAuth = new FixedDigestAuth();
+        assertTrue(digestAuth.challenged(challenge(algorithm)));
+        return authorize(digestAuth);
+    }
+
+    private static Map<String, String> authorize(DigestAuth digestAuth) throws Exception {
+        var conn = new StubConnection(Map.of());
+        assertTrue(digestAuth.authorize(conn));
+        var authorization = conn.getRequestProperty("Authorization");
+        assertTrue(authorization.startsWith("Digest "), authorization);
+        return DigestAuth.parseParams(authorization.substring(7));
+    }
+
+    private static HttpURLConnection challenge(String algorithm) throws Exception {
+        return new StubConnection(Map.of("WWW-Authenticate",
+                List.of("Digest realm=\"http-auth@example.org\", qop=\"auth, auth-int\", "
+                        + "algorithm=" + algorithm + ", nonce=\"" + NONCE + "\", opaque=\""
+                        + OPAQUE + "\"")));
+    }
+
+    private static String sha256(String value) throws Exception {
+        var sb = new StringBuilder();
+        for (var b : MessageDigest.getInstance("SHA-256").digest(value.getBytes(UTF_8))) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Uses the client nonce of the RFC examples.
+     */
+    private static class FixedDigestAuth extends DigestAuth {
+
+        FixedDigestAuth() {
+            super("Mufasa", "Circle of Life".toCharArray());
+        }
+
+        @Override
+        String cnonce() {
+            return CNONCE;
+        }
+    }
+
+    /**
+     * A GET connection that never connects, with canned response headers. Unlike the JDK's
+     * connection, it gives the Authorization request header back.
+     */
+    private static class StubConnection extends HttpURLConnection {
+
+        private final Map<String, List<String>> headerFields;
+
+        StubConnection(Map<String, List<String>> headerFields) throws Exception {
+            super(new URL(URL));
+            this.headerFields = headerFields;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return headerFields;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            var values = headerFields.get(name);
+            return values == null ? null : values.get(0);
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
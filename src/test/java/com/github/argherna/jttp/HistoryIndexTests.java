@@ -0,0 +1,94 @@
+package com.github.argherna.jttp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class HistoryIndexTests {
+
+    @Test
+    public void testMatchAll() {
+        var index = new HistoryIndex(HistoryIndex.ALL);
+        index.add(entry(1, 100, "POST", "/items", "a=1", "{\"k\":1}"));
+        assertEquals(1, index.find("POST", "/items", "a=1", " {\"k\":1}\n").id);
+        assertNull(index.find("PUT", "/items", "a=1", "{\"k\":1}"));
+        assertNull(index.find("POST", "/other", "a=1", "{\"k\":1}"));
+        assertNull(index.find("POST", "/items", "a=2", "{\"k\":1}"));
+        assertNull(index.find("POST", "/items", null, "{\"k\":1}"));
+        assertNull(index.find("POST", "/items", "a=1", "{\"k\":2}"));
+        assertNull(index.find("POST", "/items", "a=1", null));
+    }
+
+    @Test
+    public void testNoBodyMatchesEmptyBody() {
+        var index = new HistoryIndex(HistoryIndex.ALL);
+        index.add(entry(1, 100, "GET", "/", null, null));
+        assertEquals(1, index.find("GET", "/", null, "  ").id);
+    }
+
+    @Test
+    public void testMatchSomeParts() {
+        var index = new HistoryIndex(EnumSet.of(HistoryIndex.Match.METHOD,
+                HistoryIndex.Match.PATH));
+        index.add(entry(1, 100, "POST", "/items", "a=1", "one"));
+        assertEquals(1, index.find("POST", "/items", "b=2", "two").id);
+        assertNull(index.find("GET", "/items", "a=1", "one"));
+
+        index = new HistoryIndex(Set.of());
+        index.add(entry(2, 100, "GET", "/a", null, null));
+        assertEquals(2, index.find("DELETE", "/b", "c", "d").id);
+    }
+
+    @Test
+    public void testLatestEntryWins() {
+        var index = new HistoryIndex(HistoryIndex.ALL);
+        index.add(entry(1, 200, "GET", "/", null, null));
+        index.add(entry(2, 100, "GET", "/", null, null));
+        assertEquals(1, index.find("GET", "/", null, null).id);
+        index.add(entry(3, 300, "GET", "/", null, null));
+        assertEquals(3, index.find("GET", "/", null, null).id);
+        index.add(entry(4, 300, "GET", "/", "q", null));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testIndexedEntryHasNoBody() {
+        var index = new HistoryIndex(HistoryIndex.ALL);
+        var entry = entry(1, 100, "POST", "/", null, "secret");
+        entry.status = 201;
+        entry.contentType = "application/json";
+        entry.responseOffset = 10;
+        entry.responseLength = 20;
+        index.add(entry);
+        var found = index.find("POST", "/", null, "secret");
+        assertNull(found.data);
+        assertEquals(201, found.status);
+        assertEquals("application/json", found.contentType);
+        assertEquals(10, found.responseOffset);
+        assertEquals(20, found.responseLength);
+    }
+
+    @Test
+    public void testParseMatch() {
+        assertEquals(HistoryIndex.ALL, HistoryIndex.parseMatch(null));
+        assertEquals(EnumSet.of(HistoryIndex.Match.PATH, HistoryIndex.Match.BODY),
+                HistoryIndex.parseMatch(new String[] {" Body", "path"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> HistoryIndex.parseMatch(new String[] {"headers"}));
+    }
+
+    private static Session.HistoryEntry entry(int id, long timestamp, String method, String uri,
+            String query, String data) {
+        var entry = new Session.HistoryEntry(id, timestamp);
+        entry.method = method;
+        entry.uri = uri;
+        entry.query = query;
+        entry.data = data;
+        return entry;
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.argherna.jttp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class JsonDigestTests {
+
+    @Test
+    public void testSameDocumentsHaveSameDigest() throws Exception {
+        assertSame("{\"a\":1,\"b\":[1,2],\"c\":\"x\"}",
+                " { \"c\" : \"x\" ,\n\"b\":[ 1, 2 ], \"a\" : 1 } ");
+        assertSame("{\"o\":{\"k\":true,\"n\":null}}", "{\"o\":{\"n\":null,\"k\":true}}");
+        assertSame("{}", " { } ");
+        assertSame("[]", "[ ]");
+    }
+
+    @Test
+    public void testNumbersComparedByValue() throws Exception {
+        assertSame("1", "1.0");
+        assertSame("100", "1e2");
+        assertSame("0", "-0.00");
+        assertDifferent("1", "1.5");
+    }
+
+    @Test
+    public void testStringEscapes() throws Exception {
+        assertSame("\"a\\u0062\\n\"", "\"ab\\n\"");
+        assertSame("\"\\/\"", "\"/\"");
+        assertDifferent("\"a\"", "\"A\"");
+    }
+
+    @Test
+    public void testDifferentDocumentsHaveDifferentDigests() throws Exception {
+        assertDifferent("[1,2]", "[2,1]");
+        assertDifferent("[[1],2]", "[[1,2]]");
+        assertDifferent("{\"a\":1,\"b\":2}", "{\"a\":2,\"b\":1}");
+        assertDifferent("{\"a\":1}", "{\"a\":1,\"b\":1}");
+        assertDifferent("{\"a\":{}}", "{\"a\":[]}");
+        assertDifferent("1", "\"1\"");
+        assertDifferent("null", "\"null\"");
+        assertDifferent("true", "false");
+    }
+
+    @Test
+    public void testAgreesWithDiff() throws Exception {
+        var documents = List.of("{\"a\":1,\"b\":[1,2]}", "{\"b\":[1,2],\"a\":1.0}",
+                "{\"a\":1,\"b\":[2,1]}", "{\"a\":\"1\",\"b\":[1,2]}", "[{\"a\":1}]");
+        for (var left : documents) {
+            for (var right : documents) {
+                var same = Json.diff(Json.parse(left), Json.parse(right)).isEmpty();
+                assertEquals(same, Arrays.equals(digest(left), digest(right)),
+                        () -> left + " and " + right);
+            }
+        }
+    }
+
+    @Test
+    public void testMalformed() {
+        for (var text : List.of("", "{", "{\"a\" 1}", "{\"a\":1,}", "[1 2]", "\"open", "tru",
+                "nul", "1.2.3", "\"\\u12g4\"", "{} x", "{1:2}")) {
+            assertThrows(IllegalArgumentException.class, () -> digest(text), text);
+        }
+    }
+
+    private static byte[] digest(String text) throws Exception {
+        return JsonDigest.digest(new StringReader(text));
+    }
+
+    private static void assertSame(String left, String right) throws Exception {
+        assertArrayEquals(digest(left), digest(right), () -> left + " and " + right);
+    }
+
+    private static void assertDifferent(String left, String right) throws Exception {
+        assertFalse(Arrays.equals(digest(left), digest(right)), () -> left + " and " + right);
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.argherna.jttp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class JsonTests {
+
+    @Test
+    public void testDiffIgnoresMemberOrder() {
+        assertEquals(List.of(),
+                Json.diff(Json.parse("{\"a\":1,\"b\":[1,2],\"c\":\"x\"}"),
+                        Json.parse("{\"c\":\"x\",\"a\":1,\"b\":[1,2]}")));
+    }
+
+    @Test
+    public void testDiffComparesNumbersByValue() {
+        assertEquals(List.of(), Json.diff(Json.parse("{\"n\":1.0}"), Json.parse("{\"n\":1}")));
+        assertEquals(List.of("~ $.n: 1 -> 2"),
+                Json.diff(Json.parse("{\"n\":1}"), Json.parse("{\"n\":2}")));
+    }
+
+    @Test
+    public void testDiffMembers() {
+        assertEquals(List.of("~ $.a: 1 -> 2", "- $.b: [1,2]", "+ $.d: null"),
+                Json.diff(Json.parse("{\"a\":1,\"b\":[1,2],\"c\":\"x\"}"),
+                        Json.parse("{\"a\":2,\"d\":null,\"c\":\"x\"}")));
+    }
+
+    @Test
+    public void testDiffArraysByPosition() {
+        assertEquals(List.of("~ $.items[0].name: \"a\" -> \"b\"", "- $.items[2]: 3"),
+                Json.diff(Json.parse("{\"items\":[{\"name\":\"a\"},2,3]}"),
+                        Json.parse("{\"items\":[{\"name\":\"b\"},2]}")));
+        assertEquals(List.of("+ $[1]: true"),
+                Json.diff(Json.parse("[false]"), Json.parse("[false,true]")));
+    }
+
+    @Test
+    public void testDiffChangedType() {
+        assertEquals(List.of("~ $.v: {\"k\":1} -> [1]"),
+                Json.diff(Json.parse("{\"v\":{\"k\":1}}"), Json.parse("{\"v\":[1]}")));
+        assertEquals(List.of("~ $: 1 -> \"1\""), Json.diff(Json.parse("1"), Json.parse("\"1\"")));
+    }
+}
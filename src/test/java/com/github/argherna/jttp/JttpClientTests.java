@@ -0,0 +1,94 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class JttpClientTests {
+
+    private HttpServer server;
+
+    private String base;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/", exchange -> {
+            var request = new String(exchange.getRequestBody().readAllBytes(), UTF_8);
+            var body = (exchange.getRequestURI() + " "
+                    + exchange.getRequestHeaders().getFirst("X-Token") + " " + request)
+                            .getBytes(UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            exchange.getResponseHeaders().add("X-Echo", "yes");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testResponseAndWriter() throws Exception {
+        var client = JttpClient.newBuilder().header("X-Token", "t").print("b").build();
+        var out = new StringWriter();
+        var response = client.get(base + "/items").query("page", "2").send(out);
+        assertEquals(200, response.getStatus());
+        assertEquals("yes", response.getHeader("X-Echo"));
+        assertEquals("/items?page=2 t", out.toString().strip());
+    }
+
+    @Test
+    public void testValuesWithSeparators() throws Exception {
+        var client = JttpClient.newBuilder().header("X-Token", "a:b").print("b").build();
+        var out = new StringWriter();
+        var response =
+                client.get(base + "/items").query("next", "http://host/x@y").send(out);
+        assertEquals(200, response.getStatus());
+        assertEquals("/items?next=http://host/x@y a:b", out.toString().strip());
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        var client = JttpClient.newBuilder().print("b").build();
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var futures = new ArrayList<Future<String>>();
+            for (int i = 0; i < 32; i++) {
+                var n = Integer.toString(i);
+                futures.add(executor.submit((Callable<String>) () -> {
+                    var out = new ByteArrayOutputStream();
+                    client.request("PUT", base + "/items/" + n).body(n).send(out);
+                    return out.toString(UTF_8).strip();
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                var output = futures.get(i).get();
+                assertTrue(output.startsWith("/items/" + i + " "), output);
+                assertTrue(output.endsWith(" " + i), output);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
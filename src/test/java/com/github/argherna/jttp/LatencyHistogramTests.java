@@ -0,0 +1,49 @@
+package com.github.argherna.jttp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTests {
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        var histogram = new LatencyHistogram();
+        for (long v = 1; v <= 100000; v++) {
+            histogram.record(v);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        for (var p : new double[] {50, 90, 99, 99.9}) {
+            var expected = (long) (p / 100 * 100000);
+            var actual = histogram.getValueAtPercentile(p);
+            assertTrue(actual >= expected && actual <= expected * 1.04,
+                    () -> "p" + p + " was " + actual + ", expected about " + expected);
+        }
+    }
+
+    @Test
+    public void testCoordinatedOmissionCorrection() {
+        var histogram = new LatencyHistogram();
+        histogram.record(1000, 100);
+        assertEquals(10, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        var min = histogram.getValueAtPercentile(0);
+        assertTrue(min >= 100 && min <= 103, () -> "smallest value was " + min);
+    }
+
+    @Test
+    public void testAdd() {
+        var a = new LatencyHistogram();
+        var b = new LatencyHistogram();
+        a.record(10);
+        b.record(20);
+        b.record(30);
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(30, a.getMax());
+        assertEquals(20.0, a.getMean());
+        assertEquals(20, a.getValueAtPercentile(50));
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import picocli.CommandLine;
+
+public class RequestItemTests {
+
+    private HttpServer server;
+
+    private String base;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            var request = new String(exchange.getRequestBody().readAllBytes(), UTF_8);
+            var body = (exchange.getRequestURI() + " "
+                    + exchange.getRequestHeaders().getFirst("X-Token") + " " + request)
+                            .getBytes(UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testHeaderValueWithColon() throws Exception {
+        assertEquals("/h a:b:c", run(base + "/h", "X-Token:a:b:c"));
+    }
+
+    @Test
+    public void testQueryValueWithSeparators() throws Exception {
+        assertEquals("/q?next=http://h/x?y=1&to=a@b null",
+                run(base + "/q", "next==http://h/x?y=1", "to==a@b"));
+    }
+
+    @Test
+    public void testFieldValueWithAt() throws Exception {
+        assertEquals("/f null {\"to\":\"a@b.c\"}",
+                run(base + "/f", "-X", "POST", "-P", "NONE", "to=a@b.c"));
+    }
+
+    @Test
+    public void testFirstSeparatorWins() throws Exception {
+        // "k:v=w" is a header whose value holds '=', not a field.
+        assertEquals("/s v=w", run(base + "/s", "X-Token:v=w"));
+    }
+
+    private static String run(String... args) {
+        var out = new ByteArrayOutputStream();
+        var rc = new CommandLine(new Jttp(new PrintStream(out, true, UTF_8),
+                InputStream.nullInputStream())).execute(concat(args));
+        assertEquals(0, rc);
+        return out.toString(UTF_8).strip();
+    }
+
+    private static String[] concat(String... args) {
+        var all = new String[args.length + 2];
+        all[0] = "-p";
+        all[1] = "b";
+        System.arraycopy(args, 0, all, 2, args.length);
+        return all;
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.argherna.jttp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Each test uses its own host so that the process-wide retry budgets don't interfere.
+ */
+public class RetryPolicyTests {
+
+    private static final long BACKOFF = 100;
+
+    private final RetryPolicy policy = new RetryPolicy(3, RetryPolicy.DEFAULT_STATUSES,
+            RetryPolicy.DEFAULT_EXCEPTIONS, BACKOFF);
+
+    @Test
+    public void testBackoffCeilingDoublesWithEachAttempt() throws Exception {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            for (int i = 0; i < 20; i++) {
+                var conn = new StubConnection("backoff.example.org", 503, null);
+                for (int r = 0; r < 5; r++) {
+                    policy.onRequest("backoff.example.org");
+                }
+                var delay = policy.nextDelay(attempt, RequestMethod.GET, conn, null);
+                var ceiling = BACKOFF << attempt;
+                assertTrue(delay >= 0 && delay <= ceiling,
+                        () -> "delay " + delay + " is outside 0.." + ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void testNoRetryAfterLastAttempt() throws Exception {
+        var conn = new StubConnection("last.example.org", 503, null);
+        assertEquals(-1, policy.nextDelay(3, RequestMethod.GET, conn, null));
+    }
+
+    @Test
+    public void testStatusNotRetryable() throws Exception {
+        var conn = new StubConnection("status.example.org", 404, null);
+        assertEquals(-1, policy.nextDelay(0, RequestMethod.GET, conn, null));
+    }
+
+    @Test
+    public void testRetryAfterIsHonored() throws Exception {
+        var conn = new StubConnection("after.example.org", 429, "5");
+        var delay = policy.nextDelay(0, RequestMethod.GET, conn, null);
+        assertTrue(delay >= 5000, () -> "delay " + delay + " is shorter than Retry-After");
+    }
+
+    @Test
+    public void testPostRetriedOnlyWhenServerCantHaveActed() throws Exception {
+        var host = "post.example.org";
+        assertEquals(-1, policy.nextDelay(0, RequestMethod.POST,
+                new StubConnection(host, 500, null), null));
+        assertEquals(-1, policy.nextDelay(0, RequestMethod.POST,
+                new StubConnection(host, 503, null), null));
+        assertTrue(policy.nextDelay(0, RequestMethod.POST,
+                new StubConnection(host, 503, "1"), null) >= 1000);
+        assertEquals(-1, policy.nextDelay(0, RequestMethod.POST,
+                new StubConnection(host, -1, null), new SocketTimeoutException()));
+        assertTrue(policy.nextDelay(0, RequestMethod.POST,
+                new StubConnection(host, -1, null), new ConnectException()) >= 0);
+    }
+
+    @Test
+    public void testExceptionNotRetryable() throws Exception {
+        var conn = new StubConnection("exception.example.org", -1, null);
+        assertEquals(-1, policy.nextDelay(0, RequestMethod.GET, conn, new IOException()));
+    }
+
+    @Test
+    public void testBudgetLimitsRetries() throws Exception {
+        var host = "budget.example.org";
+        // Ten retries are allowed with no requests counted, then one per five requests.
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.nextDelay(0, RequestMethod.GET,
+                    new StubConnection(host, 503, null), null) >= 0);
+        }
+        assertEquals(-1, policy.nextDelay(0, RequestMethod.GET,
+                new StubConnection(host, 503, null), null));
+        for (int i = 0; i < 5; i++) {
+            policy.onRequest(host);
+        }
+        assertTrue(policy.nextDelay(0, RequestMethod.GET,
+                new StubConnection(host, 503, null), null) >= 0);
+        assertEquals(-1, policy.nextDelay(0, RequestMethod.GET,
+                new StubConnection(host, 503, null), null));
+    }
+
+    @Test
+    public void testRetryAfterMillis() {
+        assertEquals(0, RetryPolicy.retryAfterMillis(null));
+        assertEquals(0, RetryPolicy.retryAfterMillis("soon"));
+        assertEquals(120000, RetryPolicy.retryAfterMillis(" 120 "));
+        assertEquals(0, RetryPolicy.retryAfterMillis("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    /**
+     * A connection that never connects, with a canned status and {@code Retry-After} header.
+     */
+    private static class StubConnection extends HttpURLConnection {
+
+        private final int status;
+
+        private final String retryAfter;
+
+        StubConnection(String host, int status, String retryAfter) throws Exception {
+            super(new URL("http://" + host + "/"));
+            this.status = status;
+            this.retryAfter = retryAfter;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return status;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return "Retry-After".equals(name) ? retryAfter : null;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
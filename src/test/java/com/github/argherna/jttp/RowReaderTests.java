@@ -0,0 +1,114 @@
+package com.github.argherna.jttp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class RowReaderTests {
+
+    @Test
+    public void testCsvRows() throws Exception {
+        var rows = reader("id,name\r\n1,a\r\n\r\n2,b", RowReader.Format.CSV);
+        var row = rows.next();
+        assertEquals(1, row.number);
+        assertEquals(Map.of("id", "1", "name", "a"), row.values);
+        assertEquals("id,name", rows.getHeader());
+        row = rows.next();
+        assertEquals(2, row.number);
+        assertEquals(Map.of("id", "2", "name", "b"), row.values);
+        assertEquals("2,b", rows.getText());
+        assertNull(rows.next());
+    }
+
+    @Test
+    public void testCsvQuotedFields() throws Exception {
+        var rows = reader("a,b\n\"x, y\",\"say \"\"hi\"\"\nagain\"\n", RowReader.Format.CSV);
+        var row = rows.next();
+        assertEquals(Map.of("a", "x, y", "b", "say \"hi\"\nagain"), row.values);
+        assertEquals("\"x, y\",\"say \"\"hi\"\"\nagain\"", row.text);
+        assertEquals(row.text, rows.getText());
+        assertNull(rows.next());
+    }
+
+    @Test
+    public void testCsvWrongFieldCountContinues() throws Exception {
+        var rows = reader("a,b\n1\n2,x,y\n3,z\n", RowReader.Format.CSV);
+        assertThrows(IllegalArgumentException.class, rows::next);
+        assertEquals(1, rows.getNumber());
+        assertEquals("1", rows.getText());
+        assertThrows(IllegalArgumentException.class, rows::next);
+        assertEquals(2, rows.getNumber());
+        assertEquals("2,x,y", rows.getText());
+        var row = rows.next();
+        assertEquals(3, row.number);
+        assertEquals(Map.of("a", "3", "b", "z"), row.values);
+    }
+
+    @Test
+    public void testCsvUnterminatedQuote() throws Exception {
+        var rows = reader("a\n1\n\"open\n", RowReader.Format.CSV);
+        assertEquals(Map.of("a", "1"), rows.next().values);
+        assertThrows(IllegalArgumentException.class, rows::next);
+        assertEquals(2, rows.getNumber());
+        assertEquals("\"open\n", rows.getText());
+        assertNull(rows.next());
+    }
+
+    @Test
+    public void testCsvEmpty() throws Exception {
+        var rows = reader("", RowReader.Format.CSV);
+        assertNull(rows.next());
+        assertNull(rows.getHeader());
+    }
+
+    @Test
+    public void testNdjsonRows() throws Exception {
+        var rows = reader("{\"s\":\"x\",\"n\":1,\"o\":{\"k\":[true]}}\n\n{\"s\":null}\n",
+                RowReader.Format.NDJSON);
+        var row = rows.next();
+        assertEquals(1, row.number);
+        assertEquals(Map.of("s", "x", "n", "1", "o", "{\"k\":[true]}"), row.values);
+        row = rows.next();
+        assertEquals(3, row.number);
+        assertEquals(Map.of("s", "null"), row.values);
+        assertNull(rows.getHeader());
+        assertNull(rows.next());
+    }
+
+    @Test
+    public void testNdjsonNotAnObjectContinues() throws Exception {
+        var rows = reader("[1]\n{\"a\":\"b\"}\n", RowReader.Format.NDJSON);
+        assertThrows(IllegalArgumentException.class, rows::next);
+        assertEquals(1, rows.getNumber());
+        assertEquals("[1]", rows.getText());
+        var row = rows.next();
+        assertEquals(2, row.number);
+        assertEquals(Map.of("a", "b"), row.values);
+    }
+
+    @Test
+    public void testFormatOf() {
+        assertEquals(RowReader.Format.NDJSON, RowReader.formatOf("rows.ndjson"));
+        assertEquals(RowReader.Format.NDJSON, RowReader.formatOf("ROWS.JSONL"));
+        assertEquals(RowReader.Format.NDJSON, RowReader.formatOf("rows.json"));
+        assertEquals(RowReader.Format.CSV, RowReader.formatOf("rows.csv"));
+        assertEquals(RowReader.Format.CSV, RowReader.formatOf("-"));
+    }
+
+    @Test
+    public void testToCsv() {
+        assertEquals("a,\"b,c\",\"d\"\"e\",\"f\ng\",",
+                RowReader.toCsv(List.of("a", "b,c", "d\"e", "f\ng", "")));
+    }
+
+    private static RowReader reader(String text, RowReader.Format format) {
+        return new RowReader(new BufferedReader(new StringReader(text)), format);
+    }
+}
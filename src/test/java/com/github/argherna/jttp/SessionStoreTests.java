@@ -0,0 +1,218 @@
+package com.github.argherna.jttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.util.Comparator.reverseOrder;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SessionStoreTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testAppendAndRead() throws Exception {
+        var store = new SessionStore(directory.resolve("s"));
+        assertFalse(store.exists());
+        var appended = store.append(List.of(entry("one"), entry("two")));
+        assertEquals(List.of(1, 2), List.of(appended.get(0).id, appended.get(1).id));
+        store.append(List.of(entry("three")));
+        assertEquals(List.of("1 one", "2 two", "3 three"), read(store));
+    }
+
+    @Test
+    public void testUncommittedTailIsIgnoredAndTruncated() throws Exception {
+        var store = new SessionStore(directory.resolve("s"));
+        store.append(List.of(entry("one")));
+        var segment = store.getDirectory().resolve("segment-1.dat");
+        // What a save that didn't get to replace the manifest leaves behind, longer than the
+        // next record.
+        Files.write(segment, new byte[0x10000], APPEND);
+        assertEquals(List.of("1 one"), read(store));
+
+        var two = store.append(List.of(entry("two"))).get(0);
+        assertEquals(two.responseOffset + two.responseLength, Files.size(segment));
+        assertEquals(List.of("1 one", "2 two"), read(store));
+    }
+
+    @Test
+    public void testFailedAppendLeavesManifest() throws Exception {
+        var store = new SessionStore(directory.resolve("s"));
+        store.append(List.of(entry("one")));
+        var manifest = Files.readAllBytes(store.getDirectory().resolve("manifest.properties"));
+        var wrongLength = entry("two");
+        wrongLength.responseLength++;
+        assertThrows(IOException.class, () -> store.append(List.of(entry("ok"), wrongLength)));
+        assertArrayEquals(manifest,
+                Files.readAllBytes(store.getDirectory().resolve("manifest.properties")));
+        assertEquals(List.of("1 one"), read(store));
+        store.append(List.of(entry("three")));
+        assertEquals(List.of("1 one", "2 three"), read(store));
+    }
+
+    @Test
+    public void testFailedStateWriteLeavesState() throws Exception {
+        var store = new SessionStore(directory.resolve("s"));
+        store.writeState("headers.xml", out -> out.write("old".getBytes(UTF_8)));
+        assertThrows(IOException.class, () -> store.writeState("headers.xml", out -> {
+            out.write("ne".getBytes(UTF_8));
+            throw new IOException("interrupted");
+        }));
+        assertEquals("old", Files.readString(store.state("headers.xml"), UTF_8));
+        assertEquals(List.of("headers.xml"), names(store.getDirectory()));
+    }
+
+    @Test
+    public void testReadersSeeOnlyCommittedEntries() throws Exception {
+        var store = new SessionStore(directory.resolve("s"));
+        var done = new AtomicBoolean();
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> {
+                try {
+                    for (int i = 1; i <= 100; i++) {
+                        store.append(List.of(entry("body " + i)));
+                    }
+                } finally {
+                    done.set(true);
+                }
+                return null;
+            });
+            var last = 0;
+            while (!done.get()) {
+                var entries = read(store);
+                assertTrue(entries.size() >= last);
+                for (int i = 0; i < entries.size(); i++) {
+                    assertEquals((i + 1) + " body " + (i + 1), entries.get(i));
+                }
+                last = entries.size();
+            }
+            writer.get();
+            assertEquals(100, read(store).size());
+            assertFalse(names(store.getDirectory()).stream().anyMatch(n -> n.endsWith(".tmp")));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testNewSegmentAfterSegmentSize() throws Exception {
+        var store = new SessionStore(directory.resolve("s"));
+        var large = Files.createTempFile(directory, "large", ".tmp");
+        try (var file = new RandomAccessFile(large.toFile(), "rw")) {
+            file.setLength(SessionStore.SEGMENT_SIZE);
+        }
+        var entry = new Session.HistoryEntry(0, 1);
+        entry.responseFile = large;
+        entry.responseLength = SessionStore.SEGMENT_SIZE;
+        var full = store.append(List.of(entry("small"), entry)).get(1);
+        assertTrue(full.responseFile.endsWith("segment-1.dat"));
+        var next = store.append(List.of(entry("next"))).get(0);
+        assertTrue(next.responseFile.endsWith("segment-2.dat"));
+        assertEquals(0x4000000, SessionStore.SEGMENT_SIZE);
+        assertEquals(List.of("1 small", "2 large", "3 next"), read(store));
+    }
+
+    @Test
+    public void testConcurrentLegacyZipImports() throws Exception {
+        var hostDirectory = directory.resolve("host");
+        new SessionStore(hostDirectory.resolve("source"))
+                .append(List.of(entry("one"), entry("two"), entry("three")));
+        new Session(hostDirectory, "source", connection())
+                .exportZip(hostDirectory.resolve("legacy.zip"));
+
+        var runs = 4;
+        var executor = Executors.newFixedThreadPool(runs);
+        try {
+            for (int round = 0; round < 5; round++) {
+                delete(hostDirectory.resolve("legacy"));
+                var barrier = new CyclicBarrier(runs);
+                var reads = new ArrayList<Future<List<String>>>();
+                for (int i = 0; i < runs; i++) {
+                    reads.add(executor.submit(() -> {
+                        var session = new Session(hostDirectory, "legacy", connection());
+                        barrier.await();
+                        var entries = new ArrayList<String>();
+                        session.readHistory(e -> entries.add(e.id + " " + body(e)));
+                        return entries;
+                    }));
+                }
+                for (var read : reads) {
+                    assertEquals(List.of("1 one", "2 two", "3 three"),
+                            read.get(30, TimeUnit.SECONDS));
+                }
+                assertEquals(List.of("legacy", "legacy.zip", "source"), names(hostDirectory));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Session.HistoryEntry entry(String body) throws IOException {
+        var file = Files.createTempFile(directory, "body", ".tmp");
+        Files.writeString(file, body, UTF_8);
+        var entry = new Session.HistoryEntry(0, System.currentTimeMillis());
+        entry.uri = "/" + body.replace(' ', '-');
+        entry.status = 200;
+        entry.responseFile = file;
+        entry.responseLength = Files.size(file);
+        return entry;
+    }
+
+    private static List<String> read(SessionStore store) throws Exception {
+        var entries = new ArrayList<String>();
+        store.read(e -> entries.add(e.id + " "
+                + (e.responseLength > 0x10000 ? "large" : body(e))));
+        return entries;
+    }
+
+    private static String body(Session.HistoryEntry entry) throws IOException {
+        try (var in = entry.openResponse()) {
+            return new String(in.readAllBytes(), UTF_8);
+        }
+    }
+
+    private static HttpURLConnection connection() throws IOException {
+        return (HttpURLConnection) new URL("http://sessionstoretests.invalid/").openConnection();
+    }
+
+    private static List<String> names(Path directory) throws IOException {
+        try (var paths = Files.list(directory)) {
+            return paths.map(p -> p.getFileName().toString())
+                    .filter(n -> !n.equals("store.lock")).sorted().collect(toList());
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (var paths = Files.walk(path)) {
+            for (var p : paths.sorted(reverseOrder()).collect(toList())) {
+                Files.delete(p);
+            }
+        }
+    }
+}
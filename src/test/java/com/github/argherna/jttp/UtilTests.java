@@ -0,0 +1,46 @@
+package com.github.argherna.jttp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class UtilTests {
+
+    @Test
+    public void testSplitArgsAtWhitespace() {
+        assertEquals(List.of("-m", "POST", "http://localhost/a"),
+                Util.splitArgs("  -m\tPOST   http://localhost/a "));
+        assertEquals(List.of(), Util.splitArgs(""));
+        assertEquals(List.of(), Util.splitArgs(" \t "));
+    }
+
+    @Test
+    public void testSplitArgsSingleQuotesAreLiteral() {
+        assertEquals(List.of("a b", "c\\d", "\"e\""), Util.splitArgs("'a b' 'c\\d' '\"e\"'"));
+    }
+
+    @Test
+    public void testSplitArgsDoubleQuotes() {
+        assertEquals(List.of("a b", "say \"hi\"", "it's"),
+                Util.splitArgs("\"a b\" \"say \\\"hi\\\"\" \"it's\""));
+    }
+
+    @Test
+    public void testSplitArgsBackslashEscapes() {
+        assertEquals(List.of("a b", "'", "c"), Util.splitArgs("a\\ b \\' c"));
+        assertEquals(List.of("trailing\\"), Util.splitArgs("trailing\\"));
+    }
+
+    @Test
+    public void testSplitArgsEmptyQuotedArgument() {
+        assertEquals(List.of("x", "", "y", ""), Util.splitArgs("x '' y \"\""));
+    }
+
+    @Test
+    public void testSplitArgsQuotesJoinAdjacentText() {
+        assertEquals(List.of("key=a value", "--data={\"k\": 1}"),
+                Util.splitArgs("key='a value' --data='{\"k\": 1}'"));
+    }
+}